@@ -26,15 +26,15 @@ import org.springframework.stereotype.Service;
 @Scope("session")
 public class BasketSession {
 
-	private List<String> dirsToCopy;
+	private List<DrivePath> dirsToCopy;
 
 	private String goal;
 
-	public List<String> getDirsToCopy() {
+	public List<DrivePath> getDirsToCopy() {
 		return dirsToCopy;
 	}
 
-	public void setDirsToCopy(List<String> dirsToCopy) {
+	public void setDirsToCopy(List<DrivePath> dirsToCopy) {
 		this.dirsToCopy = dirsToCopy;
 	}
 
@@ -0,0 +1,110 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.beans;
+
+import java.util.List;
+
+/**
+ * Bean representing a resumable chunked upload : the browser sends the chunks to the server,
+ * which writes them to a staging object of the drive (S3 multipart upload, SMB or SFTP temporary file)
+ */
+public class ChunkedUpload {
+
+    private String uploadId;
+    private String filename;
+    private long size;
+    private long chunkSize;
+    private int chunkCount;
+    private boolean parallel;
+    private List<Integer> receivedChunks;
+
+    public ChunkedUpload() {
+    }
+
+    public ChunkedUpload(String uploadId, String filename, long size, long chunkSize, int chunkCount, boolean parallel, List<Integer> receivedChunks) {
+        this.uploadId = uploadId;
+        this.filename = filename;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = chunkCount;
+        this.parallel = parallel;
+        this.receivedChunks = receivedChunks;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(int chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * true if chunks can be sent in parallel and in any order, false if they have to be sent one after the other
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Indexes of the chunks already stored : the ones to skip when the upload is resumed
+     */
+    public List<Integer> getReceivedChunks() {
+        return receivedChunks;
+    }
+
+    public void setReceivedChunks(List<Integer> receivedChunks) {
+        this.receivedChunks = receivedChunks;
+    }
+}
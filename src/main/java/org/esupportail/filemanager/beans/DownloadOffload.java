@@ -17,18 +17,29 @@
  */
 package org.esupportail.filemanager.beans;
 
-import org.springframework.web.multipart.MultipartFile;
+/**
+ * Internal redirect header returned instead of the file content :
+ * the front-end (nginx X-Accel-Redirect, Apache X-Sendfile) serves the file itself
+ */
+public class DownloadOffload {
 
-public class FileUpload {
+    public static final String X_ACCEL_REDIRECT = "X-Accel-Redirect";
 
-	MultipartFile qqfile;
+    public static final String X_SENDFILE = "X-Sendfile";
 
-	public MultipartFile getQqfile() {
-		return qqfile;
-	}
+    private final String header;
+    private final String value;
 
-	public void setQqfile(MultipartFile qqfile) {
-		this.qqfile = qqfile;
-	}
-}
+    public DownloadOffload(String header, String value) {
+        this.header = header;
+        this.value = value;
+    }
 
+    public String getHeader() {
+        return header;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.beans;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Path of a resource in the drives tree, parsed once : FS:category~drive~localPath
+ * Parsing is done with indexOf/substring so that no array or regex is involved,
+ * and the resulting object is then passed to the IServersAccessService API
+ * instead of re-splitting the same string in each method.
+ */
+public final class DrivePath implements Serializable {
+
+	private static final DrivePath ROOT = new DrivePath(JsTreeFile.ROOT_DRIVE, null, null, "");
+
+	private final String path;
+
+	private final String category;
+
+	private final String drive;
+
+	private final String localPath;
+
+	private DrivePath(String path, String category, String drive, String localPath) {
+		this.path = path;
+		this.category = category;
+		this.drive = drive;
+		this.localPath = localPath;
+	}
+
+	public static DrivePath parse(String dir) {
+		if(dir == null || dir.length() <= JsTreeFile.ROOT_DRIVE.length())
+			return dir == null || JsTreeFile.ROOT_DRIVE.equals(dir) ? ROOT : new DrivePath(dir, null, null, "");
+		String separator = JsTreeFile.DRIVE_PATH_SEPARATOR;
+		int start = JsTreeFile.ROOT_DRIVE.length();
+		int categoryEnd = dir.indexOf(separator, start);
+		if(categoryEnd == -1)
+			return new DrivePath(dir, dir.substring(start), null, "");
+		String category = dir.substring(start, categoryEnd);
+		int driveStart = categoryEnd + separator.length();
+		int driveEnd = dir.indexOf(separator, driveStart);
+		if(driveEnd == -1)
+			return new DrivePath(dir, category, dir.substring(driveStart), "");
+		return new DrivePath(dir, category, dir.substring(driveStart, driveEnd), dir.substring(driveEnd + separator.length()));
+	}
+
+	public static DrivePath of(String category, String drive, String localPath) {
+		String path = JsTreeFile.ROOT_DRIVE;
+		if(category != null)
+			path = path.concat(category);
+		if(drive != null)
+			path = path.concat(JsTreeFile.DRIVE_PATH_SEPARATOR).concat(drive);
+		if(localPath != null && !localPath.isEmpty())
+			path = path.concat(JsTreeFile.DRIVE_PATH_SEPARATOR).concat(localPath);
+		return new DrivePath(path, category, drive, localPath == null ? "" : localPath);
+	}
+
+	/**
+	 * @return path of a resource in the same drive
+	 */
+	public DrivePath resolve(String localPath) {
+		return of(category, drive, localPath);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public String getDrive() {
+		return drive;
+	}
+
+	public String getLocalPath() {
+		return localPath;
+	}
+
+	public boolean isRoot() {
+		return category == null || category.isEmpty();
+	}
+
+	public boolean isCategory() {
+		return !isRoot() && (drive == null || drive.isEmpty());
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return this == o || o instanceof DrivePath other && path.equals(other.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -18,17 +18,31 @@
 package org.esupportail.filemanager.beans;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Selected dirs of a request : bound from encoded dirs request parameters
+ * and decoded once by DrivePathConverter.
+ */
 public class FormCommand implements Serializable {
 
-	private List<String> dirs;
+	private List<DrivePath> dirs;
 
-	public List<String> getDirs() {
+	public List<DrivePath> getDirs() {
 		return dirs;
 	}
 
-	public void setDirs(List<String> dirs) {
-		this.dirs = dirs;
+	public void setDirs(List<DrivePath> dirs) {
+		if(dirs == null) {
+			this.dirs = null;
+			return;
+		}
+		// empty values are converted to null
+		this.dirs = new ArrayList<DrivePath>(dirs.size());
+		for(DrivePath dir: dirs) {
+			if(dir != null)
+				this.dirs.add(dir);
+		}
 	}
 }
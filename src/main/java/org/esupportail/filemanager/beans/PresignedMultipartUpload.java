@@ -0,0 +1,72 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.beans;
+
+/**
+ * Bean representing a multipart upload initiated for a browser,
+ * which then uploads the parts directly to S3 with presigned URLs
+ */
+public class PresignedMultipartUpload {
+
+    private String uploadId;
+    private String filename;
+    private long partSize;
+    private int partCount;
+
+    public PresignedMultipartUpload() {
+    }
+
+    public PresignedMultipartUpload(String uploadId, String filename, long partSize, int partCount) {
+        this.uploadId = uploadId;
+        this.filename = filename;
+        this.partSize = partSize;
+        this.partCount = partCount;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    public void setPartCount(int partCount) {
+        this.partCount = partCount;
+    }
+}
@@ -24,19 +24,28 @@ import org.apereo.cas.client.validation.Cas20ServiceTicketValidator;
 import org.apereo.cas.client.validation.TicketValidator;
 
 import org.esupportail.filemanager.services.auth.CasUserDetailsService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.event.EventListener;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.cas.ServiceProperties;
 import org.springframework.security.cas.authentication.CasAuthenticationProvider;
 import org.springframework.security.cas.web.CasAuthenticationEntryPoint;
 import org.springframework.security.cas.web.CasAuthenticationFilter;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.logout.LogoutFilter;
@@ -55,6 +64,12 @@ public class CasConfig {
 
     String key;
 
+    @Value("${actuator.username:prometheus}")
+    String actuatorUsername = "prometheus";
+
+    @Value("${actuator.password:}")
+    String actuatorPassword;
+
     public String getUrl() {
         return url;
     }
@@ -119,6 +134,38 @@ public class CasConfig {
         return ep;
     }
 
+    /**
+     * Actuator endpoints (prometheus scraping) : no CAS authentication but HTTP basic authentication
+     * with actuator.username / actuator.password ; denied to everybody while actuator.password is not set.
+     * The password may be encoded ({bcrypt}...), it is taken as is ({noop}) otherwise.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain actuatorFilterChain(HttpSecurity http) throws Exception {
+        http.securityMatcher(EndpointRequest.toAnyEndpoint());
+        if (actuatorPassword == null || actuatorPassword.isEmpty()) {
+            http.authorizeHttpRequests(authorize -> authorize
+                    .anyRequest().denyAll()
+            );
+        } else {
+            String password = actuatorPassword.startsWith("{") ? actuatorPassword : "{noop}" + actuatorPassword;
+            DaoAuthenticationProvider provider = new DaoAuthenticationProvider(new InMemoryUserDetailsManager(
+                    User.withUsername(actuatorUsername).password(password).roles("ACTUATOR").build()));
+            provider.setPasswordEncoder(PasswordEncoderFactories.createDelegatingPasswordEncoder());
+            http
+                    .authenticationManager(new ProviderManager(provider))
+                    .authorizeHttpRequests(authorize -> authorize
+                            .anyRequest().hasRole("ACTUATOR")
+                    )
+                    .httpBasic(Customizer.withDefaults());
+        }
+        http
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .csrf().disable();
+
+        return http.build();
+    }
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http, CasAuthenticationFilter casAuthenticationFilter) throws Exception {
         http
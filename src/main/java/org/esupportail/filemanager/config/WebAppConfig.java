@@ -1,9 +1,19 @@
 package org.esupportail.filemanager.config;
 
+import org.esupportail.filemanager.web.DownloadStreamer;
+import org.esupportail.filemanager.web.DrivePathConverter;
+import org.esupportail.filemanager.web.StreamingUploadMultipartResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.DispatcherServlet;
 import org.springframework.web.servlet.LocaleResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.i18n.CookieLocaleResolver;
@@ -15,6 +25,21 @@ import java.time.Duration;
 @EnableMethodSecurity
 public class WebAppConfig implements WebMvcConfigurer {
 
+    @Autowired
+    private DrivePathConverter drivePathConverter;
+
+    @Autowired
+    private DownloadStreamer downloadStreamer;
+
+    @Value("${download.executor.threads:64}")
+    int downloadThreads = 64;
+
+    @Value("${download.executor.queue-capacity:200}")
+    int downloadQueueCapacity = 200;
+
+    @Value("${download.async.timeout-ms:0}")
+    long downloadTimeout = 0;
+
     /**
      * Resolves the locale from a cookie (persisted for 1 year).
      * When no cookie is present, uses the browser locale (Accept-Language).
@@ -44,4 +69,50 @@ public class WebAppConfig implements WebMvcConfigurer {
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(localeChangeInterceptor());
     }
+
+    /**
+     * Encoded dirs of a FormCommand are bound as DrivePath, decoded once per request.
+     */
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        registry.addConverter(drivePathConverter);
+    }
+
+    /**
+     * Bounded executor of the async downloads (DownloadStreamer) : the only async requests of the application.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor downloadTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(downloadThreads);
+        executor.setMaxPoolSize(downloadThreads);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setQueueCapacity(downloadQueueCapacity);
+        executor.setThreadNamePrefix("download-");
+        executor.setDaemon(true);
+        return executor;
+    }
+
+    /**
+     * Downloads can last long on slow links : no timeout by default (0),
+     * a client which doesn't read anymore is cut by the socket write timeout of Tomcat.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(downloadTaskExecutor());
+        configurer.setDefaultTimeout(downloadTimeout);
+        configurer.registerCallableInterceptors(downloadStreamer);
+    }
+
+    /**
+     * Replaces the multipart resolver of Spring Boot (same spring.servlet.multipart settings) :
+     * uploads marked by StreamingUploadFilter are parsed on the fly by the controller instead of being spooled on disk.
+     */
+    @Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+    public StreamingUploadMultipartResolver multipartResolver(MultipartProperties multipartProperties) {
+        StreamingUploadMultipartResolver multipartResolver = new StreamingUploadMultipartResolver();
+        multipartResolver.setResolveLazily(multipartProperties.isResolveLazily());
+        multipartResolver.setStrictServletCompliance(multipartProperties.isStrictServletCompliance());
+        return multipartResolver;
+    }
 }
@@ -0,0 +1,38 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.crudlog;
+
+/**
+ * An audited call of a @CrudLoggable method.
+ * Arguments and return value are rendered (and truncated) as JSON by the calling thread :
+ * the event holds no reference to objects the request may still change.
+ * returning is null for void methods and failed calls, exception and message are null for successful calls.
+ */
+public record AuditEvent(long timestamp,
+                         CrudLogLevel level,
+                         String username,
+                         String clientIpAddress,
+                         String drive,
+                         String operation,
+                         long durationMicros,
+                         long bytes,
+                         String params,
+                         String returning,
+                         String exception,
+                         String message) {
+}
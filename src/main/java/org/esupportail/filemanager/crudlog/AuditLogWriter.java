@@ -0,0 +1,245 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.crudlog;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the audit events as JSON lines on the "org.esupportail.filemanager.audit" logger,
+ * from a single background thread : callers only put the event in a bounded ring buffer.
+ *
+ * When the buffer is full the oldest event is dropped (and counted) so that callers are never blocked.
+ * Parameters and return values are rendered by the callers with renderParams / renderValue, before the call returns :
+ * collections are truncated to maxCollectionItems items and strings to maxValueLength chars,
+ * so that the buffer only holds bounded strings and never objects still used by the request.
+ */
+@Component
+public class AuditLogWriter implements DisposableBean {
+
+    private static final org.slf4j.Logger auditLog = org.slf4j.LoggerFactory.getLogger("org.esupportail.filemanager.audit");
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AuditLogWriter.class);
+
+    @Value("${crudlog.queue-size:8192}")
+    int queueSize = 8192;
+
+    @Value("${crudlog.max-collection-items:5}")
+    int maxCollectionItems = 5;
+
+    @Value("${crudlog.max-value-length:256}")
+    int maxValueLength = 256;
+
+    private volatile ArrayBlockingQueue<AuditEvent> queue;
+
+    private volatile Thread writerThread;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Only used by the writer thread. */
+    private final StringBuilder json = new StringBuilder(1024);
+
+    public boolean isEnabled(CrudLogLevel level) {
+        return CrudLogLevel.DEBUG.equals(level) ? auditLog.isDebugEnabled() : auditLog.isInfoEnabled();
+    }
+
+    public void write(AuditEvent event) {
+        ArrayBlockingQueue<AuditEvent> q = getQueue();
+        while(!q.offer(event)) {
+            // ring buffer : the oldest event is dropped
+            if(q.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the JSON array of the arguments
+     */
+    public String renderParams(Object[] args) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append('[');
+        for(int i = 0; i < args.length; i++) {
+            if(i > 0) {
+                sb.append(',');
+            }
+            value(sb, args[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * @return the JSON value of a return value
+     */
+    public String renderValue(Object value) {
+        StringBuilder sb = new StringBuilder(64);
+        value(sb, value);
+        return sb.toString();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private ArrayBlockingQueue<AuditEvent> getQueue() {
+        if(queue == null) {
+            synchronized (this) {
+                if(queue == null) {
+                    queue = new ArrayBlockingQueue<>(Math.max(16, queueSize));
+                    writerThread = new Thread(this::drain, "crudlog-audit");
+                    writerThread.setDaemon(true);
+                    writerThread.start();
+                }
+            }
+        }
+        return queue;
+    }
+
+    private void drain() {
+        long reportedDropped = 0;
+        while(!Thread.currentThread().isInterrupted()) {
+            try {
+                AuditEvent event = queue.poll(1, TimeUnit.SECONDS);
+                if(event != null) {
+                    writeEvent(event);
+                }
+                long droppedNow = dropped.get();
+                if(droppedNow != reportedDropped) {
+                    log.warn("Audit ring buffer full : {} events dropped so far", droppedNow);
+                    reportedDropped = droppedNow;
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(RuntimeException e) {
+                log.warn("Audit event can't be written", e);
+            }
+        }
+        // flush what is left on shutdown
+        AuditEvent event;
+        while((event = queue.poll()) != null) {
+            writeEvent(event);
+        }
+    }
+
+    private void writeEvent(AuditEvent event) {
+        json.setLength(0);
+        json.append("{\"timestamp\":\"").append(Instant.ofEpochMilli(event.timestamp())).append('"');
+        field("user", event.username());
+        field("ip", event.clientIpAddress());
+        field("drive", event.drive());
+        field("op", event.operation());
+        json.append(",\"durationMicros\":").append(event.durationMicros());
+        if(event.bytes() >= 0) {
+            json.append(",\"bytes\":").append(event.bytes());
+        }
+        json.append(",\"outcome\":\"").append(event.exception() == null ? "success" : "error").append('"');
+        json.append(",\"params\":").append(event.params());
+        if(event.exception() != null) {
+            field("exception", event.exception());
+            field("message", event.message());
+        } else if(event.returning() != null) {
+            json.append(",\"returning\":").append(event.returning());
+        }
+        json.append('}');
+        String line = json.toString();
+        if(event.exception() != null) {
+            auditLog.warn(line);
+        } else if(CrudLogLevel.DEBUG.equals(event.level())) {
+            auditLog.debug(line);
+        } else {
+            auditLog.info(line);
+        }
+    }
+
+    private void field(String name, String value) {
+        json.append(",\"").append(name).append("\":");
+        string(json, value);
+    }
+
+    private void value(StringBuilder json, Object value) {
+        if(value == null) {
+            json.append("null");
+        } else if(value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if(value instanceof Collection<?> collection) {
+            json.append("{\"size\":").append(collection.size()).append(",\"items\":[");
+            Iterator<?> iterator = collection.iterator();
+            for(int i = 0; i < maxCollectionItems && iterator.hasNext(); i++) {
+                if(i > 0) {
+                    json.append(',');
+                }
+                string(json, String.valueOf(iterator.next()));
+            }
+            json.append("]}");
+        } else if(value instanceof byte[] || value instanceof java.io.InputStream || value instanceof java.io.OutputStream) {
+            // streams and contents are not rendered
+            string(json, value.getClass().getSimpleName());
+        } else {
+            string(json, String.valueOf(value));
+        }
+    }
+
+    private void string(StringBuilder json, String value) {
+        if(value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        int length = Math.min(value.length(), maxValueLength);
+        for(int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if(c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        if(value.length() > maxValueLength) {
+            json.append("...");
+        }
+        json.append('"');
+    }
+
+    @Override
+    public void destroy() {
+        if(writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join(2000);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
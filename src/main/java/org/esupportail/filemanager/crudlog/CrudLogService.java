@@ -17,160 +17,122 @@
  */
 package org.esupportail.filemanager.crudlog;
 
-import org.aspectj.lang.JoinPoint;
-import org.aspectj.lang.annotation.AfterReturning;
-import org.aspectj.lang.annotation.AfterThrowing;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.esupportail.filemanager.beans.CasUser;
+import org.esupportail.filemanager.beans.DownloadFile;
+import org.esupportail.filemanager.beans.DrivePath;
 import org.esupportail.filemanager.exceptions.EsupStockLostSessionException;
+import org.esupportail.filemanager.metrics.CountingInputStream;
 import org.springframework.security.cas.authentication.CasAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
 
-import java.text.MessageFormat;
-import java.util.HashMap;
+import java.io.InputStream;
 import java.util.List;
-import java.util.Map;
+
+/**
+ * Audit of the @CrudLoggable methods : one JSON line per call (user, ip, drive, op, duration, bytes, params, returning)
+ * on the "org.esupportail.filemanager.audit" logger.
+ *
+ * Params and return value are rendered to bounded strings in the calling thread, only if the audit logger is enabled
+ * for the level ; the JSON line is then written by the AuditLogWriter thread.
+ * Exceptions are still logged right away with their stack trace on this class logger.
+ * bytes is the size of the downloaded file, or the number of bytes read from the uploaded stream.
+ */
 @Aspect
 @Component
 public class CrudLogService {
 
-    private static String AFTER_THROWING = "{0} - {1} - {2} - params [ {3}] - exception {4}";
-
-    private static String AFTER_RETURNING = "{0} - {1} - {2} - params [ {3}] - returning {4}";
-
-    private static String AFTER_RETURNING_VOID = "{0} - {1} - {2} - params [ {3}]";
-
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CrudLogService.class);
 
+    private static final String UNDEFINED = "undefined";
 
-	/*
-	@Before(value = "@annotation(loggable)", argNames = "joinPoint, loggable")
-	public void before(JoinPoint joinPoint, CrudLoggable loggable) {
-	}
-	*/
-
-
-    @AfterThrowing(value = "@annotation(loggable)",
-            throwing = "throwable", argNames = "joinPoint, loggable, throwable")
-    public void afterThrowing(JoinPoint joinPoint, CrudLoggable loggable, Throwable throwable) {
+    private final AuditLogWriter auditLogWriter;
 
-        Class<? extends Object> clazz = joinPoint.getTarget().getClass();
-        String name = joinPoint.getSignature().getName();
+    public CrudLogService(AuditLogWriter auditLogWriter) {
+        this.auditLogWriter = auditLogWriter;
+    }
 
-        Map<String, String> userInfos = this.getUserInfos(joinPoint);
-        String username = userInfos.get("username");
-        String clientIpAddress = userInfos.get("clientIpAddress");
+    @Around(value = "@annotation(loggable)", argNames = "joinPoint, loggable")
+    public Object audit(ProceedingJoinPoint joinPoint, CrudLoggable loggable) throws Throwable {
+        long start = System.nanoTime();
+        Object[] args = joinPoint.getArgs();
+        CountingInputStream upload = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i] instanceof InputStream inputStream) {
+                upload = new CountingInputStream(inputStream);
+                args[i] = upload;
+            }
+        }
+        Object returnValue;
+        try {
+            returnValue = joinPoint.proceed(args);
+        } catch(Throwable throwable) {
+            afterThrowing(joinPoint, loggable, throwable, upload, start);
+            throw throwable;
+        }
+        if(auditLogWriter.isEnabled(loggable.value())) {
+            auditLogWriter.write(event(joinPoint, loggable, returnValue, null, upload, start));
+        }
+        return returnValue;
+    }
 
+    private void afterThrowing(ProceedingJoinPoint joinPoint, CrudLoggable loggable, Throwable throwable,
+                               CountingInputStream upload, long start) {
+        AuditEvent event = event(joinPoint, loggable, null, throwable, upload, start);
         // EsupStockLostSessionException signals a normal "not yet authenticated" workflow:
         // log at WARN without stack trace to avoid polluting ERROR logs.
         if (throwable instanceof EsupStockLostSessionException) {
-            log.warn(MessageFormat.format(AFTER_THROWING, name,
-                    constructArgumentsString(clazz, name, clientIpAddress, username, joinPoint.getArgs()),
-                    throwable.getMessage(), "", ""));
-            return;
+            log.warn("{} - {} - {} - {}", event.operation(), event.clientIpAddress(), event.username(), throwable.getMessage());
+        } else {
+            log.error("{} - {} - {} - exception {}", event.operation(), event.clientIpAddress(), event.username(), throwable.getMessage(), throwable);
         }
-
-        this.logError(clazz, throwable, AFTER_THROWING, name,
-                constructArgumentsString(clazz, name, clientIpAddress, username, joinPoint.getArgs()), throwable.getMessage());
+        auditLogWriter.write(event);
     }
 
-    @AfterReturning(value = "@annotation(loggable)", returning = "returnValue",
-            argNames = "joinPoint, loggable, returnValue")
-    public void afterReturning(JoinPoint joinPoint, CrudLoggable loggable,
-                               Object returnValue) {
-
-        CrudLogLevel logLevel = loggable.value();
-
-        if( CrudLogLevel.DEBUG.equals(logLevel) && log.isDebugEnabled() ||
-                CrudLogLevel.INFO.equals(logLevel) && log.isInfoEnabled() ) {
-
-            Class<? extends Object> clazz = joinPoint.getTarget().getClass();
-            String name = joinPoint.getSignature().getName();
-
-            Map<String, String> userInfos = this.getUserInfos(joinPoint);
-            String username = userInfos.get("username");
-            String clientIpAddress = userInfos.get("clientIpAddress");
-
-            if (joinPoint.getSignature() instanceof MethodSignature) {
-                MethodSignature signature = (MethodSignature) joinPoint
-                        .getSignature();
-                Class<?> returnType = signature.getReturnType();
-                if (returnType.getName().compareTo("void") == 0) {
-                    this.log(logLevel, clazz, AFTER_RETURNING_VOID,
-                            name, clientIpAddress, username, constructArgumentsString(clazz, joinPoint.getArgs()), constructArgumentsString(clazz, returnValue));
+    private AuditEvent event(ProceedingJoinPoint joinPoint, CrudLoggable loggable, Object returnValue, Throwable throwable,
+                             CountingInputStream upload, long start) {
+        long durationMicros = (System.nanoTime() - start) / 1000;
+        Object[] args = joinPoint.getArgs();
 
-                    return;
-                }
+        String username = UNDEFINED;
+        String clientIpAddress = UNDEFINED;
+        Authentication authentication = org.springframework.security.core.context.SecurityContextHolder.getContext().getAuthentication();
+        if(authentication instanceof CasAuthenticationToken casAuthenticationToken
+                && casAuthenticationToken.getUserDetails() instanceof CasUser casUser) {
+            username = casUser.getUsername();
+            if (casUser.getAttributes().get("clientIpAddress") instanceof String clientIpAddressAttr) {
+                clientIpAddress = clientIpAddressAttr;
             }
-
-            this.log(logLevel, clazz, AFTER_RETURNING, name, clientIpAddress, username, constructArgumentsString(clazz, joinPoint.getArgs()),
-                    constructArgumentsString(clazz, returnValue));
         }
-    }
-
 
-    private String constructArgumentsString(Class<?> clazz, Object... arguments) {
-
-        StringBuffer buffer = new StringBuffer();
-        for (Object object : arguments) {
-            buffer.append(object).append(" ");
+        long bytes = -1;
+        if(upload != null) {
+            bytes = upload.getCount();
+        } else if(returnValue instanceof DownloadFile downloadFile) {
+            bytes = downloadFile.getSize();
         }
+        boolean returnsVoid = joinPoint.getSignature() instanceof MethodSignature signature
+                && void.class.equals(signature.getReturnType());
+        String returning = throwable == null && !returnsVoid ? auditLogWriter.renderValue(returnValue) : null;
 
-        return buffer.toString();
-    }
-
-    private void log(CrudLogLevel logLevel, Class<?> clazz,
-                     String pattern,
-                     Object... arguments) {
-        String message = MessageFormat.format(pattern, arguments);
-        if(CrudLogLevel.DEBUG.equals(logLevel))
-            log.debug(message);
-        if(CrudLogLevel.INFO.equals(logLevel))
-            log.info(message);
-    }
-
-    private void logError(Class<?> clazz,
-                          Throwable throwable,  String pattern,
-                          Object... arguments) {
-        String message = MessageFormat.format(pattern, arguments);
-        log.error(message, throwable);
+        return new AuditEvent(System.currentTimeMillis(), loggable.value(), username, clientIpAddress, getDrive(args),
+                joinPoint.getSignature().getName(), durationMicros, bytes, auditLogWriter.renderParams(args), returning,
+                throwable != null ? throwable.getClass().getName() : null, throwable != null ? throwable.getMessage() : null);
     }
 
-    private Map<String, String> getUserInfos(JoinPoint joinPoint) {
-
-        Object[] args = joinPoint.getArgs();
-        Object target = joinPoint.getTarget();
-        String username = "undefined";
-        String clientIpAddress = "undefined";
-
-        if(args.length > 0) {
-            String dir = null;
-            if (args[0] instanceof String)
-                dir = (String) args[0];
-            if (args[0] instanceof List) {
-                Object argList0 = ((List) args[0]).get(0);
-                if (argList0 instanceof String)
-                    dir = (String) argList0;
+    private static String getDrive(Object[] args) {
+        for(Object arg : args) {
+            if(arg instanceof DrivePath drivePath) {
+                return drivePath.getDrive();
             }
-        }
-
-        Authentication authentication = org.springframework.security.core.context.SecurityContextHolder.getContext().getAuthentication();
-        if(authentication instanceof CasAuthenticationToken casAuthenticationToken) {
-            CasUser casUser = (CasUser) casAuthenticationToken.getUserDetails();
-            username = casUser.getUsername();
-            Object clientIpAddressAttr = casUser.getAttributes().get("clientIpAddress");
-            if (clientIpAddressAttr instanceof String) {
-                clientIpAddress = (String)clientIpAddressAttr;
+            if(arg instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof DrivePath drivePath) {
+                return drivePath.getDrive();
             }
         }
-
-        Map<String, String> userInfos = new HashMap<String, String>();
-        userInfos.put("username", username);
-        userInfos.put("clientIpAddress", clientIpAddress);
-
-        return userInfos;
+        return null;
     }
 }
-
@@ -0,0 +1,111 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * InputStream counting the bytes read (or skipped), and into a Micrometer counter if any.
+ * onEnd is run once, on end of stream or on close, whichever comes first.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final Counter counter;
+
+    private final Runnable onEnd;
+
+    private final AtomicBoolean ended = new AtomicBoolean(false);
+
+    private volatile long count;
+
+    public CountingInputStream(InputStream in) {
+        this(in, null, () -> {});
+    }
+
+    public CountingInputStream(InputStream in, Runnable onEnd) {
+        this(in, null, onEnd);
+    }
+
+    public CountingInputStream(InputStream in, Counter counter, Runnable onEnd) {
+        super(in);
+        this.counter = counter;
+        this.onEnd = onEnd;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b == -1) {
+            end();
+        } else {
+            add(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if(count == -1) {
+            end();
+        } else if(count > 0) {
+            add(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if(skipped > 0) {
+            add(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            end();
+        }
+    }
+
+    private void add(long bytes) {
+        count += bytes;
+        if(counter != null) {
+            counter.increment(bytes);
+        }
+    }
+
+    private void end() {
+        if(ended.compareAndSet(false, true)) {
+            onEnd.run();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.metrics;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.esupportail.filemanager.beans.DownloadFile;
+import org.esupportail.filemanager.services.FsAccess;
+import org.springframework.stereotype.Component;
+
+/**
+ * Micrometer metrics of the drive operations (FsAccess implementations), exported by the actuator (/actuator/prometheus) :
+ * <ul>
+ *   <li>esup.fs.operation timer, tagged by drive, protocol (FsAccess.getConnectionType), operation and outcome
+ *   (success, failure when the drive returns false/null, error when it throws) - with histogram buckets for p99 ;</li>
+ *   <li>esup.fs.bytes counter, tagged by drive, protocol and direction (upload/download) ;</li>
+ *   <li>esup.fs.transfers.active gauge, tagged by direction.</li>
+ * </ul>
+ * Downloads are counted until their stream is read to the end or closed.
+ */
+@Aspect
+@Component
+public class FsAccessMetrics {
+
+    static final String OPERATION_TIMER = "esup.fs.operation";
+
+    static final String BYTES_COUNTER = "esup.fs.bytes";
+
+    static final String ACTIVE_TRANSFERS_GAUGE = "esup.fs.transfers.active";
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicInteger activeUploads = new AtomicInteger();
+
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+
+    public FsAccessMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder(ACTIVE_TRANSFERS_GAUGE, activeUploads, AtomicInteger::get).tag("direction", "upload").register(meterRegistry);
+        Gauge.builder(ACTIVE_TRANSFERS_GAUGE, activeDownloads, AtomicInteger::get).tag("direction", "download").register(meterRegistry);
+    }
+
+    @Pointcut("target(org.esupportail.filemanager.services.FsAccess) && ("
+            + "execution(* get(String, boolean, boolean)) || execution(* getChildren(String)) || execution(* remove(String))"
+            + " || execution(* createFile(String, String, String)) || execution(* renameFile(String, String))"
+            + " || execution(* moveCopyFilesIntoDirectory(String, java.util.List, boolean)))")
+    void fsAccessOperation() {
+    }
+
+    @Around(value = "fsAccessOperation() && target(fsAccess)", argNames = "joinPoint, fsAccess")
+    public Object timeOperation(ProceedingJoinPoint joinPoint, FsAccess fsAccess) throws Throwable {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            Object returnValue = joinPoint.proceed();
+            outcome = outcome(returnValue);
+            return returnValue;
+        } finally {
+            record(fsAccess, joinPoint.getSignature().getName(), outcome, start);
+        }
+    }
+
+    @Around(value = "target(fsAccess) && execution(* getFile*(String))", argNames = "joinPoint, fsAccess")
+    public Object timeGetFile(ProceedingJoinPoint joinPoint, FsAccess fsAccess) throws Throwable {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            Object returnValue = joinPoint.proceed();
+            outcome = outcome(returnValue);
+            if(returnValue instanceof DownloadFile downloadFile && downloadFile.getInputStream() != null) {
+                activeDownloads.incrementAndGet();
+                downloadFile.setInputStream(new CountingInputStream(downloadFile.getInputStream(),
+                        bytesCounter(fsAccess, "download"), activeDownloads::decrementAndGet));
+            }
+            return returnValue;
+        } finally {
+            record(fsAccess, joinPoint.getSignature().getName(), outcome, start);
+        }
+    }
+
+    @Around(value = "target(fsAccess) && execution(* putFile(String, String, java.io.InputStream, ..))", argNames = "joinPoint, fsAccess")
+    public Object timePutFile(ProceedingJoinPoint joinPoint, FsAccess fsAccess) throws Throwable {
+        long start = System.nanoTime();
+        String outcome = "error";
+        Object[] args = joinPoint.getArgs();
+        if(args[2] instanceof InputStream inputStream) {
+            // the end of the upload is the end of putFile : nothing to do at end of stream
+            args[2] = new CountingInputStream(inputStream, bytesCounter(fsAccess, "upload"), () -> {});
+        }
+        activeUploads.incrementAndGet();
+        try {
+            Object returnValue = joinPoint.proceed(args);
+            outcome = outcome(returnValue);
+            return returnValue;
+        } finally {
+            activeUploads.decrementAndGet();
+            record(fsAccess, "putFile", outcome, start);
+        }
+    }
+
+    private static String outcome(Object returnValue) {
+        return returnValue == null || Boolean.FALSE.equals(returnValue) ? "failure" : "success";
+    }
+
+    private void record(FsAccess fsAccess, String operation, String outcome, long start) {
+        Timer.builder(OPERATION_TIMER)
+                .tags(tags(fsAccess).and("operation", operation, "outcome", outcome))
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter bytesCounter(FsAccess fsAccess, String direction) {
+        return Counter.builder(BYTES_COUNTER)
+                .baseUnit("bytes")
+                .tags(tags(fsAccess).and("direction", direction))
+                .register(meterRegistry);
+    }
+
+    private static Tags tags(FsAccess fsAccess) {
+        return Tags.of("drive", String.valueOf(fsAccess.getDriveName()), "protocol", fsAccess.getConnectionType());
+    }
+
+    public int getActiveUploads() {
+        return activeUploads.get();
+    }
+
+    public int getActiveDownloads() {
+        return activeDownloads.get();
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.metrics;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationView;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.observation.ServerRequestObservationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Logs the http requests slower than tracing.slow-request.threshold-ms with the breakdown of their observations
+ * (see TracingAspect) : time spent in each layer, drive and path depth.
+ * Time not covered by child observations (security/CAS filters, JSON or view rendering) is reported as "other".
+ */
+@Component
+public class SlowRequestObservationHandler implements ObservationHandler<Observation.Context> {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SlowRequestObservationHandler.class);
+
+    /** Above this number of observations in a request (zip of a big folder ...), the next ones are only counted. */
+    private static final int MAX_SPANS = 200;
+
+    @Value("${tracing.slow-request.threshold-ms:2000}")
+    long thresholdMs = 2000;
+
+    @Override
+    public boolean supportsContext(Observation.Context context) {
+        return true;
+    }
+
+    @Override
+    public void onStart(Observation.Context context) {
+        long now = System.nanoTime();
+        ObservationView parent = context.getParentObservation();
+        if(parent == null) {
+            if(context instanceof ServerRequestObservationContext) {
+                context.put(Breakdown.class, new Breakdown(now));
+            }
+            return;
+        }
+        int depth = 1;
+        Observation.ContextView root = parent.getContextView();
+        while(root.getParentObservation() != null) {
+            root = root.getParentObservation().getContextView();
+            depth++;
+        }
+        Breakdown breakdown = root.get(Breakdown.class);
+        if(breakdown != null) {
+            Span span = breakdown.add(context, depth, now);
+            if(span != null) {
+                context.put(Span.class, span);
+            }
+        }
+    }
+
+    @Override
+    public void onStop(Observation.Context context) {
+        long now = System.nanoTime();
+        Span span = context.get(Span.class);
+        if(span != null) {
+            span.duration = now - span.start;
+            return;
+        }
+        Breakdown breakdown = context.get(Breakdown.class);
+        if(breakdown != null) {
+            long durationMs = (now - breakdown.start) / 1000000;
+            if(durationMs >= thresholdMs) {
+                log.warn(breakdown.format(context, durationMs));
+            }
+        }
+    }
+
+    static final class Span {
+
+        final Observation.Context context;
+        final int depth;
+        final long start;
+        volatile long duration = -1;
+
+        Span(Observation.Context context, int depth, long start) {
+            this.context = context;
+            this.depth = depth;
+            this.start = start;
+        }
+    }
+
+    static final class Breakdown {
+
+        final long start;
+        final List<Span> spans = new ArrayList<>();
+        int skipped = 0;
+
+        Breakdown(long start) {
+            this.start = start;
+        }
+
+        synchronized Span add(Observation.Context context, int depth, long now) {
+            if(spans.size() >= MAX_SPANS) {
+                skipped++;
+                return null;
+            }
+            Span span = new Span(context, depth, now);
+            spans.add(span);
+            return span;
+        }
+
+        synchronized String format(Observation.Context root, long durationMs) {
+            StringBuilder sb = new StringBuilder(256 + spans.size() * 80);
+            sb.append("Slow request ").append(root.getContextualName() != null ? root.getContextualName() : root.getName());
+            if(root instanceof ServerRequestObservationContext requestContext && requestContext.getCarrier() != null) {
+                sb.append(' ').append(requestContext.getCarrier().getRequestURI());
+            }
+            sb.append(" : ").append(durationMs).append(" ms");
+            long direct = 0;
+            for(Span span : spans) {
+                if(span.depth == 1 && span.duration > 0) {
+                    direct += span.duration;
+                }
+                sb.append("\n  ");
+                for(int i = 1; i < span.depth; i++) {
+                    sb.append("  ");
+                }
+                sb.append(span.duration >= 0 ? span.duration / 1000000 + " ms" : "(running)").append("  ")
+                        .append(span.context.getContextualName() != null ? span.context.getContextualName() : span.context.getName());
+                for(KeyValue keyValue : span.context.getLowCardinalityKeyValues()) {
+                    if(!"operation".equals(keyValue.getKey())) {
+                        sb.append(' ').append(keyValue.getKey()).append('=').append(keyValue.getValue());
+                    }
+                }
+                for(KeyValue keyValue : span.context.getHighCardinalityKeyValues()) {
+                    if(keyValue.getKey().startsWith("path.")) {
+                        sb.append(' ').append(keyValue.getKey()).append('=').append(keyValue.getValue());
+                    }
+                }
+            }
+            if(skipped > 0) {
+                sb.append("\n  ... ").append(skipped).append(" more");
+            }
+            sb.append("\n  ").append(Math.max(0, durationMs - direct / 1000000)).append(" ms  other (filters, security, rendering)");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.metrics;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.esupportail.filemanager.beans.DrivePath;
+import org.esupportail.filemanager.services.FsAccess;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Tracing spans (Micrometer observations) for the layers of a request :
+ * <ul>
+ *   <li>esup.controller : AjaxController methods ;</li>
+ *   <li>esup.service : ServersAccessService methods, with drive and path.depth ;</li>
+ *   <li>esup.fs.call : FsAccess operations, hasAccess (SpEL access rule) and formAuthenticationRequired,
+ *   with drive, protocol and path.depth.</li>
+ * </ul>
+ * Observations are children of the http.server.requests one : exported as spans when tracing is enabled
+ * (management.tracing.*, management.otlp.tracing.*) and used by SlowRequestObservationHandler for the slow requests log.
+ */
+@Aspect
+@Component
+public class TracingAspect {
+
+    static final String CONTROLLER_OBSERVATION = "esup.controller";
+
+    static final String SERVICE_OBSERVATION = "esup.service";
+
+    static final String FS_OBSERVATION = "esup.fs.call";
+
+    private final ObservationRegistry observationRegistry;
+
+    public TracingAspect(ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry;
+    }
+
+    @Around("execution(public * org.esupportail.filemanager.web.AjaxController.*(..))")
+    public Object traceController(ProceedingJoinPoint joinPoint) throws Throwable {
+        String operation = joinPoint.getSignature().getName();
+        return Observation.createNotStarted(CONTROLLER_OBSERVATION, observationRegistry)
+                .contextualName("controller " + operation)
+                .lowCardinalityKeyValue("operation", operation)
+                .observeChecked(() -> joinPoint.proceed());
+    }
+
+    @Around("execution(public * org.esupportail.filemanager.services.IServersAccessService.*(..))")
+    public Object traceService(ProceedingJoinPoint joinPoint) throws Throwable {
+        String operation = joinPoint.getSignature().getName();
+        DrivePath dir = getDrivePath(joinPoint.getArgs());
+        Observation observation = Observation.createNotStarted(SERVICE_OBSERVATION, observationRegistry)
+                .contextualName("service " + operation)
+                .lowCardinalityKeyValue("operation", operation);
+        if(dir != null) {
+            observation.lowCardinalityKeyValue(drive(dir.getDrive()))
+                    .highCardinalityKeyValue("path.depth", Integer.toString(depth(dir.getLocalPath())));
+        }
+        return observation.observeChecked(() -> joinPoint.proceed());
+    }
+
+    @Around(value = "target(fsAccess) && (org.esupportail.filemanager.metrics.FsAccessMetrics.fsAccessOperation()"
+            + " || execution(* getFile*(String)) || execution(* putFile(String, String, java.io.InputStream, ..))"
+            + " || execution(* hasAccess()) || execution(* formAuthenticationRequired()))", argNames = "joinPoint, fsAccess")
+    public Object traceFsAccess(ProceedingJoinPoint joinPoint, FsAccess fsAccess) throws Throwable {
+        String operation = joinPoint.getSignature().getName();
+        Object[] args = joinPoint.getArgs();
+        Observation observation = Observation.createNotStarted(FS_OBSERVATION, observationRegistry)
+                .contextualName("fs " + operation)
+                .lowCardinalityKeyValue("operation", operation)
+                .lowCardinalityKeyValue(drive(fsAccess.getDriveName()))
+                .lowCardinalityKeyValue("protocol", fsAccess.getConnectionType());
+        if(args.length > 0 && args[0] instanceof String path) {
+            observation.highCardinalityKeyValue("path.depth", Integer.toString(depth(path)));
+        }
+        return observation.observeChecked(() -> joinPoint.proceed());
+    }
+
+    private static KeyValue drive(String drive) {
+        return KeyValue.of("drive", drive != null ? drive : "none");
+    }
+
+    private static DrivePath getDrivePath(Object[] args) {
+        for(Object arg : args) {
+            if(arg instanceof DrivePath drivePath) {
+                return drivePath;
+            }
+            if(arg instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof DrivePath drivePath) {
+                return drivePath;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of path segments, without allocation.
+     */
+    static int depth(String path) {
+        if(path == null) {
+            return 0;
+        }
+        int depth = 0;
+        boolean inSegment = false;
+        for(int i = 0; i < path.length(); i++) {
+            if(path.charAt(i) == '/') {
+                inSegment = false;
+            } else if(!inSegment) {
+                inSegment = true;
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
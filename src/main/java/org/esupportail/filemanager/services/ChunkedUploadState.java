@@ -0,0 +1,244 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services;
+
+import org.esupportail.filemanager.beans.ChunkedUpload;
+import org.esupportail.filemanager.beans.UploadActionType;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Server side state of a chunked upload, kept by the (session scoped) drive between the requests of the upload.
+ *
+ * Each chunk is sent with its SHA-256 (base64, the encoding of the x-amz-checksum-sha256 header of S3) :
+ * a chunk is marked as received only once its length and its checksum have been checked.
+ */
+public class ChunkedUploadState {
+
+    private final String uploadId;
+
+    private final String path;
+
+    private final String filename;
+
+    private final String target;
+
+    private final long size;
+
+    private final long chunkSize;
+
+    private final int chunkCount;
+
+    private final boolean parallel;
+
+    private final UploadActionType uploadOption;
+
+    private final BitSet received = new BitSet();
+
+    private volatile long lastUse = System.currentTimeMillis();
+
+    /** http session which started the upload, null outside of a request */
+    private volatile String sessionId;
+
+    /**
+     * @param target staging object of the upload : S3 key, SMB or VFS temporary file ...
+     */
+    public ChunkedUploadState(String uploadId, String path, String filename, String target, long size, long chunkSize,
+                              boolean parallel, UploadActionType uploadOption) {
+        this.uploadId = uploadId;
+        this.path = path;
+        this.filename = filename;
+        this.target = target;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        this.parallel = parallel;
+        this.uploadOption = uploadOption;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public UploadActionType getUploadOption() {
+        return uploadOption;
+    }
+
+    public long getLastUse() {
+        return lastUse;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public boolean isValidChunk(int index) {
+        return index >= 0 && index < chunkCount;
+    }
+
+    public long getChunkOffset(int index) {
+        return index * chunkSize;
+    }
+
+    public long getChunkLength(int index) {
+        return Math.min(chunkSize, size - getChunkOffset(index));
+    }
+
+    /**
+     * Uploads whose parts are not sent through the server (presigned multipart uploads) are still in use
+     */
+    public void touch() {
+        lastUse = System.currentTimeMillis();
+    }
+
+    public synchronized void markReceived(int index) {
+        received.set(index);
+        lastUse = System.currentTimeMillis();
+    }
+
+    public synchronized boolean isReceived(int index) {
+        return received.get(index);
+    }
+
+    /**
+     * Number of chunks received from the first one without gap : index of the next chunk of a sequential upload
+     */
+    public synchronized int getContiguousChunks() {
+        return received.nextClearBit(0);
+    }
+
+    public synchronized boolean isComplete() {
+        return received.cardinality() == chunkCount;
+    }
+
+    public synchronized ChunkedUpload toChunkedUpload() {
+        List<Integer> receivedChunks = new ArrayList<>(received.cardinality());
+        received.stream().forEach(receivedChunks::add);
+        return new ChunkedUpload(uploadId, filename, size, chunkSize, chunkCount, parallel, receivedChunks);
+    }
+
+    /**
+     * Stream of the chunk index, checking its length and its checksum while it is read
+     */
+    public ChunkInputStream chunkInputStream(int index, InputStream inputStream, String checksum) {
+        lastUse = System.currentTimeMillis();
+        return new ChunkInputStream(inputStream, getChunkLength(index), checksum);
+    }
+
+    public static class ChunkInputStream extends FilterInputStream {
+
+        private final MessageDigest digest;
+
+        private final long length;
+
+        private final String checksum;
+
+        private long count;
+
+        ChunkInputStream(InputStream inputStream, long length, String checksum) {
+            super(inputStream);
+            this.length = length;
+            this.checksum = checksum;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                digest.update((byte) b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                digest.update(b, off, read);
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // every byte has to go through the digest
+            if (n <= 0) {
+                return 0;
+            }
+            return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * To be called once the chunk has been written : true if the whole chunk has been read and matches its checksum
+         */
+        public boolean isValid() throws IOException {
+            if (count != length || super.read() >= 0) {
+                return false;
+            }
+            return checksum != null && checksum.equals(Base64.getEncoder().encodeToString(digest.digest()));
+        }
+    }
+}
@@ -22,22 +22,34 @@ import org.esupportail.filemanager.beans.*;
 import org.esupportail.filemanager.services.auth.UserAuthenticatorService;
 import org.esupportail.filemanager.services.quota.IQuotaService;
 import org.esupportail.filemanager.services.uri.UriManipulateService;
+import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.security.cas.authentication.CasAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.util.UriUtils;
 
 import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class FsAccess {
 
@@ -63,10 +75,60 @@ public abstract class FsAccess {
 
     String accessRule = null;
 
+    /**
+     * SpEL parser shared by all drives : MIXED mode lets SpEL compile the access rules
+     * to bytecode after a few interpreted evaluations, and fall back to interpretation if needed.
+     */
+    private static final ExpressionParser ACCESS_RULE_PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, FsAccess.class.getClassLoader()));
+
+    /**
+     * Access rules parsed once per application and not once per call :
+     * drive beans are session scoped but share the same accessRule strings.
+     */
+    private static final Map<String, Expression> ACCESS_RULE_EXPRESSIONS = new ConcurrentHashMap<>();
+
+    /** Session attribute prefix used to memoize hasAccess result per session and drive. */
+    private static final String HAS_ACCESS_SESSION_ATTRIBUTE_PREFIX = FsAccess.class.getName() + ".hasAccess.";
+
     /** Injected by Spring (optional – may be null in test contexts). */
     @Autowired(required = false)
     protected StorageConnectionMonitor storageConnectionMonitor;
 
+    /** Handle of the current connection in the StorageConnectionMonitor, null when closed. */
+    private volatile StorageConnectionMonitor.TrackedConnection trackedConnection;
+
+    /** Time without use (ms) after which the connection is closed, and reopened on next use ; 0 : never. */
+    protected long idleTimeout = 0;
+
+    /** Guards activeUses, and the idle close against a use starting meanwhile. */
+    private final Object usageLock = new Object();
+
+    private int activeUses = 0;
+
+    private volatile long lastUse = System.currentTimeMillis();
+
+    /** X-Accel-Redirect or X-Sendfile : downloads of local files served by the front-end ; null : disabled. */
+    protected String offloadMode = null;
+
+    /** Directory served by the front-end, the root of the drive if null. */
+    protected String offloadRoot = null;
+
+    /** Internal location of the front-end mapped to offloadRoot (X-Accel-Redirect). */
+    protected String offloadLocation = null;
+
+    /** Size of the chunks of the chunked uploads (last one excepted). */
+    protected long chunkedUploadChunkSize = 8 * 1024 * 1024;
+
+    /** Time without any chunk (ms) after which a chunked upload is aborted. */
+    protected long chunkedUploadExpiration = 24 * 60 * 60 * 1000;
+
+    /**
+     * Chunked uploads in progress, by upload id : resuming an upload is only possible in the session which started it,
+     * pending uploads are aborted at the end of the session.
+     */
+    private final Map<String, ChunkedUploadState> chunkedUploads = new ConcurrentHashMap<>();
+
     // -----------------------------------------------------------------------
     // Connection monitoring helpers
     // -----------------------------------------------------------------------
@@ -86,17 +148,99 @@ public abstract class FsAccess {
      */
     protected void notifyConnectionOpened() {
         if (storageConnectionMonitor != null) {
-            storageConnectionMonitor.connectionOpened(driveName, getConnectionType());
+            // a previous connection not notified as closed is replaced
+            storageConnectionMonitor.connectionClosed(trackedConnection);
+            trackedConnection = storageConnectionMonitor.connectionOpened(this, getOwnerSessionId());
         }
     }
 
     /**
      * Must be called by subclass {@code close()} implementations before
-     * tearing down an existing connection.
+     * tearing down an existing connection ; has no effect if no connection was notified as opened.
      */
     protected void notifyConnectionClosed() {
         if (storageConnectionMonitor != null) {
-            storageConnectionMonitor.connectionClosed(driveName);
+            storageConnectionMonitor.connectionClosed(trackedConnection);
+        }
+        trackedConnection = null;
+    }
+
+    /**
+     * Id of the http session this drive is stored in (session scoped drive), null otherwise.
+     */
+    private String getOwnerSessionId() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return null;
+        }
+        for (String name : requestAttributes.getAttributeNames(RequestAttributes.SCOPE_SESSION)) {
+            // drives are proxied by the aspects (metrics, tracing, audit) : the session holds the proxy
+            Object attribute = requestAttributes.getAttribute(name, RequestAttributes.SCOPE_SESSION);
+            if (attribute == this || (attribute != null && AopProxyUtils.getSingletonTarget(attribute) == this)) {
+                return requestAttributes.getSessionId();
+            }
+        }
+        return null;
+    }
+
+    // -----------------------------------------------------------------------
+    // Idle connection closing
+    // -----------------------------------------------------------------------
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Called (by FsAccessUsageAspect) before an operation on the drive ; waits for an idle close in progress.
+     */
+    public void beginUse() {
+        synchronized (usageLock) {
+            activeUses++;
+            lastUse = System.currentTimeMillis();
+        }
+        touchConnection();
+    }
+
+    /**
+     * Called after the operation, or at the end of the download stream for getFile.
+     */
+    public void endUse() {
+        synchronized (usageLock) {
+            activeUses = Math.max(0, activeUses - 1);
+            lastUse = System.currentTimeMillis();
+        }
+        touchConnection();
+    }
+
+    private void touchConnection() {
+        StorageConnectionMonitor.TrackedConnection connection = trackedConnection;
+        if (connection != null) {
+            connection.touch();
+        }
+    }
+
+    /**
+     * Closes the connection if the drive has an idleTimeout and has not been used for that long ;
+     * the next operation reopens it with open(). Called by the StorageConnectionMonitor.
+     *
+     * @return true if the connection has been closed
+     */
+    public boolean closeIfIdle() {
+        if (idleTimeout <= 0) {
+            return false;
+        }
+        synchronized (usageLock) {
+            // kept open while chunked uploads are pending : their staging objects are deleted with it on destroy
+            if (activeUses > 0 || System.currentTimeMillis() - lastUse < idleTimeout || !isOpened() || !chunkedUploads.isEmpty()) {
+                return false;
+            }
+            close();
+            return true;
         }
     }
 
@@ -176,6 +320,8 @@ public abstract class FsAccess {
             if(this.userAuthenticatorService != null)
                 this.userAuthenticatorService.initialize();
         }
+        lastUse = System.currentTimeMillis();
+        touchConnection();
     }
 
     private final static String fileNameDatePattern = "yyyyMMdd-HHmmss";
@@ -209,6 +355,14 @@ public abstract class FsAccess {
 
     public abstract DownloadFile getFile(String dir);
 
+    /**
+     * File read by the server itself (zip, copy between drives) rather than sent as is to a browser :
+     * implementations may read it faster at the cost of more memory or connections.
+     */
+    public DownloadFile getFileForTransfer(String dir) {
+        return getFile(dir);
+    }
+
     public abstract boolean putFile(String dir, String filename,
                                     InputStream inputStream, UploadActionType uploadOption);
 
@@ -237,6 +391,17 @@ public abstract class FsAccess {
         return null;
     }
 
+    /**
+     * Get a presigned URL for direct client access, with the content type and disposition of the response overridden
+     * @param path the file path
+     * @param responseContentType content type of the response, null for the type of the filename
+     * @param inline true for a preview (inline disposition), false for a download (attachment)
+     * @return PresignedUrl object containing the URL and expiration info, or null if not supported
+     */
+    public PresignedUrl getPresignedDownloadUrl(String path, String responseContentType, boolean inline) {
+        return null;
+    }
+
     /**
      * Get a presigned upload URL for direct client access
      * @param path the directory path
@@ -247,6 +412,201 @@ public abstract class FsAccess {
         return null;
     }
 
+    public void setOffloadMode(String offloadMode) {
+        if (offloadMode != null && !DownloadOffload.X_ACCEL_REDIRECT.equalsIgnoreCase(offloadMode)
+                && !DownloadOffload.X_SENDFILE.equalsIgnoreCase(offloadMode)) {
+            throw new IllegalArgumentException("offloadMode of drive " + driveName + " must be "
+                    + DownloadOffload.X_ACCEL_REDIRECT + " or " + DownloadOffload.X_SENDFILE);
+        }
+        this.offloadMode = offloadMode;
+    }
+
+    public void setOffloadRoot(String offloadRoot) {
+        this.offloadRoot = offloadRoot;
+    }
+
+    public void setOffloadLocation(String offloadLocation) {
+        this.offloadLocation = offloadLocation;
+    }
+
+    /**
+     * Internal redirect letting the front-end serve the file directly, for drives reachable by the front-end
+     * (local or NFS mounts) with an offloadMode
+     * @param path the file path
+     * @return the header to send instead of the content, or null if the file has to be sent by the server
+     */
+    public DownloadOffload getDownloadOffload(String path) {
+        return null;
+    }
+
+    /**
+     * Maps a local file to the offload header : its absolute path for X-Sendfile,
+     * offloadLocation followed by its path relative to offloadRoot for X-Accel-Redirect.
+     * @return null if offload is disabled or if the file is not under offloadRoot
+     */
+    protected DownloadOffload getDownloadOffload(Path file, Path driveRoot) {
+        if (offloadMode == null) {
+            return null;
+        }
+        Path root = (offloadRoot != null ? Paths.get(offloadRoot) : driveRoot).toAbsolutePath().normalize();
+        Path normalizedFile = file.toAbsolutePath().normalize();
+        if (!normalizedFile.startsWith(root) || normalizedFile.equals(root)) {
+            log.warn("{} is not under the offload root {} of drive {}", normalizedFile, root, driveName);
+            return null;
+        }
+        if (DownloadOffload.X_SENDFILE.equalsIgnoreCase(offloadMode)) {
+            return new DownloadOffload(DownloadOffload.X_SENDFILE, normalizedFile.toString());
+        }
+        StringBuilder location = new StringBuilder(offloadLocation == null ? "" : offloadLocation);
+        if (location.length() > 0 && location.charAt(location.length() - 1) == '/') {
+            location.setLength(location.length() - 1);
+        }
+        for (Path segment : root.relativize(normalizedFile)) {
+            location.append('/').append(UriUtils.encodePathSegment(segment.toString(), StandardCharsets.UTF_8));
+        }
+        return new DownloadOffload(DownloadOffload.X_ACCEL_REDIRECT, location.toString());
+    }
+
+    /**
+     * Initiate a multipart upload whose parts are then sent directly by the client with presigned URLs
+     * @param path the directory path
+     * @param filename the filename to upload
+     * @param size the size of the file, used to compute the part size
+     * @return the upload id, part size and part count, or null if not supported
+     */
+    public PresignedMultipartUpload initiatePresignedMultipartUpload(String path, String filename, long size) {
+        return null;
+    }
+
+    /**
+     * Get presigned URLs for a batch of parts of a multipart upload
+     * @return the URLs of the parts firstPartNumber to firstPartNumber + count - 1, in order, or null if not supported
+     */
+    public List<PresignedUrl> getPresignedUploadPartUrls(String path, String filename, String uploadId, int firstPartNumber, int count) {
+        return null;
+    }
+
+    /**
+     * Complete a multipart upload once all its parts have been uploaded by the client
+     * @return false if some parts are missing or if not supported
+     */
+    public boolean completePresignedMultipartUpload(String path, String filename, String uploadId, int partCount) {
+        return false;
+    }
+
+    /**
+     * Abort a multipart upload, deleting its uploaded parts
+     */
+    public boolean abortPresignedMultipartUpload(String path, String filename, String uploadId) {
+        return false;
+    }
+
+    public void setChunkedUploadChunkSize(long chunkedUploadChunkSize) {
+        this.chunkedUploadChunkSize = chunkedUploadChunkSize;
+    }
+
+    public void setChunkedUploadExpiration(long chunkedUploadExpiration) {
+        this.chunkedUploadExpiration = chunkedUploadExpiration;
+    }
+
+    /**
+     * Initiate a resumable chunked upload : the chunks are sent to the server (putChunk),
+     * which writes them to a staging object of the drive, moved to the file once complete
+     * @param size the size of the file, used to compute the chunk count
+     * @param uploadOption what to do if the file exists ; ERROR is checked here, before any chunk is sent
+     * @return the upload id, chunk size and chunk count, or null if not supported
+     */
+    public ChunkedUpload initiateChunkedUpload(String path, String filename, long size, UploadActionType uploadOption) {
+        return null;
+    }
+
+    /**
+     * @return the chunked upload with its received chunks (to resume it), or null if unknown
+     */
+    public ChunkedUpload getChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        return state != null ? state.toChunkedUpload() : null;
+    }
+
+    /**
+     * Write the chunk index of a chunked upload
+     * @param checksum base64 SHA-256 of the chunk
+     * @return false if the chunk has not been stored (bad length or checksum, error ...) : it has to be sent again
+     */
+    public boolean putChunk(String path, String filename, String uploadId, int index, InputStream inputStream, String checksum) {
+        return false;
+    }
+
+    /**
+     * Move the staging object of a chunked upload to the file, once all its chunks have been received
+     * @return false if some chunks are missing or if not supported
+     */
+    public boolean completeChunkedUpload(String path, String filename, String uploadId) {
+        return false;
+    }
+
+    /**
+     * Abort a chunked upload, deleting its staging object
+     */
+    public boolean abortChunkedUpload(String path, String filename, String uploadId) {
+        return false;
+    }
+
+    /**
+     * Registers a new chunked upload, aborting the ones of the session not used for chunkedUploadExpiration ms
+     */
+    protected void registerChunkedUpload(ChunkedUploadState state) {
+        long now = System.currentTimeMillis();
+        for (ChunkedUploadState expired : chunkedUploads.values()) {
+            if (now - expired.getLastUse() > chunkedUploadExpiration) {
+                log.info("Chunked upload {} of {} expired", expired.getUploadId(), expired.getFilename());
+                abortChunkedUpload(expired);
+            }
+        }
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        state.setSessionId(requestAttributes != null ? requestAttributes.getSessionId() : null);
+        chunkedUploads.put(state.getUploadId(), state);
+    }
+
+    /**
+     * Aborts the chunked uploads not completed, deleting their staging objects (S3 multipart uploads, .part files) :
+     * called at the end of the session, since they can't be resumed from another session.
+     * @param sessionId the session whose uploads are aborted, null for all the uploads (drive destroyed)
+     */
+    public void abortChunkedUploads(String sessionId) {
+        for (ChunkedUploadState pending : chunkedUploads.values()) {
+            if (sessionId != null && !sessionId.equals(pending.getSessionId())) {
+                continue;
+            }
+            log.info("Chunked upload {} of {} not completed at the end of the session", pending.getUploadId(), pending.getFilename());
+            abortChunkedUpload(pending);
+        }
+    }
+
+    private void abortChunkedUpload(ChunkedUploadState state) {
+        try {
+            abortChunkedUpload(state.getPath(), state.getFilename(), state.getUploadId());
+        } catch (RuntimeException e) {
+            log.warn("Can't abort chunked upload {}: {}", state.getUploadId(), e.getMessage());
+        }
+        chunkedUploads.remove(state.getUploadId());
+    }
+
+    /**
+     * @return the state of the chunked upload of filename in path, null if unknown
+     */
+    protected ChunkedUploadState getChunkedUploadState(String path, String filename, String uploadId) {
+        ChunkedUploadState state = uploadId != null ? chunkedUploads.get(uploadId) : null;
+        if (state == null || !state.getPath().equals(path) || !state.getFilename().equals(filename)) {
+            return null;
+        }
+        return state;
+    }
+
+    protected void unregisterChunkedUpload(String uploadId) {
+        chunkedUploads.remove(uploadId);
+    }
+
     public boolean formAuthenticationRequired() {
         if (this.userAuthenticatorService != null && this.userAuthenticatorService.formAuthenticationNeeded()) {
             this.userAuthenticatorService.initialize();
@@ -280,41 +640,110 @@ public abstract class FsAccess {
 
     public Quota getQuota(String path) {
         if(quotaService != null)
-            return quotaService.getQuota(path);
+            return quotaService.getQuota(this, path);
         return null;
     }
 
     public boolean isSupportQuota(String path) {
         if(quotaService != null)
-            return quotaService.isSupportQuota(path);
+            return quotaService.isSupportQuota(this, path);
+        return false;
+    }
+
+    /**
+     * @return true if the storage itself can report usage/free space (see getNativeQuotaTask)
+     */
+    public boolean isSupportNativeQuota() {
         return false;
     }
 
+    /**
+     * Key under which the native quota of this drive is cached.
+     * By default the quota depends on the drive, its (manipulated) uri and the user.
+     */
+    public String getNativeQuotaKey() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return driveName + "|" + uri + "|" + (authentication != null ? authentication.getName() : "");
+    }
+
+    /**
+     * Reports to the quota service the bytes added (or removed if negative) by an operation of the drive,
+     * for the services maintaining the usage between two computations (NativeQuotaService).
+     */
+    protected void adjustUsedBytes(long deltaBytes) {
+        if(maintainsUsedBytes() && deltaBytes != 0) {
+            quotaService.adjustUsedBytes(this, deltaBytes);
+        }
+    }
+
+    /**
+     * @return true if the quota service maintains the usage : only then the size of what is added or removed
+     * has to be computed (extra requests for some storages)
+     */
+    protected boolean maintainsUsedBytes() {
+        return quotaService != null && quotaService.maintainsUsedBytes();
+    }
+
+    /**
+     * Called in the request thread : implementations open the connection and return a task
+     * capturing what it needs, the task is then run on the NativeQuotaService executor.
+     * The quota returned may have maxBytes set to 0 if the storage has no limit.
+     *
+     * @return null if the drive doesn't support native quota
+     */
+    public Callable<Quota> getNativeQuotaTask(String path) {
+        return null;
+    }
+
     public boolean hasAccess() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if(authentication == null || !authentication.isAuthenticated()) {
             log.warn("No authentication found, access denied");
             return false;
         }
-        if(this.accessRule != null && !this.accessRule.isEmpty()) {
-            CasAuthenticationToken casAuthenticationToken = (CasAuthenticationToken)authentication;
-            CasUser casUser = (CasUser) casAuthenticationToken.getUserDetails();
-            ExpressionParser parser = new SpelExpressionParser();
-            Expression exp = parser.parseExpression(accessRule);
+        if(this.accessRule == null || this.accessRule.isEmpty()) {
+            return true;
+        }
+        // user attributes don't change during a CAS session : evaluation is done once per session and drive
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        String sessionAttributeName = HAS_ACCESS_SESSION_ATTRIBUTE_PREFIX + driveName;
+        if(requestAttributes != null) {
+            Object cachedAccess = requestAttributes.getAttribute(sessionAttributeName, RequestAttributes.SCOPE_SESSION);
+            if(cachedAccess instanceof CachedAccess cached
+                    && cached.username().equals(authentication.getName()) && cached.rule().equals(accessRule)) {
+                return cached.granted();
+            }
+        }
+        boolean hasAccess = evaluateAccessRule(authentication);
+        if(requestAttributes != null) {
+            requestAttributes.setAttribute(sessionAttributeName, new CachedAccess(authentication.getName(), accessRule, hasAccess), RequestAttributes.SCOPE_SESSION);
+        }
+        return hasAccess;
+    }
+
+    protected boolean evaluateAccessRule(Authentication authentication) {
+        CasAuthenticationToken casAuthenticationToken = (CasAuthenticationToken)authentication;
+        CasUser casUser = (CasUser) casAuthenticationToken.getUserDetails();
+        Map<String, Object> userAttributes = casUser.getAttributes();
+        log.debug("Evaluation of {} -> {} hasAccess for {} (userAttributes : {})", accessRule, authentication, driveName, userAttributes);
+        try {
+            Expression exp = ACCESS_RULE_EXPRESSIONS.computeIfAbsent(accessRule, ACCESS_RULE_PARSER::parseExpression);
             EvaluationContext context = new StandardEvaluationContext();
-            Map<String, Object> userAttributes = casUser.getAttributes();
             context.setVariable("userAttributes",  userAttributes);
-            log.debug("Evaluation of {} -> {} hasAccess for {} (userAttributes : {})", accessRule, authentication, driveName, userAttributes);
-            try {
-                Boolean hasAccess = (Boolean) exp.getValue(context);
-                log.debug("Evaluation of {} -> {} hasAccess for {} : {} (userAttributes : {})", accessRule, authentication, driveName, hasAccess, userAttributes);
-                return BooleanUtils.isTrue(hasAccess);
-            } catch (Exception e) {
-                log.error("Error evaluating access rule {} for drive {}, access denied by default (userAttributes : {})", accessRule, driveName, userAttributes, e);
-                return false;
-            }
+            Boolean hasAccess = exp.getValue(context, Boolean.class);
+            log.debug("Evaluation of {} -> {} hasAccess for {} : {} (userAttributes : {})", accessRule, authentication, driveName, hasAccess, userAttributes);
+            return BooleanUtils.isTrue(hasAccess);
+        } catch (Exception e) {
+            log.error("Error evaluating access rule {} for drive {}, access denied by default (userAttributes : {})", accessRule, driveName, userAttributes, e);
+            return false;
         }
-        return true;
+    }
+
+    /**
+     * hasAccess result memoized in the http session.
+     * Username and rule are kept so that a re-authentication or a rule change invalidates it.
+     */
+    private record CachedAccess(String username, String rule, boolean granted) implements Serializable {
     }
 
 }
@@ -0,0 +1,75 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.esupportail.filemanager.beans.DownloadFile;
+import org.esupportail.filemanager.metrics.CountingInputStream;
+import org.springframework.stereotype.Component;
+
+/**
+ * Marks the drives as in use during their operations (FsAccess.beginUse / endUse),
+ * so that the idle connection closing (FsAccess.idleTimeout) never closes a connection in use.
+ * A download is in use until its stream is read to the end or closed.
+ */
+@Aspect
+@Component
+public class FsAccessUsageAspect {
+
+    @Pointcut("target(org.esupportail.filemanager.services.FsAccess) && ("
+            + "execution(* get(String, boolean, boolean)) || execution(* getChildren(String)) || execution(* remove(String))"
+            + " || execution(* createFile(String, String, String)) || execution(* renameFile(String, String))"
+            + " || execution(* moveCopyFilesIntoDirectory(String, java.util.List, boolean))"
+            + " || execution(* putFile(String, String, java.io.InputStream, ..)) || execution(* getQuota(String))"
+            + " || execution(* getPresigned*(..)) || execution(* *PresignedMultipartUpload(..))"
+            + " || execution(* *ChunkedUpload(..)) || execution(* putChunk(..))"
+            + " || execution(* getDownloadOffload(String)))")
+    void fsAccessUse() {
+    }
+
+    @Around(value = "fsAccessUse() && target(fsAccess)", argNames = "joinPoint, fsAccess")
+    public Object use(ProceedingJoinPoint joinPoint, FsAccess fsAccess) throws Throwable {
+        fsAccess.beginUse();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            fsAccess.endUse();
+        }
+    }
+
+    @Around(value = "target(fsAccess) && execution(* getFile*(String))", argNames = "joinPoint, fsAccess")
+    public Object useGetFile(ProceedingJoinPoint joinPoint, FsAccess fsAccess) throws Throwable {
+        fsAccess.beginUse();
+        boolean streaming = false;
+        try {
+            Object returnValue = joinPoint.proceed();
+            if(returnValue instanceof DownloadFile downloadFile && downloadFile.getInputStream() != null) {
+                downloadFile.setInputStream(new CountingInputStream(downloadFile.getInputStream(), fsAccess::endUse));
+                streaming = true;
+            }
+            return returnValue;
+        } finally {
+            if(!streaming) {
+                fsAccess.endUse();
+            }
+        }
+    }
+}
@@ -22,8 +22,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 
+import org.esupportail.filemanager.beans.ChunkedUpload;
 import org.esupportail.filemanager.beans.DownloadFile;
+import org.esupportail.filemanager.beans.DownloadOffload;
+import org.esupportail.filemanager.beans.DrivePath;
 import org.esupportail.filemanager.beans.JsTreeFile;
+import org.esupportail.filemanager.beans.PresignedMultipartUpload;
 import org.esupportail.filemanager.beans.PresignedUrl;
 import org.esupportail.filemanager.beans.Quota;
 import org.esupportail.filemanager.beans.UploadActionType;
@@ -34,24 +38,24 @@ public interface IServersAccessService {
 	@Autowired
 	public abstract void setServers(List<FsAccess> servers);
 
-	public abstract JsTreeFile get(String dir, boolean folderDetails, boolean fileDetails);
+	public abstract JsTreeFile get(DrivePath dir, boolean folderDetails, boolean fileDetails);
 
-	public abstract List<JsTreeFile> getChildren(String dir);
+	public abstract List<JsTreeFile> getChildren(DrivePath dir);
 
-	public abstract List<JsTreeFile> getFolderChildren(String dir);
+	public abstract List<JsTreeFile> getFolderChildren(DrivePath dir);
 
-	public abstract boolean remove(String dir);
+	public abstract boolean remove(DrivePath dir);
 
-	public abstract String createFile(String parentDir, String title,
+	public abstract String createFile(DrivePath parentDir, String title,
 			String type);
 
-	public abstract boolean renameFile(String dir, String title);
+	public abstract boolean renameFile(DrivePath dir, String title);
 
-	public abstract boolean moveCopyFilesIntoDirectory(String dir, List<String> filesToCopy, boolean copy);
+	public abstract boolean moveCopyFilesIntoDirectory(DrivePath dir, List<DrivePath> filesToCopy, boolean copy);
 
-	public abstract DownloadFile getFile(String dir);
+	public abstract DownloadFile getFile(DrivePath dir);
 
-	public abstract boolean putFile(String dir, String filename,
+	public abstract boolean putFile(DrivePath dir, String filename,
 			InputStream inputStream, UploadActionType uploadOption);
 
 	public abstract JsTreeFile getJsTreeFileRoot();
@@ -59,42 +63,47 @@ public interface IServersAccessService {
 	public abstract List<JsTreeFile> getJsTreeFileRoots(
 			);
 
-	public abstract List<JsTreeFile> getJsTreeFileRoots(String dir
+	public abstract List<JsTreeFile> getJsTreeFileRoots(DrivePath dir
 			);
 
-	public abstract String getDriveCategory(String dir);
+	public abstract void writeZip(OutputStream destStream, List<DrivePath> dirs) throws IOException;
 
-	public abstract String getDrive(String dir);
-
-	public abstract void writeZip(OutputStream destStream, List<String> dirs) throws IOException;
-
-	public abstract boolean formAuthenticationRequired(String dir
+	public abstract boolean formAuthenticationRequired(DrivePath dir
 			);
 
-	public abstract UserPassword getUserPassword(String dir
+	public abstract UserPassword getUserPassword(DrivePath dir
 			);
 
-	public abstract boolean authenticate(String dir, String username,
+	public abstract boolean authenticate(DrivePath dir, String username,
 			String password);
 
 	public abstract String getFirstAvailablePath(
 			String[] prefsDefaultPathes);
 
-	public abstract Quota getQuota(String path);
+	public abstract Quota getQuota(DrivePath path);
 
 	/**
 	 * Check if presigned URLs are supported for the given path
 	 * @param path the file/directory path
 	 * @return true if presigned URLs are supported, false otherwise
 	 */
-	public abstract boolean supportsPresignedUrls(String path);
+	public abstract boolean supportsPresignedUrls(DrivePath path);
 
 	/**
 	 * Get a presigned download URL for direct client access
 	 * @param path the file path
 	 * @return PresignedUrl object containing the URL and expiration info, or null if not supported
 	 */
-	public abstract PresignedUrl getPresignedDownloadUrl(String path);
+	public abstract PresignedUrl getPresignedDownloadUrl(DrivePath path);
+
+	/**
+	 * Get a presigned URL for direct client access, with the content type and disposition of the response overridden
+	 * @param path the file path
+	 * @param responseContentType content type of the response, null for the type of the filename
+	 * @param inline true for a preview (inline disposition), false for a download (attachment)
+	 * @return PresignedUrl object containing the URL and expiration info, or null if not supported
+	 */
+	public abstract PresignedUrl getPresignedDownloadUrl(DrivePath path, String responseContentType, boolean inline);
 
 	/**
 	 * Get a presigned upload URL for direct client access
@@ -102,5 +111,55 @@ public interface IServersAccessService {
 	 * @param filename the filename to upload
 	 * @return PresignedUrl object containing the URL and expiration info, or null if not supported
 	 */
-	public abstract PresignedUrl getPresignedUploadUrl(String path, String filename);
+	public abstract PresignedUrl getPresignedUploadUrl(DrivePath path, String filename);
+
+	/**
+	 * Internal redirect header letting the front-end serve the file (drives with an offloadMode)
+	 * @param path the file path
+	 * @return the header to send instead of the content, or null if the file has to be sent by the server
+	 */
+	public abstract DownloadOffload getDownloadOffload(DrivePath path);
+
+	/**
+	 * Initiate a multipart upload sent directly by the client with presigned part URLs
+	 * @param path the directory path
+	 * @param filename the filename to upload
+	 * @param size the size of the file
+	 * @return the upload id, part size and part count, or null if not supported
+	 */
+	public abstract PresignedMultipartUpload initiatePresignedMultipartUpload(DrivePath path, String filename, long size);
+
+	/**
+	 * Get presigned URLs for the parts firstPartNumber to firstPartNumber + count - 1 of a multipart upload
+	 */
+	public abstract List<PresignedUrl> getPresignedUploadPartUrls(DrivePath path, String filename, String uploadId, int firstPartNumber, int count);
+
+	public abstract boolean completePresignedMultipartUpload(DrivePath path, String filename, String uploadId, int partCount);
+
+	public abstract boolean abortPresignedMultipartUpload(DrivePath path, String filename, String uploadId);
+
+	/**
+	 * Initiate a resumable chunked upload, whose chunks are sent to the server
+	 * @param path the directory path
+	 * @param filename the filename to upload
+	 * @param size the size of the file
+	 * @param uploadOption what to do if the file already exists
+	 * @return the upload id, chunk size and chunk count, or null if not supported
+	 */
+	public abstract ChunkedUpload initiateChunkedUpload(DrivePath path, String filename, long size, UploadActionType uploadOption);
+
+	/**
+	 * @return the chunked upload with its received chunks, or null if unknown
+	 */
+	public abstract ChunkedUpload getChunkedUpload(DrivePath path, String filename, String uploadId);
+
+	/**
+	 * @param checksum base64 SHA-256 of the chunk
+	 * @return false if the chunk has to be sent again
+	 */
+	public abstract boolean putChunk(DrivePath path, String filename, String uploadId, int index, InputStream inputStream, String checksum);
+
+	public abstract boolean completeChunkedUpload(DrivePath path, String filename, String uploadId);
+
+	public abstract boolean abortChunkedUpload(DrivePath path, String filename, String uploadId);
 }
\ No newline at end of file
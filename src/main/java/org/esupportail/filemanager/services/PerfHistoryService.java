@@ -0,0 +1,267 @@
+package org.esupportail.filemanager.services;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory history of the JVM and application performance for the /javaperf dashboard :
+ * a sample is taken every javaperf.history.interval-ms (10 s) and the last javaperf.history.size (360, one hour)
+ * samples are kept in a ring buffer.
+ *
+ * A sample holds heap usage, GC pauses and thread states (without stack traces, so it's cheap),
+ * open connections per drive (StorageConnectionMonitor) and, per endpoint, request rate and latency percentiles
+ * computed from the http.server.requests histogram buckets recorded during the interval.
+ */
+@Component
+public class PerfHistoryService implements InitializingBean, DisposableBean {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PerfHistoryService.class);
+
+    private static final String HTTP_SERVER_REQUESTS = "http.server.requests";
+
+    @Value("${javaperf.history.interval-ms:10000}")
+    long intervalMs = 10000;
+
+    @Value("${javaperf.history.size:360}")
+    int size = 360;
+
+    @Autowired(required = false)
+    private StorageConnectionMonitor storageConnectionMonitor;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private PerfSample[] samples;
+
+    private int next = 0;
+
+    private int count = 0;
+
+    private long lastGcCount = -1;
+
+    private long lastGcTime = -1;
+
+    /** Previous histogram of each http.server.requests timer, to compute what happened during the interval. */
+    private final Map<Meter.Id, TimerState> lastTimerStates = new HashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public record PerfSample(long timestamp,
+                             long heapUsedMB,
+                             long heapCommittedMB,
+                             long heapMaxMB,
+                             long gcCount,
+                             long gcPauseMs,
+                             int threadCount,
+                             Map<String, Integer> threadStates,
+                             Map<String, Integer> driveConnections,
+                             List<EndpointSample> endpoints) {
+    }
+
+    /**
+     * Requests of an endpoint ("GET /fileChildren") during the interval ; percentiles are -1 when no histogram is available.
+     */
+    public record EndpointSample(String endpoint,
+                                 long requests,
+                                 double ratePerSecond,
+                                 double meanMs,
+                                 double p50Ms,
+                                 double p95Ms,
+                                 double p99Ms) {
+    }
+
+    private record TimerState(long count, double totalTimeMs, CountAtBucket[] buckets) {
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        samples = new PerfSample[Math.max(1, size)];
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "javaperf-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sampleSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return samples from the oldest to the newest
+     */
+    public synchronized List<PerfSample> getHistory() {
+        List<PerfSample> history = new ArrayList<>(count);
+        int first = (next - count + samples.length) % samples.length;
+        for (int i = 0; i < count; i++) {
+            history.add(samples[(first + i) % samples.length]);
+        }
+        return history;
+    }
+
+    public synchronized PerfSample getLastSample() {
+        return count == 0 ? null : samples[(next - 1 + samples.length) % samples.length];
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    private void sampleSafely() {
+        try {
+            PerfSample sample = sample();
+            synchronized (this) {
+                samples[next] = sample;
+                next = (next + 1) % samples.length;
+                count = Math.min(count + 1, samples.length);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Performance sample failed", e);
+        }
+    }
+
+    PerfSample sample() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // concurrent cycles run beside the application : they are not pauses
+            if (gc.getName().contains("Concurrent") || gc.getName().contains("Cycles")) {
+                continue;
+            }
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        long gcCountDelta = lastGcCount < 0 ? 0 : gcCount - lastGcCount;
+        long gcTimeDelta = lastGcTime < 0 ? 0 : gcTime - lastGcTime;
+        lastGcCount = gcCount;
+        lastGcTime = gcTime;
+
+        // no stack traces and no locks : much cheaper than dumpAllThreads
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Map<String, Integer> threadStates = new TreeMap<>();
+        int threadCount = 0;
+        for (ThreadInfo threadInfo : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0)) {
+            if (threadInfo != null) {
+                threadStates.merge(threadInfo.getThreadState().name(), 1, Integer::sum);
+                threadCount++;
+            }
+        }
+
+        Map<String, Integer> driveConnections = new TreeMap<>();
+        if (storageConnectionMonitor != null) {
+            for (StorageConnectionMonitor.DriveConnectionInfo info : storageConnectionMonitor.getStats()) {
+                driveConnections.put(info.getDriveName(), info.getOpenConnections());
+            }
+        }
+
+        return new PerfSample(System.currentTimeMillis(),
+                heap.getUsed() / 1024 / 1024,
+                heap.getCommitted() / 1024 / 1024,
+                heap.getMax() / 1024 / 1024,
+                gcCountDelta, gcTimeDelta,
+                threadCount, threadStates, driveConnections,
+                sampleEndpoints());
+    }
+
+    private List<EndpointSample> sampleEndpoints() {
+        if (meterRegistry == null) {
+            return List.of();
+        }
+        // timers are per uri, method, status, outcome ... : aggregated per method + uri
+        Map<String, EndpointAccumulator> accumulators = new TreeMap<>();
+        Set<Meter.Id> seen = new HashSet<>();
+        for (Timer timer : meterRegistry.find(HTTP_SERVER_REQUESTS).timers()) {
+            Meter.Id id = timer.getId();
+            seen.add(id);
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            TimerState state = new TimerState(snapshot.count(), snapshot.total(TimeUnit.MILLISECONDS), snapshot.histogramCounts());
+            TimerState last = lastTimerStates.put(id, state);
+            long countDelta = state.count() - (last != null ? last.count() : 0);
+            if (countDelta <= 0) {
+                continue;
+            }
+            String endpoint = id.getTag("method") + " " + id.getTag("uri");
+            accumulators.computeIfAbsent(endpoint, e -> new EndpointAccumulator())
+                    .add(countDelta, state.totalTimeMs() - (last != null ? last.totalTimeMs() : 0), state.buckets(), last != null ? last.buckets() : null);
+        }
+        lastTimerStates.keySet().retainAll(seen);
+
+        List<EndpointSample> endpoints = new ArrayList<>(accumulators.size());
+        double intervalSeconds = intervalMs / 1000.0;
+        for (Map.Entry<String, EndpointAccumulator> entry : accumulators.entrySet()) {
+            EndpointAccumulator acc = entry.getValue();
+            endpoints.add(new EndpointSample(entry.getKey(), acc.count, acc.count / intervalSeconds,
+                    acc.totalTimeMs / acc.count, acc.percentile(0.5), acc.percentile(0.95), acc.percentile(0.99)));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Sum of the bucket deltas of the timers of an endpoint ; bucket counts of a snapshot are cumulative
+     * (number of values less than or equal to the bucket upper bound).
+     */
+    private static class EndpointAccumulator {
+
+        long count = 0;
+        double totalTimeMs = 0;
+        double[] bucketsMs;
+        long[] bucketCounts;
+
+        void add(long countDelta, double totalTimeMsDelta, CountAtBucket[] buckets, CountAtBucket[] lastBuckets) {
+            count += countDelta;
+            totalTimeMs += totalTimeMsDelta;
+            if (buckets.length == 0) {
+                return;
+            }
+            if (bucketsMs == null) {
+                bucketsMs = new double[buckets.length];
+                bucketCounts = new long[buckets.length];
+                for (int i = 0; i < buckets.length; i++) {
+                    bucketsMs[i] = buckets[i].bucket(TimeUnit.MILLISECONDS);
+                }
+            }
+            for (int i = 0; i < buckets.length && i < bucketCounts.length; i++) {
+                double lastCount = lastBuckets != null && i < lastBuckets.length ? lastBuckets[i].count() : 0;
+                bucketCounts[i] += (long) Math.max(0, buckets[i].count() - lastCount);
+            }
+        }
+
+        double percentile(double quantile) {
+            if (bucketCounts == null) {
+                return -1;
+            }
+            double rank = quantile * count;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                if (bucketCounts[i] >= rank) {
+                    return bucketsMs[i];
+                }
+            }
+            // above the last bucket
+            return bucketsMs[bucketsMs.length - 1];
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -67,10 +69,15 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     @Autowired
     protected PathEncodingUtils pathEncodingUtils;
 
+    /** Id of the http session of this bean : its chunked uploads not completed are aborted on destroy */
+    private String sessionId;
+
     // With spring 4.3.x and prior a Map can't be loaded by @Autowired, but @Resource could work if jakarta annotation library is used
     @Override
     public void afterPropertiesSet() throws Exception {
         drivesCategories = applicationContext.getBean("drivesCategories", Map.class);
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        sessionId = requestAttributes != null ? requestAttributes.getSessionId() : null;
     }
 
     public List<String> getRestrictedDrivesGroupsContext() {
@@ -82,6 +89,10 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
 
     public void destroy() throws Exception {
         for(FsAccess server: this.servers.values()) {
+            // before close : the staging objects of the uploads are deleted with the connection of the session
+            if(sessionId != null) {
+                server.abortChunkedUploads(sessionId);
+            }
             server.close();
         }
     }
@@ -106,12 +117,12 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     }
 
     @CrudLoggable(CrudLogLevel.DEBUG)
-    public JsTreeFile get(String dir, boolean folderDetails, boolean fileDetails) {
-        String category = getDriveCategory(dir);
-        String driveName = getDrive(dir);
-        if(category == null || category.length() == 0) {
+    public JsTreeFile get(DrivePath dir, boolean folderDetails, boolean fileDetails) {
+        String category = dir.getCategory();
+        String driveName = dir.getDrive();
+        if(dir.isRoot()) {
             return getJsTreeFileRoot();
-        } else if(driveName == null || driveName.length() == 0) {
+        } else if(dir.isCategory()) {
             // get category
             DrivesCategory dCat = this.drivesCategories.get(category);
             JsTreeFile jsTreeFile = new JsTreeFile(category, "", "", "category");
@@ -120,28 +131,29 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
             return jsTreeFile;
         } else {
             // get drive or folder or file
-            String path = getLocalDir(dir);
-            JsTreeFile jsTreeFile = this.getFsAccess(driveName).get(path, folderDetails, fileDetails);
+            FsAccess fsAccess = this.getFsAccess(driveName);
+            JsTreeFile jsTreeFile = fsAccess.get(dir.getLocalPath(), folderDetails, fileDetails);
             DrivesCategory dCat = this.drivesCategories.get(category);
             jsTreeFile.setCategory(category, dCat.getIcon());
-            jsTreeFile.setDrive(driveName, this.getFsAccess(driveName).getIcon());
+            jsTreeFile.setDrive(driveName, fsAccess.getIcon());
             if(jsTreeFile.getTitle().length() == 0) {
                 // this the folder root == the drive
                 jsTreeFile.setTitle(driveName);
-                jsTreeFile.setIcon(this.getFsAccess(driveName).getIcon());
+                jsTreeFile.setIcon(fsAccess.getIcon());
             }
             return jsTreeFile;
         }
     }
 
     @CrudLoggable(CrudLogLevel.DEBUG)
-    public List<JsTreeFile> getChildren(String dir) {
-        String category = getDriveCategory(dir);
-        String driveName = getDrive(dir);
-        DrivesCategory dCat = this.drivesCategories.get(category);
-        if(category == null || category.length() == 0) {
+    public List<JsTreeFile> getChildren(DrivePath dir) {
+        String category = dir.getCategory();
+        String driveName = dir.getDrive();
+        if(dir.isRoot()) {
             return getJsTreeFileRoots().get(0).getChildren();
-        } else if(driveName == null || driveName.length() == 0) {
+        }
+        DrivesCategory dCat = this.drivesCategories.get(category);
+        if(dir.isCategory()) {
             // getChildren on a category -> list drives
             List<JsTreeFile> files = new ArrayList<JsTreeFile>();
             for(FsAccess drive: getCategoryFsAccess(dCat)) {
@@ -155,11 +167,11 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
             return files;
         } else {
             // getChildren on a folder (or drive) -> get children on a fsAccess
-            String path = getLocalDir(dir);
-            List<JsTreeFile> files = this.getFsAccess(driveName).getChildren(path);
+            FsAccess fsAccess = this.getFsAccess(driveName);
+            List<JsTreeFile> files = fsAccess.getChildren(dir.getLocalPath());
             for(JsTreeFile file: files) {
                 file.setCategory(category, dCat.getIcon());
-                file.setDrive(driveName, this.getFsAccess(driveName).getIcon());
+                file.setDrive(driveName, fsAccess.getIcon());
             }
             Collections.sort(files);
             return files;
@@ -167,8 +179,7 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     }
 
     @CrudLoggable(CrudLogLevel.DEBUG)
-    public List<JsTreeFile> getFolderChildren(String dir
-                                              ) {
+    public List<JsTreeFile> getFolderChildren(DrivePath dir) {
         List<JsTreeFile> files = this.getChildren(dir);
         List<JsTreeFile> folders = new ArrayList<JsTreeFile>();
         for(JsTreeFile file: files) {
@@ -180,41 +191,41 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     }
 
     @CrudLoggable(CrudLogLevel.INFO)
-    public boolean remove(String dir) {
-        return this.getFsAccess(getDrive(dir)).remove(getLocalDir(dir));
+    public boolean remove(DrivePath dir) {
+        return this.getFsAccess(dir.getDrive()).remove(dir.getLocalPath());
     }
 
     @CrudLoggable(CrudLogLevel.INFO)
-    public String createFile(String parentDir, String title, String type) {
-        String drive = getDrive(parentDir);
+    public String createFile(DrivePath parentDir, String title, String type) {
+        String drive = parentDir.getDrive();
         if(drive == null) {
             log.error("Can't create file/folder because we can't retrieve associated drive on this dir '{}'", parentDir);
             return null;
         }
-        return this.getFsAccess(drive).createFile(getLocalDir(parentDir), title, type);
+        return this.getFsAccess(drive).createFile(parentDir.getLocalPath(), title, type);
     }
 
     @CrudLoggable(CrudLogLevel.INFO)
-    public boolean renameFile(String dir, String title) {
-        String drive = getDrive(dir);
+    public boolean renameFile(DrivePath dir, String title) {
+        String drive = dir.getDrive();
         if(drive == null) {
             log.error("Can't rename file/folder because we can't retrieve associated drive on this dir '{}'", dir);
             return false;
         }
-        return this.getFsAccess(drive).renameFile(getLocalDir(dir), title);
+        return this.getFsAccess(drive).renameFile(dir.getLocalPath(), title);
     }
 
-    private boolean interMoveCopyFile(String newDir, String refDir, boolean copy) {
+    private boolean interMoveCopyFile(DrivePath newDir, DrivePath refDir, boolean copy) {
         JsTreeFile ref = this.get(refDir, false, false);
         boolean allIsOk = true;
         if("file".equals(ref.getType())) {
-            DownloadFile file = this.getFile(refDir);
+            DownloadFile file = this.getFileForTransfer(refDir);
             allIsOk = this.putFile(newDir, file.getBaseName(), file.getInputStream(), UploadActionType.ERROR);
         } else {
             String localDirParent = this.createFile(newDir, ref.getTitle(), ref.getType());
-            String dirParent = JsTreeFile.ROOT_DRIVE.concat(getDriveCategory(newDir)).concat(JsTreeFile.DRIVE_PATH_SEPARATOR).concat(getDrive(newDir)).concat(JsTreeFile.DRIVE_PATH_SEPARATOR).concat(localDirParent);
+            DrivePath dirParent = newDir.resolve(localDirParent);
             for(JsTreeFile child: this.getChildren(refDir)) {
-                allIsOk = allIsOk && this.interMoveCopyFile(dirParent, child.getPath(), copy);
+                allIsOk = allIsOk && this.interMoveCopyFile(dirParent, DrivePath.parse(child.getPath()), copy);
             }
         }
         if(allIsOk && !copy) {
@@ -224,14 +235,15 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     }
 
     @CrudLoggable(CrudLogLevel.INFO)
-    public boolean moveCopyFilesIntoDirectory(String dir, List<String> filesToCopy, boolean copy) {
-        String driveName = getDrive(dir);
-        if(driveName.equals(getDrive(filesToCopy.get(0))) &&
-                ( (copy && this.getFsAccess(driveName).supportIntraCopyPast()) || (!copy && this.getFsAccess(driveName).supportIntraCutPast())) ) {
-            return this.getFsAccess(driveName).moveCopyFilesIntoDirectory(getLocalDir(dir), getLocalDirs(filesToCopy), copy);
+    public boolean moveCopyFilesIntoDirectory(DrivePath dir, List<DrivePath> filesToCopy, boolean copy) {
+        String driveName = dir.getDrive();
+        FsAccess fsAccess = this.getFsAccess(driveName);
+        if(driveName.equals(filesToCopy.get(0).getDrive()) &&
+                ( (copy && fsAccess.supportIntraCopyPast()) || (!copy && fsAccess.supportIntraCutPast())) ) {
+            return fsAccess.moveCopyFilesIntoDirectory(dir.getLocalPath(), getLocalDirs(filesToCopy), copy);
         } else {
             boolean allIsOk = true;
-            for(String fileToCopy: filesToCopy) {
+            for(DrivePath fileToCopy: filesToCopy) {
                 boolean isOk = this.interMoveCopyFile(dir, fileToCopy, copy);
                 if(isOk && !copy)
                     this.remove(fileToCopy);
@@ -242,13 +254,20 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     }
 
     @CrudLoggable(CrudLogLevel.DEBUG)
-    public DownloadFile getFile(String dir) {
-        return this.getFsAccess(getDrive(dir)).getFile(getLocalDir(dir));
+    public DownloadFile getFile(DrivePath dir) {
+        return this.getFsAccess(dir.getDrive()).getFile(dir.getLocalPath());
+    }
+
+    /**
+     * File read by the server itself (zip, copy between drives).
+     */
+    private DownloadFile getFileForTransfer(DrivePath dir) {
+        return this.getFsAccess(dir.getDrive()).getFileForTransfer(dir.getLocalPath());
     }
 
     @CrudLoggable(CrudLogLevel.INFO)
-    public boolean  putFile(String dir, String filename, InputStream inputStream, UploadActionType uploadOption) {
-        return this.getFsAccess(getDrive(dir)).putFile(getLocalDir(dir), filename, inputStream, uploadOption);
+    public boolean  putFile(DrivePath dir, String filename, InputStream inputStream, UploadActionType uploadOption) {
+        return this.getFsAccess(dir.getDrive()).putFile(dir.getLocalPath(), filename, inputStream, uploadOption);
     }
 
     public JsTreeFile getJsTreeFileRoot() {
@@ -266,7 +285,7 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
                 JsTreeFile jFile = new JsTreeFile(drivesCategoryName, "", "", "category");
                 jFile.setIcon(this.drivesCategories.get(drivesCategoryName).getIcon());
                 jFile.setCategory(drivesCategoryName, this.drivesCategories.get(drivesCategoryName).getIcon());
-                jFile.setChildren(this.getChildren(jFile.getPath()));
+                jFile.setChildren(this.getChildren(DrivePath.parse(jFile.getPath())));
                 jsTreeFiles.add(jFile);
             }
         }
@@ -277,7 +296,7 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
         return jsTreeFileRoots;
     }
 
-    public List<JsTreeFile> getJsTreeFileRoots(String dir) {
+    public List<JsTreeFile> getJsTreeFileRoots(DrivePath dir) {
 
         JsTreeFile parentFile = null;
 
@@ -312,7 +331,7 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
         }
 
         while(parentPath != null) {
-            List<JsTreeFile> folders = this.getFolderChildren(parentFile.getPath());
+            List<JsTreeFile> folders = this.getFolderChildren(DrivePath.parse(parentFile.getPath()));
             parentFile.setChildren(folders);
 
             if(!parentsPathes.hasNext()) {
@@ -330,63 +349,36 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
         return rootAndDrivesAndCategories;
     }
 
-    public String getDriveCategory(String dir) {
-        if(dir == null || dir.length() <= JsTreeFile.ROOT_DRIVE.length())
-            return null;
-        dir = dir.substring(JsTreeFile.ROOT_DRIVE.length());
-        String[] driveAndDir = dir.split(JsTreeFile.DRIVE_PATH_SEPARATOR, 3);
-        return driveAndDir[0];
-    }
-
-    public String getDrive(String dir) {
-        String drive = null;
-        if(dir != null && dir.length() > JsTreeFile.ROOT_DRIVE.length()) {
-            dir = dir.substring(JsTreeFile.ROOT_DRIVE.length());
-            String[] driveAndDir = dir.split(JsTreeFile.DRIVE_PATH_SEPARATOR, 3);
-            if(driveAndDir.length > 1)
-                drive = driveAndDir[1];
-        }
-        return drive;
-    }
-
-    private String getLocalDir(String dir) {
-        dir = dir.substring(JsTreeFile.ROOT_DRIVE.length());
-        String[] driveAndDir = dir.split(JsTreeFile.DRIVE_PATH_SEPARATOR, 3);
-        if(driveAndDir.length > 2)
-            return driveAndDir[2];
-        else
-            return "";
-    }
-
-    private List<String> getLocalDirs(List<String> dirs) {
-        List<String> localDirs = new ArrayList<String>();
-        for(String dir: dirs)
-            localDirs.add(getLocalDir(dir));
+    private List<String> getLocalDirs(List<DrivePath> dirs) {
+        List<String> localDirs = new ArrayList<String>(dirs.size());
+        for(DrivePath dir: dirs)
+            localDirs.add(dir.getLocalPath());
         return localDirs;
     }
 
     @CrudLoggable(CrudLogLevel.DEBUG)
-    public void writeZip(OutputStream destStream, List<String> dirs) throws IOException {
+    public void writeZip(OutputStream destStream, List<DrivePath> dirs) throws IOException {
 
         ZipOutputStream out = new ZipOutputStream(destStream);
         final byte zippingBuffer[] = new byte[ZIP_BUFFER_SIZE];
-        for(String dir: dirs) {
+        for(DrivePath dir: dirs) {
             this.addChildrensTozip(out, zippingBuffer, dir, "");
         }
         out.close();
 
     }
 
+    private static final Pattern COMBINING_DIACRITICAL_MARKS_PATTERN = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
     private static String unAccent(String s) {
         String temp = Normalizer.normalize(s, Normalizer.Form.NFD);
-        Pattern pattern = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
-        return pattern.matcher(temp).replaceAll("");
+        return COMBINING_DIACRITICAL_MARKS_PATTERN.matcher(temp).replaceAll("");
     }
 
-    private void addChildrensTozip(ZipOutputStream out, byte[] zippingBuffer, String dir, String folder) throws IOException {
+    private void addChildrensTozip(ZipOutputStream out, byte[] zippingBuffer, DrivePath dir, String folder) throws IOException {
         JsTreeFile tFile = get(dir, false, false);
         if(FileType.FILE.getName().equals(tFile.getType())) {
-            DownloadFile dFile = getFile(dir);
+            DownloadFile dFile = getFileForTransfer(dir);
 
             //GIP Recia : In some cases (ie, file has NTFS security permissions set), the dFile may be Null.
             //So we must check for null in order to prevent a general catastrophe
@@ -417,32 +409,32 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
             out.closeEntry();
             List<JsTreeFile> childrens = this.getChildren(dir);
             for(JsTreeFile child: childrens) {
-                this.addChildrensTozip(out, zippingBuffer, child.getPath(), folder);
+                this.addChildrensTozip(out, zippingBuffer, DrivePath.parse(child.getPath()), folder);
             }
         }
     }
 
-    public boolean formAuthenticationRequired(String dir) {
-        if(getDrive(dir) == null)
+    public boolean formAuthenticationRequired(DrivePath dir) {
+        if(dir.getDrive() == null)
             return false;
-        return this.getFsAccess(getDrive(dir)).formAuthenticationRequired();
+        return this.getFsAccess(dir.getDrive()).formAuthenticationRequired();
     }
 
-    public UserPassword getUserPassword(String dir) {
-        if(getDrive(dir) == null)
+    public UserPassword getUserPassword(DrivePath dir) {
+        if(dir.getDrive() == null)
             return null;
-        return this.getFsAccess(getDrive(dir)).getUserPassword();
+        return this.getFsAccess(dir.getDrive()).getUserPassword();
     }
 
-    public boolean authenticate(String dir, String username, String password) {
-        return this.getFsAccess(getDrive(dir)).authenticate(username, password);
+    public boolean authenticate(DrivePath dir, String username, String password) {
+        return this.getFsAccess(dir.getDrive()).authenticate(username, password);
     }
 
     public String getFirstAvailablePath(String[] prefsDefaultPathes) {
         String defaultPath = JsTreeFile.ROOT_DRIVE;
         Map<String, FsAccess> rServers = this.servers;
         for(String prefDefaultPath: prefsDefaultPathes) {
-            String drive = getDrive(prefDefaultPath);
+            String drive = DrivePath.parse(prefDefaultPath).getDrive();
             if(rServers.get(drive) != null && rServers.get(drive).hasAccess()) {
                 defaultPath = prefDefaultPath;
                 break;
@@ -451,18 +443,18 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
         return defaultPath;
     }
 
-    public Quota getQuota(String path) {
-        FsAccess access = this.getFsAccess(getDrive(path));
+    public Quota getQuota(DrivePath path) {
+        FsAccess access = this.getFsAccess(path.getDrive());
         Quota result = null;
-        if ( access.isSupportQuota(getLocalDir(path)) ) {
-            result = access.getQuota(getLocalDir(path));
+        if ( access.isSupportQuota(path.getLocalPath()) ) {
+            result = access.getQuota(path.getLocalPath());
         }
         return result;
     }
 
     @Override
-    public boolean supportsPresignedUrls(String path) {
-        String drive = getDrive(path);
+    public boolean supportsPresignedUrls(DrivePath path) {
+        String drive = path.getDrive();
         if (drive == null) {
             return false;
         }
@@ -471,8 +463,8 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
     }
 
     @Override
-    public PresignedUrl getPresignedDownloadUrl(String path) {
-        String drive = getDrive(path);
+    public PresignedUrl getPresignedDownloadUrl(DrivePath path) {
+        String drive = path.getDrive();
         if (drive == null) {
             log.warn("Cannot get presigned download URL: no drive found for path {}", path);
             return null;
@@ -482,12 +474,22 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
             log.warn("Cannot get presigned download URL: no FsAccess found for drive {}", drive);
             return null;
         }
-        return access.getPresignedDownloadUrl(getLocalDir(path));
+        return access.getPresignedDownloadUrl(path.getLocalPath());
     }
 
     @Override
-    public PresignedUrl getPresignedUploadUrl(String path, String filename) {
-        String drive = getDrive(path);
+    public PresignedUrl getPresignedDownloadUrl(DrivePath path, String responseContentType, boolean inline) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot get presigned download URL: no FsAccess found for path {}", path);
+            return null;
+        }
+        return access.getPresignedDownloadUrl(path.getLocalPath(), responseContentType, inline);
+    }
+
+    @Override
+    public PresignedUrl getPresignedUploadUrl(DrivePath path, String filename) {
+        String drive = path.getDrive();
         if (drive == null) {
             log.warn("Cannot get presigned upload URL: no drive found for path {}", path);
             return null;
@@ -497,6 +499,100 @@ public class ServersAccessService implements DisposableBean, IServersAccessServi
             log.warn("Cannot get presigned upload URL: no FsAccess found for drive {}", drive);
             return null;
         }
-        return access.getPresignedUploadUrl(getLocalDir(path), filename);
+        return access.getPresignedUploadUrl(path.getLocalPath(), filename);
+    }
+
+    @Override
+    public DownloadOffload getDownloadOffload(DrivePath path) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        return access != null ? access.getDownloadOffload(path.getLocalPath()) : null;
+    }
+
+    @Override
+    public PresignedMultipartUpload initiatePresignedMultipartUpload(DrivePath path, String filename, long size) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot initiate presigned multipart upload: no FsAccess found for path {}", path);
+            return null;
+        }
+        return access.initiatePresignedMultipartUpload(path.getLocalPath(), filename, size);
+    }
+
+    @Override
+    public List<PresignedUrl> getPresignedUploadPartUrls(DrivePath path, String filename, String uploadId, int firstPartNumber, int count) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot get presigned part URLs: no FsAccess found for path {}", path);
+            return null;
+        }
+        return access.getPresignedUploadPartUrls(path.getLocalPath(), filename, uploadId, firstPartNumber, count);
+    }
+
+    @Override
+    @CrudLoggable(CrudLogLevel.INFO)
+    public boolean completePresignedMultipartUpload(DrivePath path, String filename, String uploadId, int partCount) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot complete presigned multipart upload: no FsAccess found for path {}", path);
+            return false;
+        }
+        return access.completePresignedMultipartUpload(path.getLocalPath(), filename, uploadId, partCount);
+    }
+
+    @Override
+    public boolean abortPresignedMultipartUpload(DrivePath path, String filename, String uploadId) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot abort presigned multipart upload: no FsAccess found for path {}", path);
+            return false;
+        }
+        return access.abortPresignedMultipartUpload(path.getLocalPath(), filename, uploadId);
+    }
+
+    @Override
+    public ChunkedUpload initiateChunkedUpload(DrivePath path, String filename, long size, UploadActionType uploadOption) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot initiate chunked upload: no FsAccess found for path {}", path);
+            return null;
+        }
+        return access.initiateChunkedUpload(path.getLocalPath(), filename, size, uploadOption);
+    }
+
+    @Override
+    public ChunkedUpload getChunkedUpload(DrivePath path, String filename, String uploadId) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        return access != null ? access.getChunkedUpload(path.getLocalPath(), filename, uploadId) : null;
+    }
+
+    @Override
+    public boolean putChunk(DrivePath path, String filename, String uploadId, int index, InputStream inputStream, String checksum) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot put chunk: no FsAccess found for path {}", path);
+            return false;
+        }
+        return access.putChunk(path.getLocalPath(), filename, uploadId, index, inputStream, checksum);
+    }
+
+    @Override
+    @CrudLoggable(CrudLogLevel.INFO)
+    public boolean completeChunkedUpload(DrivePath path, String filename, String uploadId) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot complete chunked upload: no FsAccess found for path {}", path);
+            return false;
+        }
+        return access.completeChunkedUpload(path.getLocalPath(), filename, uploadId);
+    }
+
+    @Override
+    public boolean abortChunkedUpload(DrivePath path, String filename, String uploadId) {
+        FsAccess access = path.getDrive() != null ? this.getFsAccess(path.getDrive()) : null;
+        if (access == null) {
+            log.warn("Cannot abort chunked upload: no FsAccess found for path {}", path);
+            return false;
+        }
+        return access.abortChunkedUpload(path.getLocalPath(), filename, uploadId);
     }
 }
@@ -1,21 +1,42 @@
 package org.esupportail.filemanager.services;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
- * Singleton component that tracks the number of currently open connections
+ * Singleton component that tracks the currently open connections
  * for each configured storage drive (FsAccess implementations).
  *
- * Drives call {@link #connectionOpened(String, String)} when a connection is
- * established, and {@link #connectionClosed(String)} when it is torn down.
+ * Drives call {@link #connectionOpened(FsAccess, String)} when a connection is
+ * established, and {@link #connectionClosed(TrackedConnection)} with the returned handle when it is torn down :
+ * each connection is tracked as an object (open time, owning http session, last use, origin stack for
+ * one connection every stackSampleEvery), so that a close without open can't make the counters drift.
+ *
+ * A background check reports the connections idle for more than idleThreshold ms, and the leaked ones :
+ * connections still open leakGrace ms after their http session was destroyed.
+ * Leaked connections are closed if forceCloseLeaked is set.
+ * Connections of drives with an idleTimeout are closed once idle for that long (they are reopened on next use),
+ * and counted as reclaimed (esup.storage.connection.reclaimed counter).
+ * Lifetimes of the connections are recorded in the esup.storage.connection.lifetime timer (per drive).
  */
 @Component
-public class StorageConnectionMonitor {
+public class StorageConnectionMonitor implements HttpSessionListener, DisposableBean {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StorageConnectionMonitor.class);
 
@@ -25,8 +46,40 @@ public class StorageConnectionMonitor {
     /** Number of connections that corresponds to a full gauge (100 %). */
     private static final int GAUGE_MAX_CONNECTIONS = 200;
 
+    @Value("${storage.monitor.check-interval-ms:60000}")
+    long checkInterval = 60000;
+
+    @Value("${storage.monitor.idle-threshold-ms:1800000}")
+    long idleThreshold = 1800000;
+
+    @Value("${storage.monitor.leak-grace-ms:60000}")
+    long leakGrace = 60000;
+
+    @Value("${storage.monitor.force-close-leaked:false}")
+    boolean forceCloseLeaked = false;
+
+    @Value("${storage.monitor.stack-sample-every:10}")
+    int stackSampleEvery = 10;
+
     private final ConcurrentHashMap<String, DriveConnectionInfo> drives = new ConcurrentHashMap<>();
 
+    /** Destroyed http sessions owning connections, with the time of destruction. */
+    private final Map<String, Long> destroyedSessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong connectionIds = new AtomicLong();
+
+    private MeterRegistry meterRegistry;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Optional : connection lifetimes are recorded only if a MeterRegistry is available.
+     */
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     // -----------------------------------------------------------------------
     // Package-level API called by FsAccess subclasses
     // -----------------------------------------------------------------------
@@ -34,29 +87,46 @@ public class StorageConnectionMonitor {
     /**
      * Records that a new connection has been opened for the given drive.
      *
-     * @param driveName the logical name of the drive
-     * @param type      a human-readable protocol label ("SFTP", "S3", "SMB 3.1.1", …)
+     * @param fsAccess  the drive, closed by the monitor when idle or leaked
+     * @param sessionId id of the http session owning the connection, null if not owned by a session
+     * @return the handle to give to {@link #connectionClosed(TrackedConnection)}
      */
-    public void connectionOpened(String driveName, String type) {
+    public TrackedConnection connectionOpened(FsAccess fsAccess, String sessionId) {
+        String driveName = fsAccess.getDriveName();
+        String type = fsAccess.getConnectionType();
         DriveConnectionInfo info = drives.computeIfAbsent(driveName, k -> new DriveConnectionInfo(driveName, type));
         // Always refresh the type so the most recently negotiated protocol is shown
         info.updateType(type);
-        info.increment();
+        long id = connectionIds.incrementAndGet();
+        Throwable origin = stackSampleEvery > 0 && id % stackSampleEvery == 0
+                ? new Throwable("Connection " + id + " on drive '" + driveName + "' opened here") : null;
+        TrackedConnection connection = new TrackedConnection(id, info, sessionId, origin, fsAccess);
+        info.add(connection);
+        startCheck();
         log.debug("Connection opened on drive '{}' (type={}) – open count={}, max count={}",
                 driveName, type, info.getOpenConnections(), info.getMaxConnections());
+        return connection;
     }
 
     /**
-     * Records that an existing connection has been closed for the given drive.
-     *
-     * @param driveName the logical name of the drive
+     * Records that an existing connection has been closed ; closing twice the same connection has no effect.
      */
-    public void connectionClosed(String driveName) {
-        DriveConnectionInfo info = drives.get(driveName);
-        if (info != null) {
-            info.decrement();
-            log.debug("Connection closed on drive '{}' – open count={}",
-                    driveName, info.getOpenConnections());
+    public void connectionClosed(TrackedConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        DriveConnectionInfo info = connection.driveInfo;
+        if (info.remove(connection)) {
+            long lifetime = System.currentTimeMillis() - connection.getOpenedAt();
+            if (meterRegistry != null) {
+                Timer.builder("esup.storage.connection.lifetime")
+                        .tag("drive", info.getDriveName())
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(lifetime, TimeUnit.MILLISECONDS);
+            }
+            log.debug("Connection closed on drive '{}' after {} ms – open count={}",
+                    info.getDriveName(), lifetime, info.getOpenConnections());
         }
     }
 
@@ -69,6 +139,190 @@ public class StorageConnectionMonitor {
                 .collect(Collectors.toList());
     }
 
+    // -----------------------------------------------------------------------
+    // Idle and leak detection
+    // -----------------------------------------------------------------------
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        // session scoped drives are closed just after (when their session attributes are removed) :
+        // the session is only remembered here, connections still open after leakGrace ms are leaks
+        String sessionId = event.getSession().getId();
+        for (DriveConnectionInfo info : drives.values()) {
+            for (TrackedConnection connection : info.connections) {
+                if (sessionId.equals(connection.getSessionId())) {
+                    destroyedSessions.put(sessionId, System.currentTimeMillis());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called every checkInterval ms.
+     */
+    void check() {
+        long now = System.currentTimeMillis();
+        Set<String> sessionsWithConnections = new HashSet<>();
+        for (DriveConnectionInfo info : drives.values()) {
+            int idle = 0;
+            int leaked = 0;
+            for (TrackedConnection connection : info.connections) {
+                if (reclaimIfIdle(connection)) {
+                    continue;
+                }
+                sessionsWithConnections.add(connection.getSessionId());
+                Long destroyedAt = connection.getSessionId() != null ? destroyedSessions.get(connection.getSessionId()) : null;
+                if (destroyedAt != null && now - destroyedAt > leakGrace) {
+                    leaked++;
+                    if (!connection.leakReported) {
+                        connection.leakReported = true;
+                        log.warn("Connection {} on drive '{}' still open {} ms after the end of its session", connection.getId(),
+                                info.getDriveName(), now - destroyedAt, connection.getOrigin());
+                    }
+                    if (forceCloseLeaked) {
+                        forceClose(connection);
+                    }
+                } else if (now - connection.getLastUsed() > idleThreshold) {
+                    idle++;
+                    if (!connection.idleReported) {
+                        connection.idleReported = true;
+                        log.info("Connection {} on drive '{}' idle for {} ms", connection.getId(),
+                                info.getDriveName(), now - connection.getLastUsed(), connection.getOrigin());
+                    }
+                }
+            }
+            info.idleConnections = idle;
+            info.leakedConnections = leaked;
+        }
+        destroyedSessions.keySet().retainAll(sessionsWithConnections);
+    }
+
+    private boolean reclaimIfIdle(TrackedConnection connection) {
+        if (connection.fsAccess == null) {
+            return false;
+        }
+        try {
+            if (!connection.fsAccess.closeIfIdle()) {
+                return false;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error closing idle connection {}: {}", connection.getId(), e.getMessage());
+            return false;
+        }
+        // close notified the monitor : nothing else to do if it was the tracked connection
+        connectionClosed(connection);
+        DriveConnectionInfo info = connection.driveInfo;
+        info.reclaimedConnections.incrementAndGet();
+        if (meterRegistry != null) {
+            Counter.builder("esup.storage.connection.reclaimed")
+                    .tag("drive", info.getDriveName())
+                    .register(meterRegistry)
+                    .increment();
+        }
+        log.info("Idle connection {} on drive '{}' closed : not used for more than {} ms", connection.getId(),
+                info.getDriveName(), connection.fsAccess.getIdleTimeout());
+        return true;
+    }
+
+    private void forceClose(TrackedConnection connection) {
+        log.info("Closing leaked connection {} on drive '{}'", connection.getId(), connection.driveInfo.getDriveName());
+        try {
+            if (connection.fsAccess != null) {
+                connection.fsAccess.close();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error closing leaked connection {}: {}", connection.getId(), e.getMessage());
+        } finally {
+            connectionClosed(connection);
+        }
+    }
+
+    private void startCheck() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "storage-connection-check");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    scheduler.scheduleWithFixedDelay(() -> {
+                        try {
+                            check();
+                        } catch (RuntimeException e) {
+                            log.warn("Storage connections check failed", e);
+                        }
+                    }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * An open connection of a drive.
+     */
+    public static class TrackedConnection {
+
+        private final long id;
+        private final DriveConnectionInfo driveInfo;
+        private final String sessionId;
+        private final long openedAt = System.currentTimeMillis();
+        private volatile long lastUsed = openedAt;
+        /** Stack of the open call, for one connection every stackSampleEvery only. */
+        private final Throwable origin;
+        private final FsAccess fsAccess;
+        private volatile boolean idleReported = false;
+        private volatile boolean leakReported = false;
+
+        TrackedConnection(long id, DriveConnectionInfo driveInfo, String sessionId, Throwable origin, FsAccess fsAccess) {
+            this.id = id;
+            this.driveInfo = driveInfo;
+            this.sessionId = sessionId;
+            this.origin = origin;
+            this.fsAccess = fsAccess;
+        }
+
+        /**
+         * Called on each use of the connection.
+         */
+        public void touch() {
+            lastUsed = System.currentTimeMillis();
+            idleReported = false;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getDriveName() {
+            return driveInfo.getDriveName();
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public long getOpenedAt() {
+            return openedAt;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        public Throwable getOrigin() {
+            return origin;
+        }
+    }
+
     // -----------------------------------------------------------------------
     // Inner DTO
     // -----------------------------------------------------------------------
@@ -82,9 +336,14 @@ public class StorageConnectionMonitor {
         private final String driveName;
         /** Protocol label – updated on every new connection (e.g. "SMB 3.1.1"). */
         private volatile String type;
-        private final AtomicInteger openConnections = new AtomicInteger(0);
+        private final Set<TrackedConnection> connections = ConcurrentHashMap.newKeySet();
         /** Peak (maximum) concurrent connections since application startup. */
         private final AtomicInteger maxConnections  = new AtomicInteger(0);
+        /** Counts of the last check. */
+        private volatile int idleConnections = 0;
+        private volatile int leakedConnections = 0;
+        /** Idle connections closed since application startup. */
+        private final AtomicLong reclaimedConnections = new AtomicLong(0);
 
         public DriveConnectionInfo(String driveName, String type) {
             this.driveName = driveName;
@@ -97,14 +356,14 @@ public class StorageConnectionMonitor {
             }
         }
 
-        public void increment() {
-            int current = openConnections.incrementAndGet();
+        void add(TrackedConnection connection) {
+            connections.add(connection);
+            int current = connections.size();
             maxConnections.updateAndGet(max -> Math.max(max, current));
         }
 
-        public void decrement() {
-            // never go below 0
-            openConnections.updateAndGet(v -> v > 0 ? v - 1 : 0);
+        boolean remove(TrackedConnection connection) {
+            return connections.remove(connection);
         }
 
         // --- Getters used by Thymeleaf ---
@@ -118,7 +377,40 @@ public class StorageConnectionMonitor {
         }
 
         public int getOpenConnections() {
-            return openConnections.get();
+            return connections.size();
+        }
+
+        /**
+         * Connections not used for more than idleThreshold ms, at the last check.
+         */
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        /**
+         * Connections still open after the end of their http session, at the last check.
+         */
+        public int getLeakedConnections() {
+            return leakedConnections;
+        }
+
+        /**
+         * Connections closed because idle for more than the idleTimeout of the drive, since application startup.
+         */
+        public long getReclaimedConnections() {
+            return reclaimedConnections.get();
+        }
+
+        /**
+         * Age in seconds of the oldest open connection, 0 if none.
+         */
+        public long getOldestConnectionAge() {
+            long now = System.currentTimeMillis();
+            long oldest = 0;
+            for (TrackedConnection connection : connections) {
+                oldest = Math.max(oldest, now - connection.getOpenedAt());
+            }
+            return oldest / 1000;
         }
 
         /**
@@ -134,7 +426,7 @@ public class StorageConnectionMonitor {
          * {@value StorageConnectionMonitor#GAUGE_MAX_CONNECTIONS} connections.
          */
         public int getGaugePercent() {
-            return Math.min(openConnections.get() * 100 / GAUGE_MAX_CONNECTIONS, 100);
+            return Math.min(connections.size() * 100 / GAUGE_MAX_CONNECTIONS, 100);
         }
 
         /**
@@ -151,7 +443,7 @@ public class StorageConnectionMonitor {
          * on the number of open connections.
          */
         public String getGaugeColor() {
-            int c = openConnections.get();
+            int c = connections.size();
             if (c == 0)   return "#adb5bd"; // gray   – no connections
             if (c < 10)   return "#198754"; // green  – low load    (1–9)
             if (c <= 50)  return "#0d6efd"; // blue   – medium load (10–50)
@@ -163,7 +455,7 @@ public class StorageConnectionMonitor {
          * Returns the Bootstrap badge CSS class suffix matching {@link #getGaugeColor()}.
          */
         public String getStatusBadgeClass() {
-            int c = openConnections.get();
+            int c = connections.size();
             if (c == 0)   return "secondary";
             if (c < 10)   return "success";
             if (c <= 50)  return "primary";
@@ -76,6 +76,19 @@ public class ClearPassUserCasAuthenticatorService implements UserAuthenticatorSe
 
 	Boolean initialized = false;
 
+	/**
+	 * Cipher.getInstance looks up the security providers on each call : one cipher per thread is reused instead.
+	 */
+	private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>();
+
+	/** Credential (encrypted) of the last decoded assertion, and the UserPassword decoded from it. */
+	private String clearPassCredential;
+
+	private UserPassword clearPassUserPassword;
+
+	/** null until first call of formAuthenticationNeeded, then whether ClearPass gave a usable password. */
+	private Boolean clearPassAvailable;
+
 	public void setDomain(String domain) {
 		this.domain = domain;
 	}
@@ -125,25 +138,40 @@ public class ClearPassUserCasAuthenticatorService implements UserAuthenticatorSe
 			return null;
 		} else {
 
-			log.trace("got credential '" + credential + "'");
-
-			String password = "";
-			try {
-				password = decodeCredential(credential);
-			} catch (Exception e) {
-				log.error("Credential " + credential + " can't be decoded.");
+			synchronized (this) {
+				// RSA decryption is done once per session (and again only if the CAS assertion brings a new credential)
+				if(clearPassUserPassword == null || !credential.equals(clearPassCredential)
+						|| !proxyPrincipalname.equals(clearPassUserPassword.getUsername())) {
+
+					log.trace("got credential '" + credential + "'");
+
+					String password = "";
+					try {
+						password = decodeCredential(credential);
+					} catch (Exception e) {
+						log.error("Credential " + credential + " can't be decoded.");
+					}
+
+					clearPassUserPassword = new UserPassword(proxyPrincipalname, password);
+					clearPassUserPassword.setDomain(domain);
+					clearPassCredential = credential;
+				}
+
+				// a copy : callers may reset the password (authentication failure) without altering the cache
+				UserPassword auth = new UserPassword(clearPassUserPassword.getUsername(), clearPassUserPassword.getPassword());
+				auth.setDomain(domain);
+				return auth;
 			}
-
-			UserPassword auth = new UserPassword(proxyPrincipalname, password);
-			auth.setDomain(domain);
-
-			return auth;
 		}
 
 	}
 
 	protected String decodeCredential(String encodedPsw) throws Exception {
-		Cipher cipher = Cipher.getInstance(privateKey.getAlgorithm());
+		Cipher cipher = CIPHERS.get();
+		if(cipher == null || !cipher.getAlgorithm().equals(privateKey.getAlgorithm())) {
+			cipher = Cipher.getInstance(privateKey.getAlgorithm());
+			CIPHERS.set(cipher);
+		}
 		byte[] cred64 = Base64.decodeBase64(encodedPsw.getBytes());
 		cipher.init(Cipher.DECRYPT_MODE, privateKey);
 		byte[] cipherData = cipher.doFinal(cred64);
@@ -166,9 +194,16 @@ public class ClearPassUserCasAuthenticatorService implements UserAuthenticatorSe
 		return userPassword;
 	}
 
+	/**
+	 * Checked on each fileTree/fileChildren request : ClearPass availability doesn't change during the session,
+	 * it is computed on the first call only.
+	 */
 	public boolean formAuthenticationNeeded() {
-        UserPassword userPassword = getClearPassUserPassword();
-		return formUserPasswordAuthenticatorServiceFallBack != null || userPassword==null || !StringUtils.hasLength(userPassword.getPassword());
+		if(clearPassAvailable == null) {
+			UserPassword userPassword = getClearPassUserPassword();
+			clearPassAvailable = userPassword != null && StringUtils.hasLength(userPassword.getPassword());
+		}
+		return formUserPasswordAuthenticatorServiceFallBack != null || !clearPassAvailable;
 	}
 
 }
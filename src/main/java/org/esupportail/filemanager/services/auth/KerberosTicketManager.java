@@ -0,0 +1,223 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.RefreshFailedException;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton component keeping the Kerberos tickets of the sessions alive.
+ *
+ * <p>The JAAS {@link Subject}s obtained by {@link KerberosUserAuthenticatorService} are registered here :
+ * they carry the TGT and the service tickets that GSS-API adds to them, so keeping the Subject
+ * across SMB reconnects avoids a new KDC login (AS-REQ) and a new service ticket request (TGS-REQ).</p>
+ *
+ * <ul>
+ *   <li>TGTs are renewed in background (renewable tickets only) when they expire in less than renewBefore ms ;</li>
+ *   <li>expired service tickets are removed from the Subjects, they are requested again with the TGT ;</li>
+ *   <li>concurrent KDC logins are bounded so that a burst of reconnections doesn't flood the KDC.</li>
+ * </ul>
+ */
+@Component
+public class KerberosTicketManager implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(KerberosTicketManager.class);
+
+    @Value("${kerberos.max-concurrent-logins:4}")
+    int maxConcurrentLogins = 4;
+
+    @Value("${kerberos.login-timeout:10000}")
+    long loginTimeout = 10000;
+
+    @Value("${kerberos.renew-before:300000}")
+    long renewBefore = 300000;
+
+    @Value("${kerberos.renew-check-interval:60000}")
+    long renewCheckInterval = 60000;
+
+    /** Subjects compared by identity : Subject.hashCode depends on its (changing) credentials. */
+    private final Set<Subject> subjects = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private volatile Semaphore kdcLogins;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    @FunctionalInterface
+    public interface KerberosLogin {
+        Subject login() throws LoginException;
+    }
+
+    /**
+     * Runs a KDC login, at most maxConcurrentLogins at a time, and registers the resulting Subject.
+     */
+    public Subject login(KerberosLogin kerberosLogin) throws LoginException {
+        Semaphore semaphore = getKdcLogins();
+        try {
+            if (!semaphore.tryAcquire(loginTimeout, TimeUnit.MILLISECONDS)) {
+                throw new LoginException("Kerberos authentication skipped: too many concurrent KDC logins");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoginException("Kerberos authentication interrupted");
+        }
+        Subject subject;
+        try {
+            subject = kerberosLogin.login();
+        } finally {
+            semaphore.release();
+        }
+        register(subject);
+        return subject;
+    }
+
+    public void register(Subject subject) {
+        subjects.add(subject);
+        startRenewal();
+    }
+
+    public void unregister(Subject subject) {
+        subjects.remove(subject);
+    }
+
+    /**
+     * Checks the TGT of the Subject, renewing it if it expires soon, and drops its expired service tickets.
+     *
+     * @return false if the Subject has no usable TGT anymore : a new login is needed
+     */
+    public boolean ensureValid(Subject subject) {
+        synchronized (subject) {
+            long now = System.currentTimeMillis();
+            KerberosTicket tgt = null;
+            for (KerberosTicket ticket : getTickets(subject)) {
+                if (isTgt(ticket)) {
+                    tgt = ticket;
+                } else if (!ticket.isCurrent()) {
+                    subject.getPrivateCredentials().remove(ticket);
+                    destroy(ticket);
+                }
+            }
+            if (tgt == null || tgt.getEndTime() == null) {
+                return false;
+            }
+            long endTime = tgt.getEndTime().getTime();
+            if (endTime - now < renewBefore && tgt.isRenewable()
+                    && tgt.getRenewTill() != null && tgt.getRenewTill().getTime() > now) {
+                try {
+                    tgt.refresh();
+                    log.debug("Kerberos TGT of '{}' renewed until {}", tgt.getClient(), tgt.getEndTime());
+                    return true;
+                } catch (RefreshFailedException e) {
+                    log.info("Kerberos TGT of '{}' can't be renewed: {}", tgt.getClient(), e.getMessage());
+                }
+            }
+            return endTime > now;
+        }
+    }
+
+    /**
+     * Called every renewCheckInterval ms : renews TGTs before expiry, forgets the Subjects that can't be renewed.
+     */
+    void renewAll() {
+        List<Subject> registered;
+        synchronized (subjects) {
+            registered = new ArrayList<>(subjects);
+        }
+        for (Subject subject : registered) {
+            try {
+                if (!ensureValid(subject)) {
+                    unregister(subject);
+                }
+            } catch (RuntimeException e) {
+                // GSS may be adding a service ticket at the same time : checked again on next run
+                log.debug("Kerberos tickets check failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    public int getRegisteredSubjects() {
+        return subjects.size();
+    }
+
+    private static List<KerberosTicket> getTickets(Subject subject) {
+        return new ArrayList<>(subject.getPrivateCredentials(KerberosTicket.class));
+    }
+
+    private static boolean isTgt(KerberosTicket ticket) {
+        return ticket.getServer() != null && ticket.getServer().getName().startsWith("krbtgt/");
+    }
+
+    private static void destroy(KerberosTicket ticket) {
+        try {
+            ticket.destroy();
+        } catch (DestroyFailedException e) {
+            log.debug("Expired Kerberos ticket can't be destroyed: {}", e.getMessage());
+        }
+    }
+
+    private Semaphore getKdcLogins() {
+        if (kdcLogins == null) {
+            synchronized (this) {
+                if (kdcLogins == null) {
+                    kdcLogins = new Semaphore(Math.max(1, maxConcurrentLogins), true);
+                }
+            }
+        }
+        return kdcLogins;
+    }
+
+    private void startRenewal() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "kerberos-renewal");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    scheduler.scheduleWithFixedDelay(this::renewAll, renewCheckInterval, renewCheckInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        subjects.clear();
+    }
+}
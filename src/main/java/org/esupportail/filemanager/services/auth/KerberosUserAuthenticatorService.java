@@ -19,6 +19,8 @@ package org.esupportail.filemanager.services.auth;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.StringUtils;
 
 import javax.security.auth.Subject;
@@ -43,6 +45,9 @@ import java.util.Map;
  * lifetime of the HTTP session (Spring {@code scope="session"}) so the TGT is
  * obtained only once per session.</p>
  *
+ * <p>The Subject is registered in the {@link KerberosTicketManager} which renews its TGT
+ * before expiry : it is kept across SMB reconnects, so that reconnecting doesn't need a KDC login.</p>
+ *
  * <p>The TGT is then consumed by {@code SmbAccessImpl} through
  * {@link com.hierynomus.smbj.auth.GSSAuthenticationContext} — the user's password is
  * never forwarded to the SMB server.</p>
@@ -57,7 +62,7 @@ import java.util.Map;
  * </bean>
  * }</pre>
  */
-public class KerberosUserAuthenticatorService extends FormUserPasswordAuthenticatorService {
+public class KerberosUserAuthenticatorService extends FormUserPasswordAuthenticatorService implements DisposableBean {
 
     private static final Logger log = LoggerFactory.getLogger(KerberosUserAuthenticatorService.class);
 
@@ -103,6 +108,10 @@ public class KerberosUserAuthenticatorService extends FormUserPasswordAuthentica
      */
     private Subject kerberosSubject;
 
+    /** Injected by Spring (optional – without it tickets are not renewed and KDC logins are not bounded). */
+    @Autowired(required = false)
+    private KerberosTicketManager kerberosTicketManager;
+
     // -----------------------------------------------------------------------
     // Setters (Spring injection)
     // -----------------------------------------------------------------------
@@ -123,6 +132,10 @@ public class KerberosUserAuthenticatorService extends FormUserPasswordAuthentica
         this.kerberosDebug = kerberosDebug;
     }
 
+    public void setKerberosTicketManager(KerberosTicketManager kerberosTicketManager) {
+        this.kerberosTicketManager = kerberosTicketManager;
+    }
+
     // -----------------------------------------------------------------------
     // Public API
     // -----------------------------------------------------------------------
@@ -143,19 +156,30 @@ public class KerberosUserAuthenticatorService extends FormUserPasswordAuthentica
      * <p>The Subject is built from the {@link #userPassword} populated by the
      * parent class once the user has submitted the login form.  Subsequent calls
      * within the same HTTP session return the cached Subject without contacting
-     * the KDC again.</p>
+     * the KDC again, as long as its TGT is valid (or can be renewed).</p>
      *
      * @return a JAAS {@link Subject} containing the Kerberos TGT
      * @throws LoginException if JAAS / Kerberos authentication fails
      */
-    public Subject getOrObtainKerberosSubject() throws LoginException {
+    public synchronized Subject getOrObtainKerberosSubject() throws LoginException {
+        if (kerberosSubject != null && kerberosTicketManager != null && !kerberosTicketManager.ensureValid(kerberosSubject)) {
+            log.info("Kerberos TGT expired and can't be renewed, a new authentication is needed");
+            invalidateKerberosSubject();
+        }
         if (kerberosSubject == null) {
             String username = userPassword.getUsername() != null ? userPassword.getUsername() : "";
             String password = userPassword.getPassword() != null ? userPassword.getPassword() : "";
             if (username.isEmpty()) {
                 throw new LoginException("Kerberos authentication skipped: username is empty (user not yet authenticated)");
             }
-            kerberosSubject = loginWithKerberos(username, password);
+            if (password.isEmpty()) {
+                throw new LoginException("Kerberos authentication skipped: password is empty (user has to authenticate again)");
+            }
+            if (kerberosTicketManager != null) {
+                kerberosSubject = kerberosTicketManager.login(() -> loginWithKerberos(username, password));
+            } else {
+                kerberosSubject = loginWithKerberos(username, password);
+            }
             // we don't keep password in memory and we use only kerberos ticket now
             // set password to dummy so that form auth will not be displayed
             userPassword.setPassword("dummy");
@@ -166,9 +190,12 @@ public class KerberosUserAuthenticatorService extends FormUserPasswordAuthentica
     /**
      * Discards the cached Subject so that the next call to
      * {@link #getOrObtainKerberosSubject()} will request a new TGT from the KDC.
-     * Called by {@code SmbAccessImpl.close()} when the SMB session is torn down.
+     * Called by {@code SmbAccessImpl} when the SMB server rejects the ticket.
      */
-    public void invalidateKerberosSubject() {
+    public synchronized void invalidateKerberosSubject() {
+        if (kerberosSubject != null && kerberosTicketManager != null) {
+            kerberosTicketManager.unregister(kerberosSubject);
+        }
         kerberosSubject = null;
         // set password to null so that form auth will be displayed
         userPassword.setPassword(null);
@@ -258,5 +285,14 @@ public class KerberosUserAuthenticatorService extends FormUserPasswordAuthentica
         return subject;
     }
 
-}
+    /**
+     * End of the HTTP session : the tickets don't need to be renewed anymore.
+     */
+    @Override
+    public void destroy() {
+        if (kerberosSubject != null && kerberosTicketManager != null) {
+            kerberosTicketManager.unregister(kerberosSubject);
+        }
+    }
 
+}
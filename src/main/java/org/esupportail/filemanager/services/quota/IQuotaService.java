@@ -1,6 +1,7 @@
 package org.esupportail.filemanager.services.quota;
 
 import org.esupportail.filemanager.beans.Quota;
+import org.esupportail.filemanager.services.FsAccess;
 
 public interface IQuotaService {
 
@@ -9,4 +10,29 @@ public interface IQuotaService {
 
 	public boolean isSupportQuota(String path
 		);
+
+	/**
+	 * Called by the drive itself : quota services relying on the storage (and not on the user only)
+	 * override it to query the drive.
+	 */
+	public default Quota getQuota(FsAccess fsAccess, String path) {
+		return getQuota(path);
+	}
+
+	public default boolean isSupportQuota(FsAccess fsAccess, String path) {
+		return isSupportQuota(path);
+	}
+
+	/**
+	 * @return true if adjustUsedBytes is used : drives compute the size of what they add or remove only in that case
+	 */
+	public default boolean maintainsUsedBytes() {
+		return false;
+	}
+
+	/**
+	 * Bytes added (or removed if negative) on the drive by the application itself.
+	 */
+	public default void adjustUsedBytes(FsAccess fsAccess, long deltaBytes) {
+	}
 }
@@ -0,0 +1,259 @@
+package org.esupportail.filemanager.services.quota;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.esupportail.filemanager.beans.Quota;
+import org.esupportail.filemanager.services.FsAccess;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Quota reported by the storage of the drive itself, without any external service :
+ * free space of the share for SMB (FileFsFullSizeInformation), FileStore for local filesystems,
+ * and usage of the drive prefix for S3 (maxBytes has then to be set).
+ *
+ * Quotas are cached per drive (see FsAccess.getNativeQuotaKey) : a cached quota is served during cacheTtl
+ * and recomputed in background once older than refreshAfter.
+ * Computations run on a bounded executor of maxThreads threads and the caller waits at most timeout ms :
+ * a long computation (S3 listing of a big prefix) goes on in background and fills the cache for the next requests.
+ * The drive is in use (FsAccess.beginUse / endUse) until the computation ends, so that its connection is not closed meanwhile.
+ * Drives without a usage reported by the storage (S3) maintain the cached usage with adjustUsedBytes between two computations.
+ * A failure (storage not supporting it for example) is cached too, so that it's not retried on each request.
+ *
+ * Declare one singleton bean per kind of drive so that each one gets its own ttl and refresh schedule,
+ * and set it as quotaService of the drive.
+ */
+public class NativeQuotaService implements IQuotaService, DisposableBean {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NativeQuotaService.class);
+
+    long cacheTtl = 60000;
+
+    long refreshAfter = 45000;
+
+    long timeout = 2000;
+
+    long maxBytes = 0;
+
+    int maxCacheSize = 10000;
+
+    int maxThreads = 4;
+
+    private final Map<String, CachedQuota> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<Quota>> inFlight = new ConcurrentHashMap<>();
+
+    private volatile ThreadPoolExecutor executor;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Timer computeSuccessTimer;
+    private Timer computeFailureTimer;
+
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public void setRefreshAfter(long refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Limit used when the storage doesn't report one (S3).
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Optional : metrics are registered only if a MeterRegistry is available.
+     */
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        hitCounter = Counter.builder("esup.quota.native.cache.requests").tag("result", "hit").register(meterRegistry);
+        missCounter = Counter.builder("esup.quota.native.cache.requests").tag("result", "miss").register(meterRegistry);
+        computeSuccessTimer = Timer.builder("esup.quota.native.compute").tag("outcome", "success").register(meterRegistry);
+        computeFailureTimer = Timer.builder("esup.quota.native.compute").tag("outcome", "failure").register(meterRegistry);
+        Gauge.builder("esup.quota.native.cache.size", cache, Map::size).register(meterRegistry);
+    }
+
+    public Quota getQuota(String path) {
+        return null;
+    }
+
+    public boolean isSupportQuota(String path) {
+        return false;
+    }
+
+    @Override
+    public boolean isSupportQuota(FsAccess fsAccess, String path) {
+        return fsAccess.isSupportNativeQuota();
+    }
+
+    @Override
+    public Quota getQuota(FsAccess fsAccess, String path) {
+        String key = fsAccess.getNativeQuotaKey();
+        long now = System.currentTimeMillis();
+        CachedQuota cached = cache.get(key);
+        if(cached != null && now - cached.time() < cacheTtl) {
+            increment(hitCounter);
+            if(now - cached.time() > refreshAfter) {
+                compute(key, fsAccess, path);
+            }
+            return cached.quota();
+        }
+        increment(missCounter);
+        CompletableFuture<Quota> future = compute(key, fsAccess, path);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch(TimeoutException e) {
+            log.info("Quota of {} not computed in {} ms, it will be available once computed in background", key, timeout);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            log.warn("Failed computing quota of {}: {}", key, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+        return cached != null ? cached.quota() : null;
+    }
+
+    @Override
+    public boolean maintainsUsedBytes() {
+        return true;
+    }
+
+    /**
+     * Usage maintained by the drive operations : the cached quota, if any, is updated without a new computation.
+     * A change done during a computation may be missed until the next one.
+     */
+    @Override
+    public void adjustUsedBytes(FsAccess fsAccess, long deltaBytes) {
+        cache.computeIfPresent(fsAccess.getNativeQuotaKey(), (key, cached) -> cached.quota() == null ? cached
+                : new CachedQuota(new Quota(Math.max(0, cached.quota().getUsedBytes() + deltaBytes), cached.quota().getMaxBytes()), cached.time()));
+    }
+
+    /**
+     * Asynchronous computation ; only one computation per key at a time.
+     */
+    protected CompletableFuture<Quota> compute(String key, FsAccess fsAccess, String path) {
+        CompletableFuture<Quota> future = new CompletableFuture<>();
+        CompletableFuture<Quota> pending = inFlight.putIfAbsent(key, future);
+        if(pending != null) {
+            return pending;
+        }
+        // the task uses the connection of the drive : the idle connection closing must wait for its end
+        fsAccess.beginUse();
+        boolean submitted = false;
+        try {
+            // task is built in the caller thread : it may need the request (session scoped authentication) to open the drive
+            Callable<Quota> task = fsAccess.getNativeQuotaTask(path);
+            if(task == null) {
+                inFlight.remove(key, future);
+                future.complete(null);
+                return future;
+            }
+            getExecutor().execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    Quota quota = withMaxBytes(task.call());
+                    record(start, computeSuccessTimer);
+                    putInCache(key, quota);
+                    future.complete(quota);
+                } catch(Throwable t) {
+                    record(start, computeFailureTimer);
+                    putInCache(key, null);
+                    future.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, future);
+                    fsAccess.endUse();
+                }
+            });
+            submitted = true;
+        } catch(RuntimeException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        } finally {
+            if(!submitted) {
+                fsAccess.endUse();
+            }
+        }
+        return future;
+    }
+
+    private Quota withMaxBytes(Quota quota) {
+        if(quota == null || quota.getMaxBytes() > 0) {
+            return quota;
+        }
+        return maxBytes > 0 ? new Quota(quota.getUsedBytes(), maxBytes) : null;
+    }
+
+    private void putInCache(String key, Quota quota) {
+        long now = System.currentTimeMillis();
+        if(cache.size() >= maxCacheSize) {
+            cache.values().removeIf(cached -> now - cached.time() >= cacheTtl);
+            if(cache.size() >= maxCacheSize) {
+                log.info("Native quota cache is full ({} entries), clearing it", cache.size());
+                cache.clear();
+            }
+        }
+        cache.put(key, new CachedQuota(quota, now));
+    }
+
+    private static void record(long start, Timer timer) {
+        if(timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void increment(Counter counter) {
+        if(counter != null) {
+            counter.increment();
+        }
+    }
+
+    protected ThreadPoolExecutor getExecutor() {
+        if(executor == null) {
+            synchronized (this) {
+                if(executor == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    // core size = max size : with a bounded queue, threads beyond the core ones are only started once the queue is full
+                    int threads = Math.max(1, maxThreads);
+                    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100), r -> {
+                        Thread thread = new Thread(r, "quota-native-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private record CachedQuota(Quota quota, long time) {
+    }
+}
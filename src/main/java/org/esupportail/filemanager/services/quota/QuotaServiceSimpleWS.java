@@ -1,15 +1,36 @@
 package org.esupportail.filemanager.services.quota;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.esupportail.filemanager.beans.CasUser;
 import org.esupportail.filemanager.beans.Quota;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.security.cas.authentication.CasAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class QuotaServiceSimpleWS implements IQuotaService {
+/**
+ * Quota retrieved from a simple web service answering "usedBytes maxBytes".
+ *
+ * Quotas are cached per user : a cached quota is served during cacheTtl and refreshed
+ * in background once older than refreshAfter (refresh-ahead).
+ * Web service calls are done on a small bounded executor and the caller waits at most timeout ms.
+ * After failureThreshold consecutive failures, the web service is not called anymore during circuitOpenDuration ms
+ * (circuit breaker) and the last known quota (up to staleTtl old) is served instead.
+ *
+ * Declare this bean as a singleton (and not in session scope) so that the cache is shared.
+ */
+public class QuotaServiceSimpleWS implements IQuotaService, DisposableBean {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(QuotaServiceSimpleWS.class);
 
@@ -17,6 +38,43 @@ public class QuotaServiceSimpleWS implements IQuotaService {
 
     String webUrl;
 
+    long cacheTtl = 60000;
+
+    long refreshAfter = 45000;
+
+    long staleTtl = 3600000;
+
+    long timeout = 2000;
+
+    int failureThreshold = 5;
+
+    long circuitOpenDuration = 30000;
+
+    int maxCacheSize = 10000;
+
+    private final Map<String, CachedQuota> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<Quota>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile long circuitOpenUntil = 0;
+
+    private volatile ThreadPoolExecutor executor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleServed = new AtomicLong();
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong upstreamFailures = new AtomicLong();
+    private final AtomicLong upstreamLatencyTotal = new AtomicLong();
+
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter staleCounter;
+    private Timer upstreamSuccessTimer;
+    private Timer upstreamFailureTimer;
+
     public void setRestTemplate(RestTemplate restTemplate) {
         this.restTemplate = restTemplate;
     }
@@ -25,35 +83,245 @@ public class QuotaServiceSimpleWS implements IQuotaService {
         this.webUrl = webUrl;
     }
 
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public void setRefreshAfter(long refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    public void setStaleTtl(long staleTtl) {
+        this.staleTtl = staleTtl;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public void setCircuitOpenDuration(long circuitOpenDuration) {
+        this.circuitOpenDuration = circuitOpenDuration;
+    }
+
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Optional : metrics are registered only if a MeterRegistry is available.
+     */
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        hitCounter = Counter.builder("esup.quota.cache.requests").tag("result", "hit").register(meterRegistry);
+        missCounter = Counter.builder("esup.quota.cache.requests").tag("result", "miss").register(meterRegistry);
+        staleCounter = Counter.builder("esup.quota.cache.requests").tag("result", "stale").register(meterRegistry);
+        upstreamSuccessTimer = Timer.builder("esup.quota.upstream").tag("outcome", "success").publishPercentileHistogram().register(meterRegistry);
+        upstreamFailureTimer = Timer.builder("esup.quota.upstream").tag("outcome", "failure").publishPercentileHistogram().register(meterRegistry);
+        Gauge.builder("esup.quota.cache.size", cache, Map::size).register(meterRegistry);
+        Gauge.builder("esup.quota.circuit.open", this, q -> q.isCircuitOpen() ? 1 : 0).register(meterRegistry);
+    }
+
     public Quota getQuota(String path) {
-        try{
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-            if (!(authentication instanceof CasAuthenticationToken)) {
-                log.error("Failed retrieving quota: authentication is not a CasAuthenticationToken (authentication={})", authentication);
-                return null;
-            }
-            CasAuthenticationToken casAuthenticationToken = (CasAuthenticationToken) authentication;
-            Object userDetails = casAuthenticationToken.getUserDetails();
-            if (!(userDetails instanceof CasUser)) {
-                log.error("Failed retrieving quota: userDetails is not a CasUser (userDetails={})", userDetails);
-                return null;
+        CasUser casUser = getCasUser();
+        if(casUser == null) {
+            return null;
+        }
+        String username = casUser.getUsername();
+        Map<String, Object> userAttributes = casUser.getAttributes();
+        long now = System.currentTimeMillis();
+        CachedQuota cached = cache.get(username);
+        if(cached != null && now - cached.time() < cacheTtl) {
+            increment(hits, hitCounter);
+            if(now - cached.time() > refreshAfter && !isCircuitOpen()) {
+                fetch(username, userAttributes);
             }
-            CasUser casUser = (CasUser) userDetails;
-            Map<String, Object> userAttributes = casUser.getAttributes();
-            String quotaString = restTemplate.getForObject(webUrl, String.class, userAttributes);
-            String[] quotaStrings = quotaString.split(" ");
-            long usedBytes = Long.parseLong(quotaStrings[0]);
-            long maxBytes = Long.parseLong(quotaStrings[1]);
-            Quota quota = new Quota(usedBytes, maxBytes);
-            return quota;
+            return cached.quota();
+        }
+        increment(misses, missCounter);
+        if(isCircuitOpen()) {
+            log.debug("Quota web service circuit is open, serving last known quota for {}", username);
+            return stale(cached, now);
+        }
+        try {
+            return fetch(username, userAttributes).get(timeout, TimeUnit.MILLISECONDS);
+        } catch(TimeoutException e) {
+            log.warn("Quota web service didn't answer in {} ms for {}, serving last known quota", timeout, username);
         } catch(Exception e) {
             log.error("Failed retrieving quota", e);
-            return null;
         }
+        return stale(cached, now);
     }
 
     public boolean isSupportQuota(String path
                                   ) {
         return true;
     }
+
+    protected CasUser getCasUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (!(authentication instanceof CasAuthenticationToken)) {
+            log.error("Failed retrieving quota: authentication is not a CasAuthenticationToken (authentication={})", authentication);
+            return null;
+        }
+        CasAuthenticationToken casAuthenticationToken = (CasAuthenticationToken) authentication;
+        Object userDetails = casAuthenticationToken.getUserDetails();
+        if (!(userDetails instanceof CasUser)) {
+            log.error("Failed retrieving quota: userDetails is not a CasUser (userDetails={})", userDetails);
+            return null;
+        }
+        return (CasUser) userDetails;
+    }
+
+    /**
+     * Asynchronous call of the web service ; only one call per user at a time.
+     */
+    protected CompletableFuture<Quota> fetch(String username, Map<String, Object> userAttributes) {
+        CompletableFuture<Quota> future = new CompletableFuture<>();
+        CompletableFuture<Quota> pending = inFlight.putIfAbsent(username, future);
+        if(pending != null) {
+            return pending;
+        }
+        try {
+            getExecutor().execute(() -> {
+                try {
+                    future.complete(callWebService(username, userAttributes));
+                } catch(Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(username, future);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            inFlight.remove(username, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    protected Quota callWebService(String username, Map<String, Object> userAttributes) {
+        upstreamCalls.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            String quotaString = getRestTemplate().getForObject(webUrl, String.class, userAttributes);
+            String[] quotaStrings = quotaString.split(" ");
+            long usedBytes = Long.parseLong(quotaStrings[0]);
+            long maxBytes = Long.parseLong(quotaStrings[1]);
+            Quota quota = new Quota(usedBytes, maxBytes);
+            record(start, upstreamSuccessTimer);
+            consecutiveFailures.set(0);
+            putInCache(username, quota);
+            return quota;
+        } catch(RuntimeException e) {
+            record(start, upstreamFailureTimer);
+            upstreamFailures.incrementAndGet();
+            if(consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                circuitOpenUntil = System.currentTimeMillis() + circuitOpenDuration;
+                log.warn("Quota web service failed {} times in a row, not called during {} ms", consecutiveFailures.get(), circuitOpenDuration);
+            }
+            throw e;
+        }
+    }
+
+    public boolean isCircuitOpen() {
+        return System.currentTimeMillis() < circuitOpenUntil;
+    }
+
+    private Quota stale(CachedQuota cached, long now) {
+        if(cached != null && now - cached.time() < staleTtl) {
+            increment(staleServed, staleCounter);
+            return cached.quota();
+        }
+        return null;
+    }
+
+    private void putInCache(String username, Quota quota) {
+        long now = System.currentTimeMillis();
+        if(cache.size() >= maxCacheSize) {
+            cache.values().removeIf(cached -> now - cached.time() >= staleTtl);
+            if(cache.size() >= maxCacheSize) {
+                log.info("Quota cache is full ({} users), clearing it", cache.size());
+                cache.clear();
+            }
+        }
+        cache.put(username, new CachedQuota(quota, now));
+    }
+
+    private void record(long start, Timer timer) {
+        long latency = System.nanoTime() - start;
+        upstreamLatencyTotal.addAndGet(latency);
+        if(timer != null) {
+            timer.record(latency, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void increment(AtomicLong count, Counter counter) {
+        count.incrementAndGet();
+        if(counter != null) {
+            counter.increment();
+        }
+    }
+
+    protected RestTemplate getRestTemplate() {
+        if(restTemplate == null) {
+            SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+            requestFactory.setConnectTimeout((int)timeout);
+            requestFactory.setReadTimeout((int)timeout);
+            restTemplate = new RestTemplate(requestFactory);
+        }
+        return restTemplate;
+    }
+
+    protected ThreadPoolExecutor getExecutor() {
+        if(executor == null) {
+            synchronized (this) {
+                if(executor == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    // core size = max size : with a bounded queue, threads beyond the core ones are only started once the queue is full
+                    executor = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100), r -> {
+                        Thread thread = new Thread(r, "quota-ws-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double)hits.get() / total;
+    }
+
+    public long getStaleServed() {
+        return staleServed.get();
+    }
+
+    public long getUpstreamCalls() {
+        return upstreamCalls.get();
+    }
+
+    public long getUpstreamFailures() {
+        return upstreamFailures.get();
+    }
+
+    public double getAverageUpstreamLatencyMs() {
+        long calls = upstreamCalls.get();
+        return calls == 0 ? 0 : upstreamLatencyTotal.get() / 1e6 / calls;
+    }
+
+    private record CachedQuota(Quota quota, long time) {
+    }
 }
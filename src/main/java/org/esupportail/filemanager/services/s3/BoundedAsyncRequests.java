@@ -0,0 +1,102 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services.s3;
+
+import org.esupportail.filemanager.exceptions.EsupStockException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Bridges the blocking FsAccess API to S3AsyncClient futures : requests are sent by the calling thread,
+ * with at most maxConcurrency of them in flight, and awaitAll waits for all of them.
+ * No thread is added : the calling thread only waits, responses are handled by the http client event loops.
+ */
+class BoundedAsyncRequests {
+
+    private final Semaphore permits;
+
+    private final List<CompletableFuture<?>> futures = new ArrayList<>();
+
+    BoundedAsyncRequests(int maxConcurrency) {
+        this.permits = new Semaphore(Math.max(1, maxConcurrency));
+    }
+
+    /**
+     * Sends the request once less than maxConcurrency requests are in flight.
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsupStockException("Interrupted while waiting for S3 requests", e);
+        }
+        CompletableFuture<T> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        future.whenComplete((result, error) -> permits.release());
+        futures.add(future);
+        return future;
+    }
+
+    /**
+     * Waits for all the submitted requests ; the first failure is thrown, as the synchronous client would.
+     */
+    void awaitAll() {
+        join(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+        futures.clear();
+    }
+
+    /**
+     * Waits for the future and throws its failure unwrapped (S3Exception ...).
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new EsupStockException("Interrupted while waiting for S3 response", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable throwable) {
+        while (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (throwable instanceof Exception exception) {
+            return new EsupStockException(exception);
+        }
+        throw (Error) throwable;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services.s3;
+
+import software.amazon.awssdk.core.BytesWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * InputStream of a large object read with parallel byte-range GETs :
+ * at most parallelism parts of partSize bytes are downloaded (or waiting to be read) at a time,
+ * and they are delivered in order. Memory used is bounded to parallelism x partSize.
+ */
+class ParallelRangedInputStream extends InputStream {
+
+    /**
+     * Asynchronous GET of the bytes start to end (inclusive) of the object.
+     * The future returned has to be the one of the SDK : cancelling it aborts the request.
+     */
+    @FunctionalInterface
+    interface RangeFetcher {
+        CompletableFuture<? extends BytesWrapper> fetch(long start, long end);
+    }
+
+    private final RangeFetcher fetcher;
+
+    private final long size;
+
+    private final int partSize;
+
+    private final int parallelism;
+
+    /** Parts requested and not read yet, in order. */
+    private final Deque<CompletableFuture<? extends BytesWrapper>> parts = new ArrayDeque<>();
+
+    private final Deque<Long> partLengths = new ArrayDeque<>();
+
+    private long nextPartStart;
+
+    private byte[] current;
+
+    private int position;
+
+    private boolean closed = false;
+
+    /**
+     * @param start first byte to read : bytes before have already been read by another way
+     */
+    ParallelRangedInputStream(RangeFetcher fetcher, long start, long size, int partSize, int parallelism) {
+        this.fetcher = fetcher;
+        this.nextPartStart = start;
+        this.size = size;
+        this.partSize = Math.max(1, partSize);
+        this.parallelism = Math.max(1, parallelism);
+        requestParts();
+    }
+
+    private void requestParts() {
+        while (parts.size() < parallelism && nextPartStart < size) {
+            long end = Math.min(size, nextPartStart + partSize) - 1;
+            parts.add(fetcher.fetch(nextPartStart, end));
+            partLengths.add(end - nextPartStart + 1);
+            nextPartStart = end + 1;
+        }
+    }
+
+    /**
+     * @return false at the end of the object
+     */
+    private boolean nextPart() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        CompletableFuture<? extends BytesWrapper> part = parts.poll();
+        if (part == null) {
+            return false;
+        }
+        long expectedLength = partLengths.poll();
+        try {
+            current = BoundedAsyncRequests.join(part).asByteArrayUnsafe();
+        } catch (RuntimeException e) {
+            close();
+            throw new IOException("Ranged GET failed", e);
+        }
+        if (current.length != expectedLength) {
+            close();
+            throw new IOException("Ranged GET returned " + current.length + " bytes instead of " + expectedLength);
+        }
+        position = 0;
+        requestParts();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current == null || position == current.length) {
+            if (!nextPart()) {
+                return -1;
+            }
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position == current.length) {
+            if (!nextPart()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (CompletableFuture<? extends BytesWrapper> part : parts) {
+                part.cancel(true);
+            }
+            parts.clear();
+            partLengths.clear();
+            current = null;
+        }
+    }
+}
@@ -17,45 +17,76 @@
  */
 package org.esupportail.filemanager.services.s3;
 import jakarta.annotation.Resource;
+import org.esupportail.filemanager.beans.ChunkedUpload;
 import org.esupportail.filemanager.beans.DownloadFile;
 import org.esupportail.filemanager.beans.JsTreeFile;
+import org.esupportail.filemanager.beans.PresignedMultipartUpload;
 import org.esupportail.filemanager.beans.PresignedUrl;
+import org.esupportail.filemanager.beans.Quota;
 import org.esupportail.filemanager.beans.UploadActionType;
 import org.esupportail.filemanager.beans.UserPassword;
 import org.esupportail.filemanager.exceptions.EsupStockException;
 import org.esupportail.filemanager.exceptions.EsupStockFileExistException;
 import org.esupportail.filemanager.exceptions.EsupStockPermissionDeniedException;
+import org.esupportail.filemanager.services.ChunkedUploadState;
 import org.esupportail.filemanager.services.FsAccess;
 import org.esupportail.filemanager.services.ResourceUtils;
 import org.springframework.beans.factory.DisposableBean;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 /**
  * Implementation of FsAccess for Amazon S3 compatible storage (AWS S3, MinIO, etc.)
  */
 public class S3AccessImpl extends FsAccess implements DisposableBean {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(S3AccessImpl.class);
+
+    /** Max number of keys of a DeleteObjects request. */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    /** Min size of the parts of a multipart upload (last one excepted). */
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    /** Max number of parts of a multipart upload. */
+    private static final int MAX_PARTS = 10000;
+
+    /** Max number of presigned preview URLs cached per drive. */
+    private static final int PRESIGNED_URL_CACHE_SIZE = 1000;
+
     @Resource
     ResourceUtils resourceUtils;
 
+    @Resource
+    S3ClientRegistry s3ClientRegistry;
+
+    private S3ClientRegistry.Handle s3ClientHandle;
+
     private S3Client s3Client;
+    private S3MetadataResolver metadataResolver;
+    private final Map<String, PresignedUrl> presignedDownloadUrls = new ConcurrentHashMap<>();
     private S3Presigner s3Presigner;
     private String bucketName;
     private String region = "us-east-1";
@@ -63,11 +94,21 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
     private String basePath = "";
     private boolean presignedUrlsEnabled = false;
     private int presignedUrlExpirationMinutes = 15;
+    private long presignedMultipartPartSize = 16 * 1024 * 1024;
+    private boolean asyncEnabled = false;
+    private int asyncMaxConcurrency = 16;
+    private long parallelDownloadThreshold = 0;
+    private int parallelDownloadPartSize = 8 * 1024 * 1024;
+    private int parallelDownloadParallelism = 4;
 
     public void setResourceUtils(ResourceUtils resourceUtils) {
         this.resourceUtils = resourceUtils;
     }
 
+    public void setS3ClientRegistry(S3ClientRegistry s3ClientRegistry) {
+        this.s3ClientRegistry = s3ClientRegistry;
+    }
+
     public void setBucketName(String bucketName) {
         this.bucketName = bucketName;
     }
@@ -88,6 +129,43 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         this.presignedUrlExpirationMinutes = presignedUrlExpirationMinutes;
     }
 
+    /**
+     * Part size of the multipart uploads sent by the browsers with presigned URLs,
+     * raised if needed to stay under the 10000 parts limit of S3.
+     */
+    public void setPresignedMultipartPartSize(long presignedMultipartPartSize) {
+        this.presignedMultipartPartSize = presignedMultipartPartSize;
+    }
+
+    /**
+     * Async mode : listings, copies, deletes and downloads go through the shared S3AsyncClient,
+     * with at most asyncMaxConcurrency requests in flight per operation.
+     */
+    public void setAsyncEnabled(boolean asyncEnabled) {
+        this.asyncEnabled = asyncEnabled;
+    }
+
+    public void setAsyncMaxConcurrency(int asyncMaxConcurrency) {
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+    }
+
+    /**
+     * Files read by the server (zip, copy to another drive) of at least parallelDownloadThreshold bytes
+     * are downloaded with parallelDownloadParallelism concurrent ranged GETs of parallelDownloadPartSize bytes ;
+     * 0 (default) disables it.
+     */
+    public void setParallelDownloadThreshold(long parallelDownloadThreshold) {
+        this.parallelDownloadThreshold = parallelDownloadThreshold;
+    }
+
+    public void setParallelDownloadPartSize(int parallelDownloadPartSize) {
+        this.parallelDownloadPartSize = parallelDownloadPartSize;
+    }
+
+    public void setParallelDownloadParallelism(int parallelDownloadParallelism) {
+        this.parallelDownloadParallelism = parallelDownloadParallelism;
+    }
+
     public void setBasePath(String basePath) {
         this.basePath = basePath;
         if (this.basePath != null && !this.basePath.isEmpty()) {
@@ -110,34 +188,28 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         super.open();
         try {
             if (!isOpened()) {
-                S3ClientBuilder builder = S3Client.builder();
-                // Configure credentials
+                AwsBasicCredentials credentials = null;
                 if (userAuthenticatorService != null) {
                     UserPassword userPassword = userAuthenticatorService.getUserPassword();
-                    AwsBasicCredentials credentials = AwsBasicCredentials.create(
+                    credentials = AwsBasicCredentials.create(
                             userPassword.getUsername(),
                             userPassword.getPassword()
                     );
-                    builder.credentialsProvider(StaticCredentialsProvider.create(credentials));
-                }
-                // Configure region
-                if (region != null && !region.isEmpty()) {
-                    builder.region(Region.of(region));
-                }
-                // Configure custom endpoint (for MinIO, Ceph, etc.)
-                if (uri != null && !uri.isEmpty()) {
-                    builder.endpointOverride(URI.create(uri));
                 }
-                // Enable path-style access for non-AWS S3 compatible services
-                builder.forcePathStyle(pathStyleAccessEnabled);
-                s3Client = builder.build();
+                // client and connection pool are shared between the sessions : this drive only holds a handle
+                s3ClientHandle = s3ClientRegistry.acquire(uri, region, pathStyleAccessEnabled, credentials);
+                s3Client = s3ClientHandle.client();
                 // Test connection by checking if bucket exists
                 try {
                     s3Client.headBucket(HeadBucketRequest.builder().bucket(bucketName).build());
                     notifyConnectionOpened();
                 } catch (S3Exception e) {
+                    releaseClient();
                     log.error("Cannot access bucket {}: {}", bucketName, e.awsErrorDetails().errorMessage());
                     throw new EsupStockException("Cannot access S3 bucket: " + e.awsErrorDetails().errorMessage(), e);
+                } catch (RuntimeException e) {
+                    releaseClient();
+                    throw e;
                 }
             }
         } catch (S3Exception e) {
@@ -147,24 +219,41 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
     }
     @Override
     public void close() {
-        if (s3Presigner != null) {
-            s3Presigner.close();
-            s3Presigner = null;
-        }
         if (s3Client != null) {
             notifyConnectionClosed();
-            s3Client.close();
-            s3Client = null;
+            releaseClient();
+        }
+    }
+    /**
+     * Releases the handle on the shared client and presigner ; they are closed by the S3ClientRegistry.
+     */
+    private void releaseClient() {
+        s3Presigner = null;
+        s3Client = null;
+        if (s3ClientHandle != null) {
+            s3ClientHandle.close();
+            s3ClientHandle = null;
         }
     }
+
     @Override
     public void destroy() throws Exception {
+        abortChunkedUploads(null);
         this.close();
     }
     @Override
     protected boolean isOpened() {
         return s3Client != null;
     }
+    private S3AsyncClient asyncClient() {
+        return s3ClientHandle.asyncClient();
+    }
+    private S3MetadataResolver metadataResolver() {
+        if (metadataResolver == null) {
+            metadataResolver = new S3MetadataResolver(driveName);
+        }
+        return metadataResolver;
+    }
     /**
      * Get the full S3 key from a relative path
      */
@@ -202,30 +291,17 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             if (path.isEmpty() || path.equals("/") || s3Key.isEmpty()) {
                 return createJsTreeFileForRoot(folderDetails);
             }
-            // Check if it's a folder by trying to list with prefix
-            String folderKey = s3Key.endsWith("/") ? s3Key : s3Key + "/";
-            ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
-                    .bucket(bucketName)
-                    .prefix(folderKey)
-                    .maxKeys(1)
-                    .build();
-            ListObjectsV2Response listResponse = s3Client.listObjectsV2(listRequest);
-            if (listResponse.hasContents() || listResponse.hasCommonPrefixes()) {
-                // It's a folder
+            // type, size, ETag and date with a single listing
+            String objectKey = s3Key.endsWith("/") ? s3Key.substring(0, s3Key.length() - 1) : s3Key;
+            S3MetadataResolver.S3Metadata metadata = metadataResolver().resolve(s3Client, bucketName, objectKey);
+            if (metadata.folder()) {
                 return createJsTreeFileForFolder(path, folderDetails);
             }
-            // Try to get as a file
-            try {
-                HeadObjectRequest headRequest = HeadObjectRequest.builder()
-                        .bucket(bucketName)
-                        .key(s3Key)
-                        .build();
-                HeadObjectResponse headResponse = s3Client.headObject(headRequest);
-                return createJsTreeFileForObject(path, headResponse, fileDetails);
-            } catch (NoSuchKeyException e) {
+            if (metadata.object() == null) {
                 log.warn("Object not found: {}", s3Key);
                 throw new EsupStockException("Object not found: " + path);
             }
+            return createJsTreeFileForS3Object(path, metadata.object(), fileDetails);
         } catch (S3Exception e) {
             log.error("Error getting S3 object", e);
             if (e.statusCode() == 403) {
@@ -249,6 +325,21 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                     .prefix(s3Prefix)
                     .delimiter("/")
                     .build();
+            if (asyncEnabled) {
+                // pages are handled by the http client threads as they arrive,
+                // the request scoped metadata memo is only reachable from the calling thread
+                String prefix = s3Prefix;
+                List<ListObjectsV2Response> pages = new ArrayList<>();
+                BoundedAsyncRequests.join(asyncClient().listObjectsV2Paginator(listRequest)
+                        .subscribe(page -> {
+                            addChildren(files, prefix, page);
+                            pages.add(page);
+                        }));
+                for (ListObjectsV2Response page : pages) {
+                    metadataResolver().remember(page);
+                }
+                return files;
+            }
             ListObjectsV2Response listResponse;
             String continuationToken = null;
             do {
@@ -258,27 +349,8 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                             .build();
                 }
                 listResponse = s3Client.listObjectsV2(listRequest);
-                // Add folders (common prefixes)
-                if (listResponse.hasCommonPrefixes()) {
-                    for (CommonPrefix prefix : listResponse.commonPrefixes()) {
-                        String folderPath = getRelativePath(prefix.prefix());
-                        if (folderPath.endsWith("/")) {
-                            folderPath = folderPath.substring(0, folderPath.length() - 1);
-                        }
-                        files.add(createJsTreeFileForFolder(folderPath, false));
-                    }
-                }
-                // Add files
-                if (listResponse.hasContents()) {
-                    for (S3Object s3Object : listResponse.contents()) {
-                        String key = s3Object.key();
-                        // Skip the folder itself and empty folder markers
-                        if (!key.equals(s3Prefix) && !key.endsWith("/")) {
-                            String filePath = getRelativePath(key);
-                            files.add(createJsTreeFileForS3Object(filePath, s3Object, true));
-                        }
-                    }
-                }
+                addChildren(files, s3Prefix, listResponse);
+                metadataResolver().remember(listResponse);
                 continuationToken = listResponse.nextContinuationToken();
             } while (listResponse.isTruncated());
             return files;
@@ -294,6 +366,29 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             throw new EsupStockException("S3 error", e);
         }
     }
+    private void addChildren(List<JsTreeFile> files, String s3Prefix, ListObjectsV2Response listResponse) {
+        // Add folders (common prefixes)
+        if (listResponse.hasCommonPrefixes()) {
+            for (CommonPrefix prefix : listResponse.commonPrefixes()) {
+                String folderPath = getRelativePath(prefix.prefix());
+                if (folderPath.endsWith("/")) {
+                    folderPath = folderPath.substring(0, folderPath.length() - 1);
+                }
+                files.add(createJsTreeFileForFolder(folderPath, false));
+            }
+        }
+        // Add files
+        if (listResponse.hasContents()) {
+            for (S3Object s3Object : listResponse.contents()) {
+                String key = s3Object.key();
+                // Skip the folder itself and empty folder markers
+                if (!key.equals(s3Prefix) && !key.endsWith("/")) {
+                    String filePath = getRelativePath(key);
+                    files.add(createJsTreeFileForS3Object(filePath, s3Object, true));
+                }
+            }
+        }
+    }
     @Override
     public boolean remove(String path) {
         try {
@@ -301,13 +396,25 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             String s3Key = getS3Key(path);
             // Check if it's a folder
             if (isFolder(s3Key) || isFolderByListing(s3Key)) {
-                return removeFolder(s3Key);
+                long size = maintainsUsedBytes() ? prefixSize(s3Key.endsWith("/") ? s3Key : s3Key + "/") : 0;
+                boolean removed = removeFolder(s3Key);
+                if (removed) {
+                    adjustUsedBytes(-size);
+                }
+                return removed;
             } else {
-                return removeFile(s3Key);
+                long size = maintainsUsedBytes() ? objectSize(s3Key) : 0;
+                boolean removed = removeFile(s3Key);
+                if (removed && size > 0) {
+                    adjustUsedBytes(-size);
+                }
+                return removed;
             }
         } catch (S3Exception e) {
             log.error("Error removing S3 object: {}", path, e);
             return false;
+        } finally {
+            metadataResolver().invalidate();
         }
     }
     private boolean removeFile(String s3Key) {
@@ -329,6 +436,11 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             if (!s3Key.endsWith("/")) {
                 s3Key += "/";
             }
+            if (asyncEnabled) {
+                boolean deleted = deleteKeysAsync(listKeysAsync(s3Key));
+                log.info("Folder deleted: {}", s3Key);
+                return deleted;
+            }
             // List all objects in the folder
             ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
                     .bucket(bucketName)
@@ -358,6 +470,10 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         }
     }
     private boolean isFolderByListing(String s3Key) {
+        S3MetadataResolver.S3Metadata cached = metadataResolver().cached(s3Key.endsWith("/") ? s3Key.substring(0, s3Key.length() - 1) : s3Key);
+        if (cached != null) {
+            return cached.folder();
+        }
         try {
             String folderKey = s3Key.endsWith("/") ? s3Key : s3Key + "/";
             ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
@@ -417,6 +533,8 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         } catch (S3Exception e) {
             log.error("Error creating file in S3", e);
             throw new EsupStockException("S3 error", e);
+        } finally {
+            metadataResolver().invalidate();
         }
     }
     @Override
@@ -444,6 +562,8 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         } catch (S3Exception e) {
             log.error("Error renaming file in S3", e);
             return false;
+        } finally {
+            metadataResolver().invalidate();
         }
     }
     private boolean renameObject(String oldKey, String newKey) {
@@ -477,6 +597,11 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             if (!newKey.endsWith("/")) {
                 newKey += "/";
             }
+            if (asyncEnabled) {
+                boolean deleted = deleteKeysAsync(copyFolderAsync(oldKey, newKey));
+                log.info("Folder renamed from {} to {}", oldKey, newKey);
+                return deleted;
+            }
             // List all objects in the folder
             ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
                     .bucket(bucketName)
@@ -528,11 +653,19 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             if (!targetKey.isEmpty() && !targetKey.endsWith("/")) {
                 targetKey += "/";
             }
+            // async mode : copies of files are sent together, sources of a move deleted once all copied
+            BoundedAsyncRequests copies = asyncEnabled ? new BoundedAsyncRequests(asyncMaxConcurrency) : null;
+            List<String> movedKeys = new ArrayList<>();
             for (String filePath : filesToCopy) {
                 String sourceKey = getS3Key(filePath);
                 String fileName = sourceKey.substring(sourceKey.lastIndexOf('/') + 1);
                 String destinationKey = targetKey + fileName;
                 boolean isFolder = isFolder(sourceKey) || isFolderByListing(sourceKey);
+                if (copy && maintainsUsedBytes()) {
+                    // a move doesn't change the usage of the drive
+                    long size = isFolder ? prefixSize(sourceKey.endsWith("/") ? sourceKey : sourceKey + "/") : objectSize(sourceKey);
+                    adjustUsedBytes(Math.max(0, size));
+                }
                 if (isFolder) {
                     if (copy) {
                         copyFolder(sourceKey, destinationKey);
@@ -546,6 +679,11 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                             .destinationBucket(bucketName)
                             .destinationKey(destinationKey)
                             .build();
+                    if (copies != null) {
+                        copies.submit(() -> asyncClient().copyObject(copyRequest));
+                        movedKeys.add(sourceKey);
+                        continue;
+                    }
                     s3Client.copyObject(copyRequest);
                     if (!copy) {
                         // Move: delete source
@@ -553,10 +691,18 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                     }
                 }
             }
+            if (copies != null) {
+                copies.awaitAll();
+                if (!copy) {
+                    return deleteKeysAsync(movedKeys);
+                }
+            }
             return true;
         } catch (S3Exception e) {
             log.error("Error moving/copying files in S3", e);
             return false;
+        } finally {
+            metadataResolver().invalidate();
         }
     }
     private void copyFolder(String sourceKey, String destinationKey) {
@@ -567,6 +713,10 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             if (!destinationKey.endsWith("/")) {
                 destinationKey += "/";
             }
+            if (asyncEnabled) {
+                copyFolderAsync(sourceKey, destinationKey);
+                return;
+            }
             // List all objects in the source folder
             ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
                     .bucket(bucketName)
@@ -602,16 +752,91 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             throw new EsupStockException("Error copying folder", e);
         }
     }
+    /**
+     * Keys of all the objects under the prefix, listed with the async client.
+     */
+    private List<String> listKeysAsync(String prefix) {
+        List<String> keys = new ArrayList<>();
+        ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .build();
+        BoundedAsyncRequests.join(asyncClient().listObjectsV2Paginator(listRequest)
+                .subscribe(page -> page.contents().forEach(s3Object -> keys.add(s3Object.key()))));
+        return keys;
+    }
+    /**
+     * Copies all the objects under sourcePrefix to destinationPrefix, asyncMaxConcurrency copies at a time.
+     * @return keys of the copied objects
+     */
+    private List<String> copyFolderAsync(String sourcePrefix, String destinationPrefix) {
+        List<String> keys = listKeysAsync(sourcePrefix);
+        BoundedAsyncRequests copies = new BoundedAsyncRequests(asyncMaxConcurrency);
+        for (String key : keys) {
+            CopyObjectRequest copyRequest = CopyObjectRequest.builder()
+                    .sourceBucket(bucketName)
+                    .sourceKey(key)
+                    .destinationBucket(bucketName)
+                    .destinationKey(destinationPrefix + key.substring(sourcePrefix.length()))
+                    .build();
+            copies.submit(() -> asyncClient().copyObject(copyRequest));
+        }
+        copies.awaitAll();
+        return keys;
+    }
+    /**
+     * Deletes the objects by batches of DELETE_BATCH_SIZE keys (DeleteObjects), asyncMaxConcurrency batches at a time.
+     * @return false if some objects could not be deleted
+     */
+    private boolean deleteKeysAsync(List<String> keys) {
+        BoundedAsyncRequests deletes = new BoundedAsyncRequests(asyncMaxConcurrency);
+        List<CompletableFuture<DeleteObjectsResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += DELETE_BATCH_SIZE) {
+            List<ObjectIdentifier> batch = keys.subList(i, Math.min(i + DELETE_BATCH_SIZE, keys.size())).stream()
+                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                    .toList();
+            DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
+                    .bucket(bucketName)
+                    .delete(Delete.builder().objects(batch).quiet(true).build())
+                    .build();
+            responses.add(deletes.submit(() -> asyncClient().deleteObjects(deleteRequest)));
+        }
+        deletes.awaitAll();
+        boolean deleted = true;
+        for (CompletableFuture<DeleteObjectsResponse> response : responses) {
+            for (S3Error error : response.join().errors()) {
+                log.error("Error deleting {}: {}", error.key(), error.message());
+                deleted = false;
+            }
+        }
+        return deleted;
+    }
     @Override
     public DownloadFile getFile(String dir) {
+        return getFile(dir, false);
+    }
+    @Override
+    public DownloadFile getFileForTransfer(String dir) {
+        return getFile(dir, parallelDownloadThreshold > 0);
+    }
+    private DownloadFile getFile(String dir, boolean parallel) {
         try {
             open();
             String s3Key = getS3Key(dir);
+            if (parallel) {
+                DownloadFile parallelFile = getFileInParallel(s3Key);
+                if (parallelFile != null) {
+                    return parallelFile;
+                }
+            }
             GetObjectRequest getRequest = GetObjectRequest.builder()
                     .bucket(bucketName)
                     .key(s3Key)
                     .build();
-            software.amazon.awssdk.core.ResponseInputStream<GetObjectResponse> response = s3Client.getObject(getRequest);
+            // async mode : the body is received by the http client event loop, the stream only waits for it
+            software.amazon.awssdk.core.ResponseInputStream<GetObjectResponse> response = asyncEnabled
+                    ? BoundedAsyncRequests.join(asyncClient().getObject(getRequest, AsyncResponseTransformer.toBlockingInputStream()))
+                    : s3Client.getObject(getRequest);
             GetObjectResponse objectResponse = response.response();
             String baseName = s3Key.substring(s3Key.lastIndexOf('/') + 1);
             String contentType = objectResponse.contentType();
@@ -629,6 +854,48 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             throw new EsupStockException("S3 error", e);
         }
     }
+    /**
+     * Ranged GETs of parallelDownloadPartSize bytes, parallelDownloadParallelism at a time, delivered in order.
+     * The parts are requested with If-Match on the ETag : the object can't change during the download.
+     * Size and ETag come from the metadata memoized by a previous listing of the request, or from a HEAD.
+     *
+     * @return null if the object is smaller than parallelDownloadThreshold
+     */
+    private DownloadFile getFileInParallel(String s3Key) {
+        S3MetadataResolver.S3Metadata cached = metadataResolver().cached(s3Key);
+        long size;
+        String eTag;
+        String contentType = null;
+        if (cached != null && cached.object() != null) {
+            size = cached.object().size();
+            eTag = cached.object().eTag();
+        } else {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .build());
+            size = head.contentLength();
+            eTag = head.eTag();
+            contentType = head.contentType();
+        }
+        if (size < parallelDownloadThreshold) {
+            return null;
+        }
+        S3AsyncClient asyncClient = asyncClient();
+        ParallelRangedInputStream inputStream = new ParallelRangedInputStream((start, end) ->
+                asyncClient.getObject(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(s3Key)
+                        .range("bytes=" + start + "-" + end)
+                        .ifMatch(eTag)
+                        .build(), AsyncResponseTransformer.toBytes()),
+                0, size, parallelDownloadPartSize, parallelDownloadParallelism);
+        String baseName = s3Key.substring(s3Key.lastIndexOf('/') + 1);
+        if (contentType == null || contentType.isEmpty()) {
+            contentType = JsTreeFile.getMimeType(baseName.toLowerCase());
+        }
+        return new DownloadFile(contentType, size, baseName, inputStream);
+    }
     @Override
     public boolean putFile(String dir, String filename, InputStream inputStream, UploadActionType uploadOption) {
         try {
@@ -640,12 +907,14 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             String s3Key = parentKey + filename;
             // Check if file exists
             boolean exists = objectExists(s3Key);
+            long replacedSize = 0;
             if (exists) {
                 switch (uploadOption) {
                     case ERROR:
                         throw new EsupStockFileExistException();
                     case OVERRIDE:
                         // Will overwrite
+                        replacedSize = maintainsUsedBytes() ? Math.max(0, objectSize(s3Key)) : 0;
                         break;
                     case RENAME_NEW:
                         s3Key = parentKey + getUniqueFilename(filename, "-new-");
@@ -668,6 +937,7 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                     .build();
             s3Client.putObject(putRequest, RequestBody.fromBytes(content));
             log.info("File uploaded to S3: {}", s3Key);
+            adjustUsedBytes(content.length - replacedSize);
             return true;
         } catch (S3Exception e) {
             log.error("Error uploading file to S3", e);
@@ -678,9 +948,46 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         } catch (IOException e) {
             log.error("Error reading input stream", e);
             return false;
+        } finally {
+            metadataResolver().invalidate();
+        }
+    }
+    /**
+     * @return the size of the object read with a HEAD request, -1 if it doesn't exist
+     */
+    private long objectSize(String s3Key) {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .build()).contentLength();
+        } catch (NoSuchKeyException e) {
+            return -1;
+        } catch (S3Exception e) {
+            log.warn("Error reading size of object {}: {}", s3Key, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @return the total size of the objects under the prefix
+     */
+    private long prefixSize(String prefix) {
+        long size = 0;
+        for (S3Object s3Object : s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .build()).contents()) {
+            size += s3Object.size();
         }
+        return size;
     }
+
     private boolean objectExists(String s3Key) {
+        S3MetadataResolver.S3Metadata cached = s3Key.endsWith("/") ? null : metadataResolver().cached(s3Key);
+        if (cached != null) {
+            return cached.object() != null;
+        }
         try {
             HeadObjectRequest headRequest = HeadObjectRequest.builder()
                     .bucket(bucketName)
@@ -737,6 +1044,7 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                     .delimiter("/")
                     .build();
             ListObjectsV2Response listResponse = s3Client.listObjectsV2(listRequest);
+            metadataResolver().remember(listResponse);
             long totalSize = 0;
             long fileCount = 0;
             long folderCount = 0;
@@ -774,22 +1082,6 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         file.setWriteable(true);
         return file;
     }
-    private JsTreeFile createJsTreeFileForObject(String path, HeadObjectResponse headResponse, boolean fileDetails) {
-        String title = path.substring(path.lastIndexOf('/') + 1);
-        String parent = path.substring(0, Math.max(0, path.lastIndexOf('/')));
-        JsTreeFile file = new JsTreeFile(title, path, parent, "file");
-        file.setHidden(title.startsWith("."));
-        String icon = resourceUtils.getIcon(title);
-        file.setIcon(icon);
-        file.setSize(headResponse.contentLength());
-        file.setOverSizeLimit(file.getSize() > resourceUtils.getSizeLimit(title));
-        if (headResponse.lastModified() != null) {
-            file.setLastModifiedTime(Date.from(headResponse.lastModified()));
-        }
-        file.setReadable(true);
-        file.setWriteable(true);
-        return file;
-    }
     @Override
     public boolean supportIntraCopyPast() {
         return true;
@@ -800,48 +1092,51 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
         return true;
     }
 
+    @Override
+    public boolean isSupportNativeQuota() {
+        return true;
+    }
+
+    /**
+     * Usage of the drive prefix is the same for all users sharing it.
+     */
+    @Override
+    public String getNativeQuotaKey() {
+        return "s3|" + uri + "|" + bucketName + "|" + basePath;
+    }
+
+    /**
+     * S3 has no quota : usage is the sum of the object sizes under the drive prefix, computed with a full (paginated) listing.
+     * NativeQuotaService keeps it in cache and the operations of the drive (uploads, copies, deletes) maintain it with
+     * adjustUsedBytes : the listing is only a reconciliation, with external changes and single presigned PUTs,
+     * to schedule with a long refreshAfter.
+     * maxBytes is 0 here, the limit comes from NativeQuotaService.maxBytes.
+     */
+    @Override
+    public Callable<Quota> getNativeQuotaTask(String path) {
+        open();
+        S3Client client = s3Client;
+        ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(basePath)
+                .build();
+        return () -> {
+            long usedBytes = 0;
+            for (S3Object s3Object : client.listObjectsV2Paginator(listRequest).contents()) {
+                usedBytes += s3Object.size();
+            }
+            return new Quota(usedBytes, 0);
+        };
+    }
+
     /**
      * Initialize the S3 presigner if needed and not already initialized
      */
     private void initializePresigner() {
         if (s3Presigner == null && presignedUrlsEnabled) {
             try {
-                S3Presigner.Builder presignerBuilder = S3Presigner.builder();
-
-                // Configure credentials
-                if (userAuthenticatorService != null) {
-                    UserPassword userPassword = userAuthenticatorService.getUserPassword();
-                    AwsBasicCredentials credentials = AwsBasicCredentials.create(
-                            userPassword.getUsername(),
-                            userPassword.getPassword()
-                    );
-                    presignerBuilder.credentialsProvider(StaticCredentialsProvider.create(credentials));
-                }
-
-                // Configure region
-                if (region != null && !region.isEmpty()) {
-                    presignerBuilder.region(Region.of(region));
-                }
-
-                // Configure custom endpoint (for MinIO, Ceph, etc.)
-                if (uri != null && !uri.isEmpty()) {
-                    presignerBuilder.endpointOverride(URI.create(uri));
-                }
-
-                // For path-style access (MinIO), we need to configure the service configuration
-                // The presigner will use path-style URLs when the endpoint is overridden and
-                // the endpoint is not an AWS S3 endpoint
-                if (pathStyleAccessEnabled) {
-                    presignerBuilder.serviceConfiguration(
-                        software.amazon.awssdk.services.s3.S3Configuration.builder()
-                            .pathStyleAccessEnabled(true)
-                            .build()
-                    );
-                    log.debug("Presigner configured with pathStyleAccessEnabled=true");
-                }
-
-                s3Presigner = presignerBuilder.build();
-                log.info("S3 Presigner initialized successfully with endpoint: {}, pathStyle: {}", uri, pathStyleAccessEnabled);
+                s3Presigner = s3ClientHandle.presigner();
+                log.debug("S3 Presigner initialized with endpoint: {}, pathStyle: {}", uri, pathStyleAccessEnabled);
             } catch (Exception e) {
                 log.error("Error initializing S3 presigner", e);
                 throw new EsupStockException("S3 presigner initialization error", e);
@@ -856,6 +1151,42 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
 
     @Override
     public PresignedUrl getPresignedDownloadUrl(String path) {
+        return presignDownload(path, null, null);
+    }
+
+    /**
+     * URLs are cached per path, type and disposition, and served again while more than half of their validity remains :
+     * repeated previews are not signed again, and a sound or video player still has half of presignedUrlExpirationMinutes
+     * for its range requests while seeking.
+     */
+    @Override
+    public PresignedUrl getPresignedDownloadUrl(String path, String responseContentType, boolean inline) {
+        if (!presignedUrlsEnabled) {
+            log.debug("Presigned URLs are not enabled");
+            return null;
+        }
+        String filename = path.substring(path.lastIndexOf('/') + 1);
+        String contentType = responseContentType != null ? responseContentType : JsTreeFile.getMimeType(filename.toLowerCase());
+        String cacheKey = path + '\n' + contentType + '\n' + inline;
+        long minSecondsUntilExpiration = presignedUrlExpirationMinutes * 60L / 2;
+        PresignedUrl cached = presignedDownloadUrls.get(cacheKey);
+        if (cached != null && cached.getSecondsUntilExpiration() > minSecondsUntilExpiration) {
+            return cached;
+        }
+        String contentDisposition = (inline ? "inline" : "attachment")
+                + "; filename*=UTF-8''" + URLEncoder.encode(filename, StandardCharsets.UTF_8).replace("+", "%20");
+        PresignedUrl presignedUrl = presignDownload(path, contentType, contentDisposition);
+        if (presignedDownloadUrls.size() >= PRESIGNED_URL_CACHE_SIZE) {
+            presignedDownloadUrls.values().removeIf(url -> url.getSecondsUntilExpiration() <= minSecondsUntilExpiration);
+            if (presignedDownloadUrls.size() >= PRESIGNED_URL_CACHE_SIZE) {
+                presignedDownloadUrls.clear();
+            }
+        }
+        presignedDownloadUrls.put(cacheKey, presignedUrl);
+        return presignedUrl;
+    }
+
+    private PresignedUrl presignDownload(String path, String responseContentType, String responseContentDisposition) {
         if (!presignedUrlsEnabled) {
             log.debug("Presigned URLs are not enabled");
             return null;
@@ -868,10 +1199,12 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             String s3Key = getS3Key(path);
             String filename = s3Key.substring(s3Key.lastIndexOf('/') + 1);
 
-            // Create GetObject request
+            // Create GetObject request, with the headers of the response overridden if asked
             GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                     .bucket(bucketName)
                     .key(s3Key)
+                    .responseContentType(responseContentType)
+                    .responseContentDisposition(responseContentDisposition)
                     .build();
 
             // Create presign request with expiration
@@ -893,7 +1226,8 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
                     filename
             );
 
-            log.info("Generated presigned download URL for {} (expires in {} minutes): {}", path, presignedUrlExpirationMinutes, urlString);
+            log.info("Generated presigned download URL for {} (expires in {} minutes)", path, presignedUrlExpirationMinutes);
+            log.debug("Presigned download URL for {} : {}", path, urlString);
             return result;
         } catch (S3Exception e) {
             log.error("Error generating presigned download URL for {}", path, e);
@@ -966,4 +1300,286 @@ public class S3AccessImpl extends FsAccess implements DisposableBean {
             throw new EsupStockException("Error generating presigned upload URL", e);
         }
     }
+
+    private String getUploadKey(String path, String filename) {
+        String parentKey = getS3Key(path);
+        if (!parentKey.isEmpty() && !parentKey.endsWith("/")) {
+            parentKey += "/";
+        }
+        return parentKey + filename;
+    }
+
+    @Override
+    public PresignedMultipartUpload initiatePresignedMultipartUpload(String path, String filename, long size) {
+        if (!presignedUrlsEnabled) {
+            log.debug("Presigned URLs are not enabled");
+            return null;
+        }
+        try {
+            open();
+            String s3Key = getUploadKey(path, filename);
+            long partSize = Math.max(Math.max(MIN_PART_SIZE, presignedMultipartPartSize), (size + MAX_PARTS - 1) / MAX_PARTS);
+            int partCount = (int) Math.max(1, (size + partSize - 1) / partSize);
+            CreateMultipartUploadResponse response = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .contentType(JsTreeFile.getMimeType(filename.toLowerCase()))
+                    .build());
+            // tracked as the chunked uploads : aborted at the end of the session or once expired if not completed
+            registerChunkedUpload(new ChunkedUploadState(response.uploadId(), path, filename, s3Key, size, partSize, true, null));
+            log.info("Multipart upload {} initiated for {} : {} parts of {} bytes", response.uploadId(), s3Key, partCount, partSize);
+            return new PresignedMultipartUpload(response.uploadId(), filename, partSize, partCount);
+        } catch (S3Exception e) {
+            log.error("Error initiating multipart upload for {}/{}", path, filename, e);
+            if (e.statusCode() == 403) {
+                throw new EsupStockPermissionDeniedException(e);
+            }
+            throw new EsupStockException("S3 error initiating multipart upload", e);
+        }
+    }
+
+    @Override
+    public List<PresignedUrl> getPresignedUploadPartUrls(String path, String filename, String uploadId, int firstPartNumber, int count) {
+        if (!presignedUrlsEnabled) {
+            log.debug("Presigned URLs are not enabled");
+            return null;
+        }
+        open();
+        initializePresigner();
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state != null) {
+            state.touch();
+        }
+        String s3Key = getUploadKey(path, filename);
+        List<PresignedUrl> urls = new ArrayList<>(count);
+        // signing is local : no request to S3 here
+        for (int partNumber = firstPartNumber; partNumber < firstPartNumber + count && partNumber <= MAX_PARTS; partNumber++) {
+            UploadPartPresignRequest presignRequest = UploadPartPresignRequest.builder()
+                    .signatureDuration(Duration.ofMinutes(presignedUrlExpirationMinutes))
+                    .uploadPartRequest(UploadPartRequest.builder()
+                            .bucket(bucketName)
+                            .key(s3Key)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .build())
+                    .build();
+            PresignedUploadPartRequest presignedRequest = s3Presigner.presignUploadPart(presignRequest);
+            urls.add(new PresignedUrl(presignedRequest.url().toString(), presignedRequest.expiration(), "PUT", filename));
+        }
+        log.debug("Generated {} presigned part URLs from part {} for upload {}", urls.size(), firstPartNumber, uploadId);
+        return urls;
+    }
+
+    @Override
+    public boolean completePresignedMultipartUpload(String path, String filename, String uploadId, int partCount) {
+        if (!presignedUrlsEnabled) {
+            log.debug("Presigned URLs are not enabled");
+            return false;
+        }
+        try {
+            open();
+            // ETags of the parts are read from S3 : the browser doesn't need access to the ETag response header (CORS)
+            if (!completeMultipartUpload(getUploadKey(path, filename), uploadId, partCount)) {
+                return false;
+            }
+            unregisterChunkedUpload(uploadId);
+            return true;
+        } catch (S3Exception e) {
+            log.error("Error completing multipart upload {} for {}/{}", uploadId, path, filename, e);
+            if (e.statusCode() == 403) {
+                throw new EsupStockPermissionDeniedException(e);
+            }
+            return false;
+        } finally {
+            metadataResolver().invalidate();
+        }
+    }
+
+    /**
+     * Completes the multipart upload with the parts listed by S3
+     * @return false if S3 doesn't have partCount parts
+     */
+    private boolean completeMultipartUpload(String s3Key, String uploadId, int partCount) {
+        List<CompletedPart> parts = new ArrayList<>(partCount);
+        long size = 0;
+        for (Part part : s3Client.listPartsPaginator(ListPartsRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .build()).parts()) {
+            size += part.size();
+            // checksum of the parts sent with one (chunked uploads), required to complete the upload
+            parts.add(CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag())
+                    .checksumSHA256(part.checksumSHA256()).build());
+        }
+        if (parts.size() != partCount) {
+            log.warn("Multipart upload {} of {} has {} parts instead of {}", uploadId, s3Key, parts.size(), partCount);
+            return false;
+        }
+        long replacedSize = maintainsUsedBytes() ? Math.max(0, objectSize(s3Key)) : 0;
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+        log.info("Multipart upload {} completed for {}", uploadId, s3Key);
+        adjustUsedBytes(size - replacedSize);
+        return true;
+    }
+
+    @Override
+    public boolean abortPresignedMultipartUpload(String path, String filename, String uploadId) {
+        if (!presignedUrlsEnabled) {
+            log.debug("Presigned URLs are not enabled");
+            return false;
+        }
+        unregisterChunkedUpload(uploadId);
+        try {
+            open();
+            String s3Key = getUploadKey(path, filename);
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .build());
+            log.info("Multipart upload {} aborted for {}", uploadId, s3Key);
+            return true;
+        } catch (S3Exception e) {
+            log.error("Error aborting multipart upload {} for {}/{}", uploadId, path, filename, e);
+            return false;
+        }
+    }
+
+    /**
+     * Chunks sent through the server are the parts of a S3 multipart upload : they can be sent in parallel.
+     * The key is chosen here (RENAME_NEW), the existing file renamed at completion (RENAME_OLD).
+     * Parts are sent with the SHA-256 given by the client : S3 itself refuses a corrupt part,
+     * which is not marked as received and is sent again.
+     */
+    @Override
+    public ChunkedUpload initiateChunkedUpload(String path, String filename, long size, UploadActionType uploadOption) {
+        try {
+            open();
+            String s3Key = getUploadKey(path, filename);
+            if (objectExists(s3Key)) {
+                if (uploadOption == UploadActionType.ERROR) {
+                    throw new EsupStockFileExistException();
+                }
+                if (uploadOption == UploadActionType.RENAME_NEW) {
+                    s3Key = getUploadKey(path, getUniqueFilename(filename, "-new-"));
+                }
+            }
+            long chunkSize = Math.max(Math.max(MIN_PART_SIZE, chunkedUploadChunkSize), (size + MAX_PARTS - 1) / MAX_PARTS);
+            CreateMultipartUploadResponse response = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .contentType(JsTreeFile.getMimeType(filename.toLowerCase()))
+                    .checksumAlgorithm(ChecksumAlgorithm.SHA256)
+                    .build());
+            ChunkedUploadState state = new ChunkedUploadState(response.uploadId(), path, filename, s3Key, size, chunkSize, true, uploadOption);
+            registerChunkedUpload(state);
+            log.info("Chunked upload {} initiated for {} : {} chunks of {} bytes", response.uploadId(), s3Key, state.getChunkCount(), chunkSize);
+            return state.toChunkedUpload();
+        } catch (S3Exception e) {
+            log.error("Error initiating chunked upload for {}/{}", path, filename, e);
+            if (e.statusCode() == 403) {
+                throw new EsupStockPermissionDeniedException(e);
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public boolean putChunk(String path, String filename, String uploadId, int index, InputStream inputStream, String checksum) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null || !state.isValidChunk(index) || checksum == null) {
+            return false;
+        }
+        if (state.isReceived(index)) {
+            // already uploaded, the response to the client has been lost
+            return true;
+        }
+        try {
+            open();
+            ChunkedUploadState.ChunkInputStream chunk = state.chunkInputStream(index, inputStream, checksum);
+            s3Client.uploadPart(UploadPartRequest.builder()
+                    .bucket(bucketName)
+                    .key(state.getTarget())
+                    .uploadId(uploadId)
+                    .partNumber(index + 1)
+                    .contentLength(chunk.getLength())
+                    .checksumAlgorithm(ChecksumAlgorithm.SHA256)
+                    .checksumSHA256(checksum)
+                    .build(), RequestBody.fromInputStream(chunk, chunk.getLength()));
+            if (!chunk.isValid()) {
+                log.info("Chunk {} of upload {} refused: bad length or checksum", index, uploadId);
+                return false;
+            }
+            state.markReceived(index);
+            return true;
+        } catch (S3Exception | SdkClientException | IOException e) {
+            log.warn("Error uploading chunk {} of upload {}: {}", index, uploadId, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean completeChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null || !state.isComplete()) {
+            return false;
+        }
+        synchronized (state) {
+            try {
+                open();
+                String s3Key = state.getTarget();
+                // with RENAME_NEW, the key is already a new one
+                if (s3Key.equals(getUploadKey(path, filename)) && objectExists(s3Key)) {
+                    if (state.getUploadOption() == UploadActionType.ERROR) {
+                        abortChunkedUpload(path, filename, uploadId);
+                        throw new EsupStockFileExistException();
+                    }
+                    if (state.getUploadOption() == UploadActionType.RENAME_OLD) {
+                        renameObject(s3Key, getUploadKey(path, getUniqueFilename(filename, "-old-")));
+                    }
+                }
+                if (!completeMultipartUpload(s3Key, uploadId, state.getChunkCount())) {
+                    return false;
+                }
+                unregisterChunkedUpload(uploadId);
+                return true;
+            } catch (S3Exception e) {
+                log.error("Error completing chunked upload {} for {}/{}", uploadId, path, filename, e);
+                if (e.statusCode() == 403) {
+                    throw new EsupStockPermissionDeniedException(e);
+                }
+                return false;
+            } finally {
+                metadataResolver().invalidate();
+            }
+        }
+    }
+
+    @Override
+    public boolean abortChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null) {
+            return false;
+        }
+        unregisterChunkedUpload(uploadId);
+        try {
+            open();
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(state.getTarget())
+                    .uploadId(uploadId)
+                    .build());
+            log.info("Chunked upload {} aborted for {}", uploadId, state.getTarget());
+            return true;
+        } catch (S3Exception e) {
+            log.error("Error aborting chunked upload {} for {}/{}", uploadId, path, filename, e);
+            return false;
+        }
+    }
 }
@@ -0,0 +1,313 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services.s3;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Application wide registry of the S3 clients, shared by the session scoped S3 drives.
+ *
+ * One http connection pool (ApacheHttpClient, at most maxConnections connections) is built per endpoint
+ * and shared by all the clients of this endpoint, so that TLS connections are reused between the sessions.
+ * S3Client and S3Presigner are shared per endpoint, region, path style flag and credentials :
+ * drives acquire a {@link Handle} when they open and close it when they close.
+ * A client no more used by any drive is kept idleTtl ms to be reused, then closed.
+ *
+ * Drives in async mode also get an S3AsyncClient, built on first use on a Netty http client shared per endpoint
+ * (at most asyncMaxConcurrency requests in flight, on a few event loop threads) with multipart transfers enabled.
+ */
+@Component
+public class S3ClientRegistry implements DisposableBean {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(S3ClientRegistry.class);
+
+    @Value("${s3.client.max-connections:64}")
+    int maxConnections = 64;
+
+    @Value("${s3.client.connection-timeout-ms:5000}")
+    long connectionTimeout = 5000;
+
+    @Value("${s3.client.socket-timeout-ms:60000}")
+    long socketTimeout = 60000;
+
+    @Value("${s3.client.connection-acquisition-timeout-ms:10000}")
+    long connectionAcquisitionTimeout = 10000;
+
+    @Value("${s3.client.connection-max-idle-ms:60000}")
+    long connectionMaxIdle = 60000;
+
+    @Value("${s3.client.async-max-concurrency:128}")
+    int asyncMaxConcurrency = 128;
+
+    @Value("${s3.client.idle-ttl-ms:600000}")
+    long idleTtl = 600000;
+
+    @Value("${s3.client.max-clients:1000}")
+    int maxClients = 1000;
+
+    private final Map<String, SdkHttpClient> httpClients = new HashMap<>();
+
+    private final Map<String, SdkAsyncHttpClient> asyncHttpClients = new HashMap<>();
+
+    private final Map<ClientKey, SharedClient> clients = new HashMap<>();
+
+    /**
+     * Clients are shared per endpoint, region, path style and credentials ; the secret key is only kept hashed in the key.
+     */
+    record ClientKey(String endpoint, String region, boolean pathStyle, String accessKey, String secretKeyHash) {
+    }
+
+    /**
+     * Lightweight handle held by a drive on a shared client ; close releases it and doesn't close the client.
+     */
+    public class Handle implements AutoCloseable {
+
+        private final SharedClient sharedClient;
+
+        private boolean closed = false;
+
+        private Handle(SharedClient sharedClient) {
+            this.sharedClient = sharedClient;
+        }
+
+        public S3Client client() {
+            return sharedClient.client;
+        }
+
+        public S3Presigner presigner() {
+            return sharedClient.presigner();
+        }
+
+        public S3AsyncClient asyncClient() {
+            return sharedClient.asyncClient();
+        }
+
+        @Override
+        public void close() {
+            synchronized (S3ClientRegistry.this) {
+                if (!closed) {
+                    closed = true;
+                    release(sharedClient);
+                }
+            }
+        }
+    }
+
+    private class SharedClient {
+
+        private final ClientKey key;
+        private final AwsCredentialsProvider credentialsProvider;
+        private final S3Client client;
+        private S3Presigner presigner;
+        private S3AsyncClient asyncClient;
+        private int references = 0;
+        private long releasedAt;
+
+        private SharedClient(ClientKey key, AwsCredentialsProvider credentialsProvider, S3Client client) {
+            this.key = key;
+            this.credentialsProvider = credentialsProvider;
+            this.client = client;
+        }
+
+        private S3Presigner presigner() {
+            synchronized (S3ClientRegistry.this) {
+                if (presigner == null) {
+                    S3Presigner.Builder builder = S3Presigner.builder().credentialsProvider(credentialsProvider);
+                    if (key.region() != null) {
+                        builder.region(Region.of(key.region()));
+                    }
+                    if (key.endpoint() != null) {
+                        builder.endpointOverride(URI.create(key.endpoint()));
+                    }
+                    builder.serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(key.pathStyle()).build());
+                    presigner = builder.build();
+                }
+                return presigner;
+            }
+        }
+
+        private S3AsyncClient asyncClient() {
+            synchronized (S3ClientRegistry.this) {
+                if (asyncClient == null) {
+                    S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                            .httpClient(getAsyncHttpClient(key.endpoint()))
+                            .credentialsProvider(credentialsProvider)
+                            .forcePathStyle(key.pathStyle())
+                            .multipartEnabled(true);
+                    if (key.region() != null) {
+                        builder.region(Region.of(key.region()));
+                    }
+                    if (key.endpoint() != null) {
+                        builder.endpointOverride(URI.create(key.endpoint()));
+                    }
+                    asyncClient = builder.build();
+                }
+                return asyncClient;
+            }
+        }
+
+        private void close() {
+            if (presigner != null) {
+                presigner.close();
+            }
+            if (asyncClient != null) {
+                asyncClient.close();
+            }
+            // the shared http client is not closed with the S3Client (it has been given to its builder)
+            client.close();
+        }
+    }
+
+    /**
+     * @param endpoint    endpoint override (MinIO, Ceph ...), null or empty for AWS
+     * @param region      region, null or empty for the default one
+     * @param pathStyle   path style access (non AWS S3 compatible services)
+     * @param credentials credentials, null for anonymous access
+     */
+    public synchronized Handle acquire(String endpoint, String region, boolean pathStyle, AwsBasicCredentials credentials) {
+        endpoint = endpoint == null || endpoint.isEmpty() ? null : endpoint;
+        region = region == null || region.isEmpty() ? null : region;
+        ClientKey key = new ClientKey(endpoint, region, pathStyle,
+                credentials != null ? credentials.accessKeyId() : null,
+                credentials != null ? sha256(credentials.secretAccessKey()) : null);
+        SharedClient sharedClient = clients.get(key);
+        if (sharedClient == null) {
+            closeIdleClients();
+            AwsCredentialsProvider credentialsProvider = credentials != null
+                    ? StaticCredentialsProvider.create(credentials) : AnonymousCredentialsProvider.create();
+            S3ClientBuilder builder = S3Client.builder()
+                    .httpClient(getHttpClient(endpoint))
+                    .credentialsProvider(credentialsProvider)
+                    .forcePathStyle(pathStyle);
+            if (region != null) {
+                builder.region(Region.of(region));
+            }
+            if (endpoint != null) {
+                builder.endpointOverride(URI.create(endpoint));
+            }
+            sharedClient = new SharedClient(key, credentialsProvider, builder.build());
+            clients.put(key, sharedClient);
+            log.debug("S3 client created for {} ({} clients)", endpoint, clients.size());
+        }
+        sharedClient.references++;
+        return new Handle(sharedClient);
+    }
+
+    private void release(SharedClient sharedClient) {
+        sharedClient.references = Math.max(0, sharedClient.references - 1);
+        if (sharedClient.references == 0) {
+            sharedClient.releasedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Closes the clients not used by any drive since idleTtl ms, and the oldest unused ones above maxClients.
+     */
+    private void closeIdleClients() {
+        long now = System.currentTimeMillis();
+        boolean full = clients.size() >= maxClients;
+        for (Iterator<SharedClient> it = clients.values().iterator(); it.hasNext(); ) {
+            SharedClient sharedClient = it.next();
+            if (sharedClient.references == 0 && (full || now - sharedClient.releasedAt > idleTtl)) {
+                it.remove();
+                sharedClient.close();
+                full = clients.size() >= maxClients;
+            }
+        }
+    }
+
+    private SdkHttpClient getHttpClient(String endpoint) {
+        return httpClients.computeIfAbsent(String.valueOf(endpoint), e -> ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionTimeout(Duration.ofMillis(connectionTimeout))
+                .socketTimeout(Duration.ofMillis(socketTimeout))
+                .connectionAcquisitionTimeout(Duration.ofMillis(connectionAcquisitionTimeout))
+                .connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdle))
+                .useIdleConnectionReaper(true)
+                .tcpKeepAlive(true)
+                .build());
+    }
+
+    private SdkAsyncHttpClient getAsyncHttpClient(String endpoint) {
+        return asyncHttpClients.computeIfAbsent(String.valueOf(endpoint), e -> NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(asyncMaxConcurrency)
+                .connectionTimeout(Duration.ofMillis(connectionTimeout))
+                .readTimeout(Duration.ofMillis(socketTimeout))
+                .connectionAcquisitionTimeout(Duration.ofMillis(connectionAcquisitionTimeout))
+                .connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdle))
+                .useIdleConnectionReaper(true)
+                .tcpKeepAlive(true)
+                .build());
+    }
+
+    public synchronized int getClientCount() {
+        return clients.size();
+    }
+
+    private static String sha256(String secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        for (SharedClient sharedClient : clients.values()) {
+            sharedClient.close();
+        }
+        clients.clear();
+        for (SdkHttpClient httpClient : httpClients.values()) {
+            httpClient.close();
+        }
+        httpClients.clear();
+        for (SdkAsyncHttpClient asyncHttpClient : asyncHttpClients.values()) {
+            asyncHttpClient.close();
+        }
+        asyncHttpClients.clear();
+    }
+}
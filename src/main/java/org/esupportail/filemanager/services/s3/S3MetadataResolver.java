@@ -0,0 +1,179 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.services.s3;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Type, size, ETag and last modification date of S3 keys, resolved with a single ListObjectsV2 :
+ * with prefix = key and delimiter = /, the object itself (if any) is the first entry of the contents
+ * and the folder, if it exists, is the common prefix key/ - found on the first page unless
+ * the key has more than PROBE_KEYS siblings sorting between them ('key-1', 'key.txt' ...).
+ *
+ * Results (missing keys included) are memoized in the current http request : a details click,
+ * an existence check before an upload or the get following a listing don't query S3 again.
+ * The memo has to be invalidated after each write.
+ */
+class S3MetadataResolver {
+
+    static final int PROBE_KEYS = 32;
+
+    /**
+     * A folder (object null) or a file.
+     */
+    record S3Metadata(boolean folder, S3Object object) {
+
+        static final S3Metadata FOLDER = new S3Metadata(true, null);
+
+        static final S3Metadata MISSING = new S3Metadata(false, null);
+
+        boolean exists() {
+            return folder || object != null;
+        }
+    }
+
+    private final String attributeName;
+
+    S3MetadataResolver(String driveName) {
+        this.attributeName = S3MetadataResolver.class.getName() + "." + driveName;
+    }
+
+    /**
+     * @param s3Key key without trailing slash
+     */
+    S3Metadata resolve(S3Client s3Client, String bucketName, String s3Key) {
+        Map<String, S3Metadata> memo = getMemo();
+        S3Metadata metadata = memo != null ? memo.get(s3Key) : null;
+        if (metadata != null) {
+            return metadata;
+        }
+        String folderKey = s3Key + "/";
+        ListObjectsV2Response probe = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(s3Key)
+                .delimiter("/")
+                .maxKeys(PROBE_KEYS)
+                .build());
+        // siblings listed on the way are remembered too
+        remember(probe);
+        S3Object object = null;
+        if (probe.hasContents() && !probe.contents().isEmpty() && probe.contents().get(0).key().equals(s3Key)) {
+            object = probe.contents().get(0);
+        }
+        boolean folder = false;
+        if (probe.hasCommonPrefixes()) {
+            for (CommonPrefix prefix : probe.commonPrefixes()) {
+                folder = folder || prefix.prefix().equals(folderKey);
+            }
+        }
+        if (!folder && Boolean.TRUE.equals(probe.isTruncated())) {
+            ListObjectsV2Response folderProbe = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucketName)
+                    .prefix(folderKey)
+                    .maxKeys(1)
+                    .build());
+            folder = folderProbe.hasContents() && !folderProbe.contents().isEmpty();
+        }
+        // as before, a folder wins over an object of the same name
+        metadata = folder ? S3Metadata.FOLDER : object != null ? new S3Metadata(false, object) : S3Metadata.MISSING;
+        if (memo != null) {
+            memo.put(s3Key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Memoized metadata of the key, null if unknown in this request.
+     */
+    S3Metadata cached(String s3Key) {
+        Map<String, S3Metadata> memo = getMemo();
+        return memo != null ? memo.get(s3Key) : null;
+    }
+
+    /**
+     * Files and folders of a delimited listing.
+     */
+    void remember(ListObjectsV2Response listResponse) {
+        Map<String, S3Metadata> memo = getMemo();
+        if (memo == null) {
+            return;
+        }
+        if (listResponse.hasContents()) {
+            for (S3Object s3Object : listResponse.contents()) {
+                if (!s3Object.key().endsWith("/")) {
+                    memo.putIfAbsent(s3Object.key(), new S3Metadata(false, s3Object));
+                }
+            }
+        }
+        if (listResponse.hasCommonPrefixes()) {
+            for (CommonPrefix prefix : listResponse.commonPrefixes()) {
+                String key = prefix.prefix();
+                memo.put(key.substring(0, key.length() - 1), S3Metadata.FOLDER);
+            }
+        }
+    }
+
+    void remember(String s3Key, S3Metadata metadata) {
+        Map<String, S3Metadata> memo = getMemo();
+        if (memo != null) {
+            memo.put(s3Key, metadata);
+        }
+    }
+
+    void invalidate() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes != null) {
+            try {
+                requestAttributes.removeAttribute(attributeName, RequestAttributes.SCOPE_REQUEST);
+            } catch (IllegalStateException e) {
+                // request already completed (async download) : no memo anymore
+            }
+        }
+    }
+
+    /**
+     * @return the memo of the current request, null outside of a request or once the request is completed
+     * (async downloads run after the handler returned)
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, S3Metadata> getMemo() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return null;
+        }
+        try {
+            Map<String, S3Metadata> memo = (Map<String, S3Metadata>) requestAttributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST);
+            if (memo == null) {
+                memo = new HashMap<>();
+                requestAttributes.setAttribute(attributeName, memo, RequestAttributes.SCOPE_REQUEST);
+            }
+            return memo;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+}
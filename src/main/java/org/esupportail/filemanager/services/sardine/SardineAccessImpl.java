@@ -89,16 +89,19 @@ public class SardineAccessImpl extends FsAccess implements DisposableBean {
                 notifyConnectionOpened();
             }
         } catch (SardineException se) {
-            root = null;
+            shutdownRoot();
             if (se.getStatusCode() == 401) {
                 throw new EsupStockLostSessionException(se);
             }
             throw new EsupStockException(se);
         } catch (IOException ioe) {
             log.error("IOException retrieving this file or directory: {}", this.rootPath);
+            // not opened : the http client is released and the next call opens a new one
+            shutdownRoot();
             throw new EsupStockException(ioe);
         } catch (URISyntaxException use) {
             log.error("URISyntaxException on: {}", this.uri);
+            shutdownRoot();
             throw new EsupStockException(use);
         }
     }
@@ -107,6 +110,20 @@ public class SardineAccessImpl extends FsAccess implements DisposableBean {
     public void close() {
         if (this.root != null) {
             notifyConnectionClosed();
+            shutdownRoot();
+        }
+    }
+
+    /**
+     * Releases the http connection pool of the Sardine client.
+     */
+    private void shutdownRoot() {
+        if (this.root != null) {
+            try {
+                this.root.shutdown();
+            } catch (IOException e) {
+                log.warn("Error closing WebDAV client", e);
+            }
             this.root = null;
         }
     }
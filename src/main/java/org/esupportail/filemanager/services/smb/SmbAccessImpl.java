@@ -21,7 +21,9 @@ import com.hierynomus.msdtyp.AccessMask;
 import com.hierynomus.msdtyp.FileTime;
 import com.hierynomus.msfscc.FileAttributes;
 import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.msfscc.fileinformation.FileBasicInformation;
 import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.msfscc.fileinformation.ShareInfo;
 import com.hierynomus.mssmb2.SMB2CreateDisposition;
 import com.hierynomus.mssmb2.SMB2Dialect;
 import com.hierynomus.mssmb2.SMB2ShareAccess;
@@ -40,13 +42,16 @@ import jakarta.annotation.Resource;
 
 import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
+import org.esupportail.filemanager.beans.ChunkedUpload;
 import org.esupportail.filemanager.beans.DownloadFile;
 import org.esupportail.filemanager.beans.JsTreeFile;
+import org.esupportail.filemanager.beans.Quota;
 import org.esupportail.filemanager.beans.UploadActionType;
 import org.esupportail.filemanager.beans.UserPassword;
 import org.esupportail.filemanager.exceptions.EsupStockException;
 import org.esupportail.filemanager.exceptions.EsupStockFileExistException;
 import org.esupportail.filemanager.exceptions.EsupStockLostSessionException;
+import org.esupportail.filemanager.services.ChunkedUploadState;
 import org.esupportail.filemanager.services.FsAccess;
 import org.esupportail.filemanager.services.ResourceUtils;
 import org.esupportail.filemanager.services.auth.KerberosUserAuthenticatorService;
@@ -60,11 +65,15 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 public class SmbAccessImpl extends FsAccess implements DisposableBean {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SmbAccessImpl.class);
 
+    private static final int CHUNK_WRITE_BUFFER_SIZE = 1024 * 1024;
+
     // -----------------------------------------------------------------------
     // SMB connection state
     // -----------------------------------------------------------------------
@@ -231,7 +240,13 @@ public class SmbAccessImpl extends FsAccess implements DisposableBean {
 
                     GSSAuthenticationContext authContext =
                             new GSSAuthenticationContext(username, domain, kerberosSubject, null);
-                    session = connection.authenticate(authContext);
+                    try {
+                        session = connection.authenticate(authContext);
+                    } catch (SMBApiException e) {
+                        // ticket rejected : next open will log in again
+                        kerberosAuth.invalidateKerberosSubject();
+                        throw e;
+                    }
 
                 } else {
                     // ---- Classic NTLM path ----
@@ -293,9 +308,7 @@ public class SmbAccessImpl extends FsAccess implements DisposableBean {
             try { smbClient.close(); } catch (Exception e) { log.warn("Error closing SMB client", e); }
             smbClient = null;
         }
-        if (userAuthenticatorService instanceof KerberosUserAuthenticatorService kerberosAuth) {
-            kerberosAuth.invalidateKerberosSubject();
-        }
+        // the Kerberos Subject (TGT + service tickets) is kept : reconnecting doesn't need a KDC login
     }
 
     @Override
@@ -305,6 +318,7 @@ public class SmbAccessImpl extends FsAccess implements DisposableBean {
 
     @Override
     public void destroy() throws Exception {
+        abortChunkedUploads(null);
         close();
     }
 
@@ -655,37 +669,7 @@ public class SmbAccessImpl extends FsAccess implements DisposableBean {
         String destSmbPath = null;
 
         try {
-            String dirSmbPath = buildSmbPath(dir);
-            destSmbPath = dirSmbPath.isEmpty() ? filename : dirSmbPath + "\\" + filename;
-
-            if (diskShare.fileExists(destSmbPath)) {
-                switch (uploadOption) {
-                    case ERROR:
-                        throw new EsupStockFileExistException();
-                    case OVERRIDE:
-                        diskShare.rm(destSmbPath);
-                        break;
-                    case RENAME_NEW:
-                        String newName = getUniqueFilename(filename, "-new-");
-                        destSmbPath = dirSmbPath.isEmpty() ? newName : dirSmbPath + "\\" + newName;
-                        break;
-                    case RENAME_OLD:
-                        String oldName = getUniqueFilename(filename, "-old-");
-                        String oldDestPath = dirSmbPath.isEmpty() ? oldName : dirSmbPath + "\\" + oldName;
-                        try (com.hierynomus.smbj.share.File oldFile = diskShare.openFile(
-                                destSmbPath,
-                                EnumSet.of(AccessMask.GENERIC_ALL),
-                                null,
-                                EnumSet.of(SMB2ShareAccess.FILE_SHARE_DELETE,
-                                        SMB2ShareAccess.FILE_SHARE_READ,
-                                        SMB2ShareAccess.FILE_SHARE_WRITE),
-                                SMB2CreateDisposition.FILE_OPEN,
-                                null)) {
-                            oldFile.rename(oldDestPath);
-                        }
-                        break;
-                }
-            }
+            destSmbPath = prepareUploadDestination(buildSmbPath(dir), filename, uploadOption);
 
             try (com.hierynomus.smbj.share.File newFile = diskShare.openFile(
                     destSmbPath,
@@ -720,6 +704,210 @@ public class SmbAccessImpl extends FsAccess implements DisposableBean {
         return success;
     }
 
+    /**
+     * Applies uploadOption if filename already exists in dirSmbPath
+     * @return the SMB path of the file to write
+     */
+    private String prepareUploadDestination(String dirSmbPath, String filename, UploadActionType uploadOption) {
+        String destSmbPath = dirSmbPath.isEmpty() ? filename : dirSmbPath + "\\" + filename;
+        if (diskShare.fileExists(destSmbPath)) {
+            switch (uploadOption) {
+                case ERROR:
+                    throw new EsupStockFileExistException();
+                case OVERRIDE:
+                    diskShare.rm(destSmbPath);
+                    break;
+                case RENAME_NEW:
+                    String newName = getUniqueFilename(filename, "-new-");
+                    destSmbPath = dirSmbPath.isEmpty() ? newName : dirSmbPath + "\\" + newName;
+                    break;
+                case RENAME_OLD:
+                    String oldName = getUniqueFilename(filename, "-old-");
+                    String oldDestPath = dirSmbPath.isEmpty() ? oldName : dirSmbPath + "\\" + oldName;
+                    rename(destSmbPath, oldDestPath);
+                    break;
+            }
+        }
+        return destSmbPath;
+    }
+
+    private void rename(String smbPath, String newSmbPath) {
+        try (com.hierynomus.smbj.share.File file = diskShare.openFile(
+                smbPath,
+                EnumSet.of(AccessMask.GENERIC_ALL),
+                null,
+                EnumSet.of(SMB2ShareAccess.FILE_SHARE_DELETE,
+                        SMB2ShareAccess.FILE_SHARE_READ,
+                        SMB2ShareAccess.FILE_SHARE_WRITE),
+                SMB2CreateDisposition.FILE_OPEN,
+                null)) {
+            file.rename(newSmbPath);
+        }
+    }
+
+    /**
+     * Chunks are written at their offset in a hidden temporary file of the folder, renamed to the file once complete :
+     * they can be sent in parallel and in any order.
+     * A chunk whose checksum doesn't match is not marked as received : it is overwritten when sent again.
+     */
+    @Override
+    public ChunkedUpload initiateChunkedUpload(String path, String filename, long size, UploadActionType uploadOption) {
+        this.open();
+        try {
+            String dirSmbPath = buildSmbPath(path);
+            if (uploadOption == UploadActionType.ERROR
+                    && diskShare.fileExists(dirSmbPath.isEmpty() ? filename : dirSmbPath + "\\" + filename)) {
+                throw new EsupStockFileExistException();
+            }
+            String uploadId = UUID.randomUUID().toString();
+            String stagingName = "." + filename + "." + uploadId + ".part";
+            String stagingSmbPath = dirSmbPath.isEmpty() ? stagingName : dirSmbPath + "\\" + stagingName;
+            try (com.hierynomus.smbj.share.File staging = diskShare.openFile(
+                    stagingSmbPath,
+                    EnumSet.of(AccessMask.GENERIC_WRITE),
+                    EnumSet.of(FileAttributes.FILE_ATTRIBUTE_HIDDEN),
+                    EnumSet.of(SMB2ShareAccess.FILE_SHARE_READ, SMB2ShareAccess.FILE_SHARE_WRITE),
+                    SMB2CreateDisposition.FILE_CREATE,
+                    null)) {
+                staging.setLength(size);
+            }
+            ChunkedUploadState state = new ChunkedUploadState(uploadId, path, filename, stagingSmbPath, size,
+                    Math.max(1, chunkedUploadChunkSize), true, uploadOption);
+            registerChunkedUpload(state);
+            log.info("Chunked upload {} initiated for {} in {} : {} chunks", uploadId, filename, path, state.getChunkCount());
+            return state.toChunkedUpload();
+        } catch (EsupStockFileExistException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("Cannot initiate chunked upload of '{}' in '{}': {}", filename, path, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean putChunk(String path, String filename, String uploadId, int index, InputStream inputStream, String checksum) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null || !state.isValidChunk(index)) {
+            return false;
+        }
+        if (state.isReceived(index)) {
+            // already written, the response to the client has been lost
+            return true;
+        }
+        this.open();
+        ChunkedUploadState.ChunkInputStream chunk = state.chunkInputStream(index, inputStream, checksum);
+        try (com.hierynomus.smbj.share.File staging = diskShare.openFile(
+                state.getTarget(),
+                EnumSet.of(AccessMask.GENERIC_WRITE),
+                null,
+                EnumSet.of(SMB2ShareAccess.FILE_SHARE_READ, SMB2ShareAccess.FILE_SHARE_WRITE),
+                SMB2CreateDisposition.FILE_OPEN,
+                null)) {
+            byte[] buffer = new byte[CHUNK_WRITE_BUFFER_SIZE];
+            long offset = state.getChunkOffset(index);
+            long remaining = chunk.getLength();
+            int read;
+            // never more than the chunk length : the next chunk may already be written
+            while (remaining > 0 && (read = chunk.readNBytes(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                staging.write(buffer, offset, 0, read);
+                offset += read;
+                remaining -= read;
+            }
+            if (!chunk.isValid()) {
+                log.info("Chunk {} of upload {} refused: bad length or checksum", index, uploadId);
+                return false;
+            }
+            state.markReceived(index);
+            return true;
+        } catch (Exception e) {
+            log.warn("Cannot write chunk {} of upload {}: {}", index, uploadId, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean completeChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null || !state.isComplete()) {
+            return false;
+        }
+        this.open();
+        synchronized (state) {
+            try {
+                String destSmbPath;
+                try {
+                    destSmbPath = prepareUploadDestination(buildSmbPath(path), filename, state.getUploadOption());
+                } catch (EsupStockFileExistException e) {
+                    abortChunkedUpload(path, filename, uploadId);
+                    throw e;
+                }
+                try (com.hierynomus.smbj.share.File staging = diskShare.openFile(
+                        state.getTarget(),
+                        EnumSet.of(AccessMask.GENERIC_ALL),
+                        null,
+                        EnumSet.of(SMB2ShareAccess.FILE_SHARE_DELETE,
+                                SMB2ShareAccess.FILE_SHARE_READ,
+                                SMB2ShareAccess.FILE_SHARE_WRITE),
+                        SMB2CreateDisposition.FILE_OPEN,
+                        null)) {
+                    staging.rename(destSmbPath);
+                    staging.setFileInformation(new FileBasicInformation(FileBasicInformation.DONT_SET, FileBasicInformation.DONT_SET,
+                            FileBasicInformation.DONT_SET, FileBasicInformation.DONT_SET, FileAttributes.FILE_ATTRIBUTE_NORMAL.getValue()));
+                }
+                unregisterChunkedUpload(uploadId);
+                log.info("Chunked upload {} completed for '{}'", uploadId, destSmbPath);
+                return true;
+            } catch (EsupStockFileExistException e) {
+                throw e;
+            } catch (Exception e) {
+                log.warn("Cannot complete chunked upload {}: {}", uploadId, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean abortChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null) {
+            return false;
+        }
+        unregisterChunkedUpload(uploadId);
+        try {
+            this.open();
+            diskShare.rm(state.getTarget());
+            log.info("Chunked upload {} aborted", uploadId);
+            return true;
+        } catch (Exception e) {
+            log.warn("Cannot delete temporary file of chunked upload {}: {}", uploadId, e.getMessage());
+            return false;
+        }
+    }
+
+    // -----------------------------------------------------------------------
+    // Native quota
+    // -----------------------------------------------------------------------
+
+    @Override
+    public boolean isSupportNativeQuota() {
+        return true;
+    }
+
+    /**
+     * Size and free space of the share as seen by the user (FileFsFullSizeInformation) :
+     * caller free space takes into account the user quota enforced by the server, if any.
+     */
+    @Override
+    public Callable<Quota> getNativeQuotaTask(String path) {
+        this.open();
+        DiskShare share = diskShare;
+        return () -> {
+            ShareInfo shareInfo = share.getShareInformation();
+            long total = shareInfo.getTotalSpace();
+            return new Quota(Math.max(0, total - shareInfo.getCallerFreeSpace()), total);
+        };
+    }
+
     // -----------------------------------------------------------------------
     // Inner helper – keeps the smbj File handle alive while the stream is read
     // -----------------------------------------------------------------------
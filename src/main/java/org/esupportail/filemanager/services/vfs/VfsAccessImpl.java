@@ -28,14 +28,18 @@ import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.ftp.FtpFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.local.LocalFile;
 import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.esupportail.filemanager.beans.ChunkedUpload;
 import org.esupportail.filemanager.beans.DownloadFile;
+import org.esupportail.filemanager.beans.DownloadOffload;
 import org.esupportail.filemanager.beans.JsTreeFile;
+import org.esupportail.filemanager.beans.Quota;
 import org.esupportail.filemanager.beans.UploadActionType;
 import org.esupportail.filemanager.beans.UserPassword;
 import org.esupportail.filemanager.exceptions.EsupStockException;
 import org.esupportail.filemanager.exceptions.EsupStockFileExistException;
 import org.esupportail.filemanager.exceptions.EsupStockLostSessionException;
 import org.esupportail.filemanager.exceptions.EsupStockPermissionDeniedException;
+import org.esupportail.filemanager.services.ChunkedUploadState;
 import org.esupportail.filemanager.services.FsAccess;
 import org.esupportail.filemanager.services.ResourceUtils;
 import org.springframework.beans.factory.DisposableBean;
@@ -44,7 +48,10 @@ import org.springframework.util.FileCopyUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 public class VfsAccessImpl extends FsAccess implements DisposableBean {
 
@@ -159,6 +166,7 @@ public class VfsAccessImpl extends FsAccess implements DisposableBean {
     }
 
     public void destroy() throws Exception {
+        abortChunkedUploads(null);
         this.close();
     }
 
@@ -407,6 +415,24 @@ public class VfsAccessImpl extends FsAccess implements DisposableBean {
         return null;
     }
 
+    @Override
+    public DownloadOffload getDownloadOffload(String dir) {
+        if (offloadMode == null) {
+            return null;
+        }
+        try {
+            FileObject file = cd(dir);
+            // only local files (local or NFS mounts) can be served by the front-end
+            if (!"file".equals(file.getName().getScheme()) || !file.isFile()) {
+                return null;
+            }
+            return getDownloadOffload(file.getPath(), root.getPath());
+        } catch (FileSystemException e) {
+            log.warn("can't offload download of {}: {}", dir, e.getMessage());
+        }
+        return null;
+    }
+
     @Override
     public boolean putFile(String dir, String filename, InputStream inputStream, UploadActionType uploadOption) {
 
@@ -415,22 +441,7 @@ public class VfsAccessImpl extends FsAccess implements DisposableBean {
 
         try {
             FileObject folder = cd(dir);
-            newFile = folder.resolveFile(filename);
-            if (newFile.exists()) {
-                switch (uploadOption) {
-                    case ERROR :
-                        throw new EsupStockFileExistException();
-                    case OVERRIDE :
-                        newFile.delete();
-                        break;
-                    case RENAME_NEW :
-                        newFile = folder.resolveFile(this.getUniqueFilename(filename, "-new-"));
-                        break;
-                    case RENAME_OLD :
-                        newFile.moveTo(folder.resolveFile(this.getUniqueFilename(filename, "-old-")));
-                        break;
-                }
-            }
+            newFile = prepareUploadDestination(folder, filename, uploadOption);
             newFile.createFile();
 
             OutputStream outstr = newFile.getContent().getOutputStream();
@@ -458,6 +469,169 @@ public class VfsAccessImpl extends FsAccess implements DisposableBean {
         return success;
     }
 
+    /**
+     * Applies uploadOption if filename already exists in folder
+     * @return the file to write
+     */
+    private FileObject prepareUploadDestination(FileObject folder, String filename, UploadActionType uploadOption) throws FileSystemException {
+        FileObject newFile = folder.resolveFile(filename);
+        if (newFile.exists()) {
+            switch (uploadOption) {
+                case ERROR :
+                    throw new EsupStockFileExistException();
+                case OVERRIDE :
+                    newFile.delete();
+                    break;
+                case RENAME_NEW :
+                    newFile = folder.resolveFile(this.getUniqueFilename(filename, "-new-"));
+                    break;
+                case RENAME_OLD :
+                    newFile.moveTo(folder.resolveFile(this.getUniqueFilename(filename, "-old-")));
+                    break;
+            }
+        }
+        return newFile;
+    }
+
+    /**
+     * Chunks are appended one after the other to a hidden temporary file of the folder (SFTP, local ...),
+     * renamed to the file once complete : they can't be sent in parallel.
+     * A chunk is checked (length and checksum) before being appended, so it is read in memory.
+     */
+    @Override
+    public ChunkedUpload initiateChunkedUpload(String path, String filename, long size, UploadActionType uploadOption) {
+        try {
+            FileObject folder = cd(path);
+            if (!folder.getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
+                return null;
+            }
+            if (uploadOption == UploadActionType.ERROR && folder.resolveFile(filename).exists()) {
+                throw new EsupStockFileExistException();
+            }
+            String uploadId = UUID.randomUUID().toString();
+            String stagingName = "." + filename + "." + uploadId + ".part";
+            folder.resolveFile(stagingName).createFile();
+            long chunkSize = Math.max(1, Math.min(chunkedUploadChunkSize, Integer.MAX_VALUE - 8));
+            ChunkedUploadState state = new ChunkedUploadState(uploadId, path, filename, stagingName, size, chunkSize, false, uploadOption);
+            registerChunkedUpload(state);
+            log.info("Chunked upload {} initiated for {} in {} : {} chunks", uploadId, filename, path, state.getChunkCount());
+            return state.toChunkedUpload();
+        } catch (FileSystemException e) {
+            log.warn("can't initiate chunked upload of {} in {}: {}", filename, path, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean putChunk(String path, String filename, String uploadId, int index, InputStream inputStream, String checksum) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null || !state.isValidChunk(index)) {
+            return false;
+        }
+        synchronized (state) {
+            if (state.isReceived(index)) {
+                // already appended, the response to the client has been lost
+                return true;
+            }
+            if (index != state.getContiguousChunks()) {
+                log.info("chunk {} of upload {} refused: chunk {} expected", index, uploadId, state.getContiguousChunks());
+                return false;
+            }
+            try {
+                ChunkedUploadState.ChunkInputStream chunk = state.chunkInputStream(index, inputStream, checksum);
+                byte[] content = chunk.readNBytes((int) chunk.getLength());
+                if (!chunk.isValid()) {
+                    log.info("chunk {} of upload {} refused: bad length or checksum", index, uploadId);
+                    return false;
+                }
+                FileObject staging = cd(path).resolveFile(state.getTarget());
+                staging.refresh();
+                if (staging.getContent().getSize() != state.getChunkOffset(index)) {
+                    // a previous append failed midway : the temporary file can't be fixed
+                    log.warn("temporary file of upload {} is corrupted, the upload has to be restarted", uploadId);
+                    return false;
+                }
+                try (OutputStream out = staging.getContent().getOutputStream(true)) {
+                    out.write(content);
+                }
+                state.markReceived(index);
+                return true;
+            } catch (IOException e) {
+                log.warn("can't write chunk {} of upload {}: {}", index, uploadId, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean completeChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null || !state.isComplete()) {
+            return false;
+        }
+        synchronized (state) {
+            try {
+                FileObject folder = cd(path);
+                FileObject staging = folder.resolveFile(state.getTarget());
+                FileObject newFile;
+                try {
+                    newFile = prepareUploadDestination(folder, filename, state.getUploadOption());
+                } catch (EsupStockFileExistException e) {
+                    abortChunkedUpload(path, filename, uploadId);
+                    throw e;
+                }
+                staging.moveTo(newFile);
+                unregisterChunkedUpload(uploadId);
+                log.info("Chunked upload {} completed for {} in {}", uploadId, newFile.getName().getBaseName(), path);
+                return true;
+            } catch (FileSystemException e) {
+                log.warn("can't complete chunked upload {}: {}", uploadId, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean abortChunkedUpload(String path, String filename, String uploadId) {
+        ChunkedUploadState state = getChunkedUploadState(path, filename, uploadId);
+        if (state == null) {
+            return false;
+        }
+        unregisterChunkedUpload(uploadId);
+        try {
+            cd(path).resolveFile(state.getTarget()).delete();
+            log.info("Chunked upload {} aborted", uploadId);
+            return true;
+        } catch (FileSystemException e) {
+            log.warn("can't delete temporary file of chunked upload {}: {}", uploadId, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isSupportNativeQuota() {
+        String u = getUri();
+        return u != null && u.startsWith("file://");
+    }
+
+    /**
+     * Local filesystem : FileStore of the drive root.
+     * SFTP is not supported : commons-vfs doesn't expose its channels, needed for the statvfs@openssh.com extension.
+     */
+    @Override
+    public Callable<Quota> getNativeQuotaTask(String path) {
+        this.open();
+        FileObject drive = root;
+        if(drive instanceof LocalFile) {
+            return () -> {
+                FileStore fileStore = Files.getFileStore(drive.getPath());
+                long total = fileStore.getTotalSpace();
+                return new Quota(total - fileStore.getUnallocatedSpace(), total);
+            };
+        }
+        return null;
+    }
+
     /**
      * @param ftpControlEncoding the ftpControlEncoding to set
      */
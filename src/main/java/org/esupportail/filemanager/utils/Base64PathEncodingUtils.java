@@ -17,40 +17,141 @@
  */
 package org.esupportail.filemanager.utils;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.Arrays;
 
+/**
+ * Url safe base64 (without padding) of the UTF-8 bytes of the path, prefixed by PREFIX_CODE.
+ * UTF-8 and base64 encoding are done in a single pass into a per-thread char buffer,
+ * so that encodeDir only allocates the resulting String : it's called twice for each file of each listing.
+ */
 @Service("pathEncodingUtils")
+@ConditionalOnProperty(name = "path-encoding.type", havingValue = "base64", matchIfMissing = true)
 public class Base64PathEncodingUtils extends PathEncodingUtils {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Base64PathEncodingUtils.class);
 
+    private static final char[] BASE64_URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int[] BASE64_URL_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_URL_VALUES, -1);
+        for(int i = 0; i < BASE64_URL_ALPHABET.length; i++)
+            BASE64_URL_VALUES[BASE64_URL_ALPHABET[i]] = i;
+    }
+
+    /** Buffers bigger than that are not kept between calls. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16384;
+
+    private static final ThreadLocal<char[]> encodeBuffers = ThreadLocal.withInitial(() -> new char[1024]);
+
+    private static final ThreadLocal<byte[]> decodeBuffers = ThreadLocal.withInitial(() -> new byte[1024]);
+
     public String encodeDir(String path) {
         if(path == null)
             return null;
-        String encodedPath = path;
-        encodedPath = Base64.getUrlEncoder()
-                .withoutPadding()
-                .encodeToString(path.getBytes(StandardCharsets.UTF_8));
-        encodedPath = encodedPath.replaceAll("\n", "");
-        encodedPath = encodedPath.replaceAll("=", "");
-        return PREFIX_CODE + encodedPath;
+        // at most 3 UTF-8 bytes per char (4 bytes for a surrogate pair of 2 chars)
+        int maxLength = PREFIX_CODE.length() + (path.length() * 3 + 2) / 3 * 4;
+        char[] out = encodeBuffers.get();
+        if(out.length < maxLength) {
+            out = new char[maxLength];
+            if(maxLength <= MAX_RETAINED_BUFFER_SIZE)
+                encodeBuffers.set(out);
+        }
+        PREFIX_CODE.getChars(0, PREFIX_CODE.length(), out, 0);
+        int pos = PREFIX_CODE.length();
+        // 24 bits group of pending bytes
+        int bits = 0;
+        int nbBytes = 0;
+        for(int i = 0; i < path.length(); i++) {
+            int c = path.charAt(i);
+            int nbUtf8Bytes;
+            int utf8;
+            if(c < 0x80) {
+                utf8 = c;
+                nbUtf8Bytes = 1;
+            } else if(c < 0x800) {
+                utf8 = (0xC0 | c >> 6) << 8 | (0x80 | c & 0x3F);
+                nbUtf8Bytes = 2;
+            } else if(Character.isHighSurrogate((char)c) && i + 1 < path.length() && Character.isLowSurrogate(path.charAt(i + 1))) {
+                int cp = Character.toCodePoint((char)c, path.charAt(++i));
+                utf8 = (0xF0 | cp >> 18) << 24 | (0x80 | cp >> 12 & 0x3F) << 16 | (0x80 | cp >> 6 & 0x3F) << 8 | (0x80 | cp & 0x3F);
+                nbUtf8Bytes = 4;
+            } else if(Character.isSurrogate((char)c)) {
+                // malformed : replaced by '?' like String.getBytes does
+                utf8 = '?';
+                nbUtf8Bytes = 1;
+            } else {
+                utf8 = (0xE0 | c >> 12) << 16 | (0x80 | c >> 6 & 0x3F) << 8 | (0x80 | c & 0x3F);
+                nbUtf8Bytes = 3;
+            }
+            for(int b = nbUtf8Bytes - 1; b >= 0; b--) {
+                bits = bits << 8 | (utf8 >>> (b * 8)) & 0xFF;
+                if(++nbBytes == 3) {
+                    out[pos++] = BASE64_URL_ALPHABET[bits >> 18 & 0x3F];
+                    out[pos++] = BASE64_URL_ALPHABET[bits >> 12 & 0x3F];
+                    out[pos++] = BASE64_URL_ALPHABET[bits >> 6 & 0x3F];
+                    out[pos++] = BASE64_URL_ALPHABET[bits & 0x3F];
+                    bits = 0;
+                    nbBytes = 0;
+                }
+            }
+        }
+        // no padding
+        if(nbBytes == 1) {
+            out[pos++] = BASE64_URL_ALPHABET[bits >> 2 & 0x3F];
+            out[pos++] = BASE64_URL_ALPHABET[bits << 4 & 0x3F];
+        } else if(nbBytes == 2) {
+            out[pos++] = BASE64_URL_ALPHABET[bits >> 10 & 0x3F];
+            out[pos++] = BASE64_URL_ALPHABET[bits >> 4 & 0x3F];
+            out[pos++] = BASE64_URL_ALPHABET[bits << 2 & 0x3F];
+        }
+        return new String(out, 0, pos);
     }
 
     public String decodeDir(String dir) {
         if(dir == null || "".equals(dir))
             return null;
-        dir = dir.substring(PREFIX_CODE.length());
-        int nb_equals_to_add = 4 - dir.length() % 4;
-        if(nb_equals_to_add == 1)
-            dir = dir + "=";
-        if(nb_equals_to_add == 2)
-            dir = dir + "==";
-        dir = new String(
-                Base64.getUrlDecoder().decode(dir),
-                StandardCharsets.UTF_8
-        );
-        return dir;
+        int start = PREFIX_CODE.length();
+        int end = dir.length();
+        // padding is not expected but tolerated
+        while(end > start && dir.charAt(end - 1) == '=')
+            end--;
+        if((end - start) % 4 == 1)
+            throw new IllegalArgumentException("Last unit does not have enough valid bits in encoded path " + dir);
+        int maxLength = (end - start) / 4 * 3 + 2;
+        byte[] out = decodeBuffers.get();
+        if(out.length < maxLength) {
+            out = new byte[maxLength];
+            if(maxLength <= MAX_RETAINED_BUFFER_SIZE)
+                decodeBuffers.set(out);
+        }
+        int pos = 0;
+        int bits = 0;
+        int nbChars = 0;
+        for(int i = start; i < end; i++) {
+            char c = dir.charAt(i);
+            int value = c < 128 ? BASE64_URL_VALUES[c] : -1;
+            if(value < 0)
+                throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c) + " in encoded path " + dir);
+            bits = bits << 6 | value;
+            if(++nbChars == 4) {
+                out[pos++] = (byte)(bits >> 16);
+                out[pos++] = (byte)(bits >> 8);
+                out[pos++] = (byte)bits;
+                bits = 0;
+                nbChars = 0;
+            }
+        }
+        if(nbChars == 2) {
+            out[pos++] = (byte)(bits >> 4);
+        } else if(nbChars == 3) {
+            out[pos++] = (byte)(bits >> 10);
+            out[pos++] = (byte)(bits >> 2);
+        }
+        return new String(out, 0, pos, StandardCharsets.UTF_8);
     }
 }
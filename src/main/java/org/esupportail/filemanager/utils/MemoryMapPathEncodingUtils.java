@@ -17,27 +17,133 @@
  */
 package org.esupportail.filemanager.utils;
 
+import java.io.Serializable;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.springframework.util.Assert;
+import org.esupportail.filemanager.exceptions.EsupStockLostSessionException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
-//@Service("pathEncodingUtils")
+/**
+ * Encodes pathes as short opaque ids (id_0, id_1, ... id_a3f) instead of long base64 pathes,
+ * which shrinks the html and json sent for deep pathes.
+ *
+ * Ids are given by a counter, so they are collision free, and are stored per http session
+ * in a bounded LRU map : ids of pathes not used since a long time are forgotten.
+ * Decoding an unknown id (forgotten or from another session) raises an EsupStockLostSessionException.
+ *
+ * When no http request is bound to the current thread, pathes are base64 encoded ;
+ * base64 encoded pathes are decoded too, so that bookmarked urls keep working.
+ *
+ * Enabled with path-encoding.type=memory-map
+ */
+@Service("pathEncodingUtils")
+@ConditionalOnProperty(name = "path-encoding.type", havingValue = "memory-map")
 public class MemoryMapPathEncodingUtils extends PathEncodingUtils {
-    Map<String, String> idsPathes = new HashMap<String, String>();
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MemoryMapPathEncodingUtils.class);
+
+    protected static final String ID_PREFIX_CODE = "id_";
+
+    private static final String STORE_SESSION_ATTRIBUTE = MemoryMapPathEncodingUtils.class.getName() + ".store";
+
+    private final Base64PathEncodingUtils base64PathEncodingUtils = new Base64PathEncodingUtils();
+
+    @Value("${path-encoding.memory-map.max-size:20000}")
+    int maxSize = 20000;
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
 
     public String encodeDir(String path) {
-        String encPath = PREFIX_CODE + path.hashCode();
-        if(!idsPathes.containsKey(encPath))
-            idsPathes.put(encPath, path);
-        return encPath;
+        if(path == null)
+            return null;
+        PathIdStore store = getStore(true);
+        if(store == null)
+            return base64PathEncodingUtils.encodeDir(path);
+        return store.getId(path);
     }
 
     public String decodeDir(String encPath) {
         if(encPath == null || "".equals(encPath))
             return null;
-        String path = idsPathes.get(encPath);
-        Assert.notNull(path, "Path decoded should not be null");
+        if(encPath.startsWith(PREFIX_CODE))
+            return base64PathEncodingUtils.decodeDir(encPath);
+        PathIdStore store = getStore(false);
+        String path = store == null ? null : store.getPath(encPath);
+        if(path == null) {
+            log.info("Path id {} is unknown or expired", encPath);
+            throw new EsupStockLostSessionException("Path id " + encPath + " is unknown or expired");
+        }
         return path;
     }
+
+    protected PathIdStore getStore(boolean create) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if(requestAttributes == null)
+            return null;
+        PathIdStore store = (PathIdStore)requestAttributes.getAttribute(STORE_SESSION_ATTRIBUTE, RequestAttributes.SCOPE_SESSION);
+        if(store == null && create) {
+            synchronized (requestAttributes.getSessionMutex()) {
+                store = (PathIdStore)requestAttributes.getAttribute(STORE_SESSION_ATTRIBUTE, RequestAttributes.SCOPE_SESSION);
+                if(store == null) {
+                    store = new PathIdStore(maxSize);
+                    requestAttributes.setAttribute(STORE_SESSION_ATTRIBUTE, store, RequestAttributes.SCOPE_SESSION);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Bi-directional id <-> path map of a session, with LRU eviction.
+     * Requests of a same session can run concurrently : access is synchronized on the store.
+     */
+    static class PathIdStore implements Serializable {
+
+        private final int maxSize;
+
+        private long nextId = 0;
+
+        private final Map<String, String> pathes;
+
+        private final Map<String, String> ids = new HashMap<String, String>();
+
+        PathIdStore(int maxSize) {
+            this.maxSize = maxSize;
+            this.pathes = new LinkedHashMap<String, String>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    if(size() > PathIdStore.this.maxSize) {
+                        ids.remove(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized String getId(String path) {
+            String id = ids.get(path);
+            if(id != null) {
+                // refresh LRU position
+                pathes.get(id);
+                return id;
+            }
+            id = ID_PREFIX_CODE + Long.toString(nextId++, Character.MAX_RADIX);
+            ids.put(path, id);
+            pathes.put(id, path);
+            return id;
+        }
+
+        synchronized String getPath(String id) {
+            return pathes.get(id);
+        }
+    }
 }
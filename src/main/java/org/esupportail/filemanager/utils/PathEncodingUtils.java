@@ -18,7 +18,9 @@
 package org.esupportail.filemanager.utils;
 
 import java.util.*;
+import java.util.regex.Pattern;
 
+import org.esupportail.filemanager.beans.DrivePath;
 import org.esupportail.filemanager.beans.JsTreeFile;
 
 /**
@@ -33,6 +35,10 @@ public abstract class PathEncodingUtils {
 
     protected static final String PREFIX_CODE = "path_";
 
+    private static final Pattern PARENTS_PATHES_SPLIT_PATTERN = Pattern.compile("(/|".concat(Pattern.quote(JsTreeFile.DRIVE_PATH_SEPARATOR)).concat(")"));
+
+    private static final Pattern ID_TITLE_SPLIT_PATTERN = Pattern.compile(Pattern.quote(JsTreeFile.ID_TITLE_SPLIT));
+
     public abstract String encodeDir(String path);
 
     public abstract String decodeDir(String dir);
@@ -46,6 +52,10 @@ public abstract class PathEncodingUtils {
         return decodedDirs;
     }
 
+    public DrivePath decodeDrivePath(String dir) {
+        return DrivePath.parse(decodeDir(dir));
+    }
+
     public List<String> encodeDirs(List<String> dirs) {
         if(dirs == null)
             return null;
@@ -62,9 +72,21 @@ public abstract class PathEncodingUtils {
     }
 
     public void encodeDir(List<JsTreeFile> files) {
-        if(files!=null)
-            for(JsTreeFile file: files)
-                encodeDir(file);
+        if(files == null)
+            return;
+        // files of a listing share the same parent : its encoding is computed once
+        String parentPath = null;
+        String encParentPath = null;
+        for(JsTreeFile file: files) {
+            String fileParentPath = file.getParentPath();
+            if(!fileParentPath.equals(parentPath)) {
+                parentPath = fileParentPath;
+                encParentPath = encodeDir(fileParentPath);
+            }
+            file.setEncPath(encodeDir(file.getPath()));
+            file.setEncParentPath(encParentPath);
+            encodeDir(file.getChildren());
+        }
     }
 
     public LinkedHashMap<String, List<String>> getParentsPathes(JsTreeFile file) {
@@ -77,10 +99,9 @@ public abstract class PathEncodingUtils {
         String pathBase = JsTreeFile.ROOT_DRIVE;
         List<String> rootTitleIcon =  Arrays.asList(JsTreeFile.ROOT_DRIVE_NAME, JsTreeFile.ROOT_ICON_PATH);
         parentsPathes.put(pathBase, rootTitleIcon);
-        String regexp = "(/|".concat(JsTreeFile.DRIVE_PATH_SEPARATOR).concat(")");
         String driveRootPath = path.substring(pathBase.length());
         if(!driveRootPath.isEmpty()) {
-            List<String> relParentsPathes = Arrays.asList(driveRootPath.split(regexp));
+            List<String> relParentsPathes = Arrays.asList(PARENTS_PATHES_SPLIT_PATTERN.split(driveRootPath));
             pathBase = pathBase.concat(relParentsPathes.get(0));
             List<String> categoryTitleIcon =  Arrays.asList(relParentsPathes.get(0), categoryIcon);
             parentsPathes.put(pathBase, categoryTitleIcon);
@@ -91,7 +112,7 @@ public abstract class PathEncodingUtils {
                 pathBase = pathBase.concat(JsTreeFile.DRIVE_PATH_SEPARATOR);
                 for(String parentPath: relParentsPathes.subList(2, relParentsPathes.size())) {
                     pathBase = pathBase.concat(parentPath);
-                    List<String> folderTitleIds = Arrays.asList(parentPath.split(JsTreeFile.ID_TITLE_SPLIT));
+                    List<String> folderTitleIds = Arrays.asList(ID_TITLE_SPLIT_PATTERN.split(parentPath));
                     String title = folderTitleIds.get(folderTitleIds.size()-1);
                     List<String> folderTitleIcon =  Arrays.asList(title, JsTreeFile.FOLDER_ICON_PATH);
                     if(driveRootPath.endsWith("/"))
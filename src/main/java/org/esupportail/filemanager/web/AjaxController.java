@@ -21,27 +21,35 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.esupportail.filemanager.beans.*;
 import org.esupportail.filemanager.exceptions.EsupStockException;
+import org.esupportail.filemanager.exceptions.EsupStockFileExistException;
 import org.esupportail.filemanager.services.IServersAccessService;
 import org.esupportail.filemanager.services.ResourceUtils;
 import org.esupportail.filemanager.services.ResourceUtils.Type;
 import org.esupportail.filemanager.utils.PathEncodingUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Scope;
+import org.springframework.http.ContentDisposition;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.unit.DataSize;
 import org.springframework.ui.ModelMap;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.thymeleaf.util.StringUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import org.springframework.context.i18n.LocaleContextHolder;
 
@@ -88,6 +96,24 @@ public class AjaxController {
     @Autowired
     protected PathEncodingUtils pathEncodingUtils;
 
+    @Autowired
+    protected DownloadStreamer downloadStreamer;
+
+    @Autowired
+    protected MultipartProperties multipartProperties;
+
+    /**
+     * Max number of part URLs presigned per request of a browser multipart upload
+     */
+    @Value("${presigned.part-urls-batch-size:100}")
+    int presignedPartUrlsBatchSize = 100;
+
+    /**
+     * Max size of a file sent as a chunked upload : the chunks bypass the multipart limits
+     */
+    @Value("${upload.chunked.max-size:${spring.servlet.multipart.max-file-size:500MB}}")
+    DataSize chunkedUploadMaxSize = DataSize.ofMegabytes(500);
+
     /**
      * Data for the browser area.
      * @param dir
@@ -96,13 +122,13 @@ public class AjaxController {
      * @return
      */
     @PostMapping(value="/htmlFileTree")
-    public ModelAndView fileTree(@RequestParam String dir, @RequestParam(required=false) String sortField) {
+    public ModelAndView fileTree(@RequestParam("dir") String encDir, @RequestParam(required=false) String sortField) {
         log.debug("Requesting htmlFileTree");
-        dir = pathEncodingUtils.decodeDir(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
         log.debug("Requesting htmlFileTree on dir {}", dir);
         ModelMap model = new ModelMap();
         if(this.serverAccess.formAuthenticationRequired(dir)) {
-            model = new ModelMap("currentDir", pathEncodingUtils.encodeDir(dir));
+            model = new ModelMap("currentDir", pathEncodingUtils.encodeDir(dir.getPath()));
             model.put("username", this.serverAccess.getUserPassword(dir).getUsername());
             model.put("password", this.serverAccess.getUserPassword(dir).getPassword());
             return new ModelAndView("authenticationForm", model);
@@ -143,27 +169,26 @@ public class AjaxController {
      */
     @PostMapping(value="/fileChildren")
     @ResponseBody
-    public List<JsTreeFile> fileChildren(Authentication auth, @RequestParam String dir, @RequestParam(required=false) String hierarchy) {
+    public List<JsTreeFile> fileChildren(Authentication auth, @RequestParam("dir") String encDir, @RequestParam(required=false) String hierarchy) {
         log.debug("User authenticated as {}", auth.getName());
         log.debug("Requesting fileChildren");
-        dir = pathEncodingUtils.decodeDir(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
         log.debug("Requesting fileChildren decoded dir is {}", dir);
         List<JsTreeFile> files;
         if(this.serverAccess.formAuthenticationRequired(dir) && StringUtils.isEmpty(this.serverAccess.getUserPassword(dir).getPassword())) {
-            String driveDir = JsTreeFile.ROOT_DRIVE
-                    .concat(this.serverAccess.getDriveCategory(dir));
+            DrivePath driveDir = DrivePath.of(dir.getCategory(), null, null);
 
             // we can't get children of (sub)children of a drive because authentication is required
             // -> we return empty list
             if("all".equals(hierarchy)) {
                 files =  this.serverAccess.getJsTreeFileRoots(driveDir);
-            } else if(dir.length() > driveDir.length()) {
+            } else if(dir.getPath().length() > driveDir.getPath().length()) {
                 files = new ArrayList<JsTreeFile>();
             } else {
                 files = this.serverAccess.getFolderChildren(driveDir);
             }
         } else {
-            if(dir == null || dir.length() == 0 || dir.equals(JsTreeFile.ROOT_DRIVE) ) {
+            if(dir.isRoot()) {
                 files = this.serverAccess.getJsTreeFileRoots();
             } else if("all".equals(hierarchy)) {
                 files =  this.serverAccess.getJsTreeFileRoots(dir);
@@ -184,7 +209,7 @@ public class AjaxController {
         long allOk = 1;
         String msg = context.getMessage("ajax.remove.ok", null, locale);
         Map jsonMsg = new HashMap();
-        for(String dir: pathEncodingUtils.decodeDirs(command.getDirs())) {
+        for(DrivePath dir: command.getDirs()) {
             if(!this.serverAccess.remove(dir)) {
                 msg = context.getMessage("ajax.remove.failed", null, locale);
                 allOk = 0;
@@ -212,7 +237,7 @@ public class AjaxController {
             return jsonMsg;
         }
 
-        String parentDirDecoded = pathEncodingUtils.decodeDir(parentDir);
+        DrivePath parentDirDecoded = pathEncodingUtils.decodeDrivePath(parentDir);
         log.debug("Decoded parentDir: '{}'", parentDirDecoded);
 
         String fileDir = this.serverAccess.createFile(parentDirDecoded, title, type);
@@ -234,13 +259,13 @@ public class AjaxController {
 
     @PostMapping(value="/renameFile")
     @ResponseBody
-    public Map renameFile(String parentDir, String dir, String title) {
-        log.debug("Requesting renameFile - dir: '{}', title: '{}'", dir, title);
+    public Map renameFile(String parentDir, @RequestParam(name="dir", required=false) String encDir, String title) {
+        log.debug("Requesting renameFile - dir: '{}', title: '{}'", encDir, title);
 
         Locale locale = LocaleContextHolder.getLocale();
         Map jsonMsg = new HashMap();
 
-        dir = pathEncodingUtils.decodeDir(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
 
         if(this.serverAccess.renameFile(dir, title)) {
             log.info("File/folder renamed successfully: '{}' -> '{}'", dir, title);
@@ -261,7 +286,7 @@ public class AjaxController {
     public Map prepareCopyFiles(FormCommand command) {
         log.debug("Requesting prepareCopyFiles");
         Locale locale = LocaleContextHolder.getLocale();
-        basketSession.setDirsToCopy(pathEncodingUtils.decodeDirs(command.getDirs()));
+        basketSession.setDirsToCopy(command.getDirs());
         basketSession.setGoal("copy");
         Map jsonMsg = new HashMap();
         jsonMsg.put("status", 1);
@@ -275,7 +300,7 @@ public class AjaxController {
     public Map prepareCutFiles(FormCommand command) {
         log.debug("Requesting prepareCutFiles");
         Locale locale = LocaleContextHolder.getLocale();
-        basketSession.setDirsToCopy(pathEncodingUtils.decodeDirs(command.getDirs()));
+        basketSession.setDirsToCopy(command.getDirs());
         basketSession.setGoal("cut");
         Map jsonMsg = new HashMap();
         jsonMsg.put("status", 1);
@@ -286,10 +311,10 @@ public class AjaxController {
 
     @RequestMapping(value="/pastFiles")
     @ResponseBody
-    public Map pastFiles(String dir) {
+    public Map pastFiles(@RequestParam(name="dir", required=false) String encDir) {
         log.debug("Requesting pastFiles");
         Locale locale = LocaleContextHolder.getLocale();
-        dir = pathEncodingUtils.decodeDir(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
         Map jsonMsg = new HashMap();
         if(this.serverAccess.moveCopyFilesIntoDirectory(dir, basketSession.getDirsToCopy(), "copy".equals(basketSession.getGoal()))) {
             jsonMsg.put("status", 1);
@@ -306,10 +331,10 @@ public class AjaxController {
 
     @PostMapping(value="/authenticate")
     @ResponseBody
-    public Map authenticate(String dir, String username, String password, HttpServletResponse response) {
+    public Map authenticate(@RequestParam(name="dir", required=false) String encDir, String username, String password, HttpServletResponse response) {
         log.debug("Requesting authenticate");
         Locale locale = LocaleContextHolder.getLocale();
-        dir = pathEncodingUtils.decodeDir(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
         Map jsonMsg = new HashMap();
         if(this.serverAccess.authenticate(dir, username, password)) {
             jsonMsg.put("status", 1);
@@ -329,112 +354,203 @@ public class AjaxController {
     }
 
     @GetMapping(value="/fetchImage")
-    public void fetchImage(@RequestParam("dir") String dir, HttpServletResponse response) throws IOException {
+    public StreamingResponseBody fetchImage(@RequestParam("dir") String encDir, HttpServletRequest request, HttpServletResponse response) throws IOException {
         log.debug("Requesting fetchImage");
-        dir = pathEncodingUtils.decodeDir(dir);
-        //this.serverAccess.updateUserParameters(dir);
-        DownloadFile file = this.serverAccess.getFile(dir);
-        response.setContentType(file.getContentType());
-        if(file.getSize() > 0) {
-            response.setContentLength((int)file.getSize());
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+        if (redirectToPresignedUrl(dir, null, true, response) || offloadToFrontEnd(dir, null, true, response)) {
+            return null;
         }
-        FileCopyUtils.copy(file.getInputStream(), response.getOutputStream());
+        return downloadStreamer.streamFile(request, response, () -> {
+            //this.serverAccess.updateUserParameters(dir);
+            DownloadFile file = this.serverAccess.getFile(dir);
+            response.setContentType(file.getContentType());
+            if(file.getSize() > 0) {
+                response.setContentLength((int)file.getSize());
+            }
+            return file.getInputStream();
+        });
     }
 
     @GetMapping(value="/fetchSound")
-    public void fetchSound(String dir, HttpServletResponse response) throws IOException {
+    public StreamingResponseBody fetchSound(@RequestParam(name="dir", required=false) String encDir, HttpServletRequest request, HttpServletResponse response) throws IOException {
         log.debug("Requesting fetchSound");
-        dir = pathEncodingUtils.decodeDir(dir);
-        DownloadFile file = this.serverAccess.getFile(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
         final String contentType = "audio/mpeg3";
-        response.setContentType(contentType);
-        if(file.getSize() > 0) {
-            response.setContentLength((int)file.getSize());
+        if (redirectToPresignedUrl(dir, contentType, true, response) || offloadToFrontEnd(dir, contentType, true, response)) {
+            return null;
         }
-        FileCopyUtils.copy(file.getInputStream(), response.getOutputStream());
+        return downloadStreamer.streamFile(request, response, () -> {
+            DownloadFile file = this.serverAccess.getFile(dir);
+            response.setContentType(contentType);
+            if(file.getSize() > 0) {
+                response.setContentLength((int)file.getSize());
+            }
+            return file.getInputStream();
+        });
     }
 
     @GetMapping(value="/fetchVideo")
-    public void fetchVideo(String dir, HttpServletResponse response) throws IOException {
+    public StreamingResponseBody fetchVideo(@RequestParam(name="dir", required=false) String encDir, HttpServletRequest request, HttpServletResponse response) throws IOException {
         log.debug("Requesting fetchVideo");
-        dir = pathEncodingUtils.decodeDir(dir);
-        DownloadFile file = this.serverAccess.getFile(dir);
-        response.setContentType(file.getContentType());
-        if(file.getSize() > 0) {
-            response.setContentLength((int)file.getSize());
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+        if (redirectToPresignedUrl(dir, null, true, response) || offloadToFrontEnd(dir, null, true, response)) {
+            return null;
         }
-        FileCopyUtils.copy(file.getInputStream(), response.getOutputStream());
+        return downloadStreamer.streamFile(request, response, () -> {
+            DownloadFile file = this.serverAccess.getFile(dir);
+            response.setContentType(file.getContentType());
+            if(file.getSize() > 0) {
+                response.setContentLength((int)file.getSize());
+            }
+            return file.getInputStream();
+        });
     }
 
     @GetMapping(value="/downloadFile")
-    public void downloadFile(@RequestParam String dir, HttpServletResponse response) throws IOException {
+    public StreamingResponseBody downloadFile(@RequestParam("dir") String encDir, HttpServletRequest request, HttpServletResponse response) throws IOException {
         log.debug("Requesting downloadFile");
-        dir = pathEncodingUtils.decodeDir(dir);
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
 
         // Use presigned URL for direct S3 access if supported
-        if (this.serverAccess.supportsPresignedUrls(dir)) {
-            try {
-                PresignedUrl presignedUrl = this.serverAccess.getPresignedDownloadUrl(dir);
-                if (presignedUrl != null) {
-                    log.info("Redirecting download to presigned S3 URL for: {}", dir);
-                    response.sendRedirect(presignedUrl.getUrl());
-                    return;
-                }
-            } catch (Exception e) {
-                log.warn("Failed to generate presigned URL for {}, falling back to server-side download", dir, e);
+        if (redirectToPresignedUrl(dir, null, false, response) || offloadToFrontEnd(dir, null, false, response)) {
+            return null;
+        }
+
+        return downloadStreamer.streamFile(request, response, () -> {
+            DownloadFile file = this.serverAccess.getFile(dir);
+            response.setContentType(file.getContentType());
+            if(file.getSize() > 0) {
+                response.setContentLength((int)file.getSize());
             }
+            response.setHeader("Content-Disposition","attachment; filename=\"" + file.getBaseName() +"\"");
+            return file.getInputStream();
+        });
+    }
+
+    /**
+     * Redirects to a presigned URL of the file if its drive supports it, so that the bytes don't go through the server
+     * @param contentType content type of the response, null for the type of the filename
+     * @param inline true for previews, false for downloads (attachment)
+     * @return false if the file has to be sent by the server
+     */
+    private boolean redirectToPresignedUrl(DrivePath dir, String contentType, boolean inline, HttpServletResponse response) throws IOException {
+        if (!this.serverAccess.supportsPresignedUrls(dir)) {
+            return false;
         }
+        try {
+            PresignedUrl presignedUrl = this.serverAccess.getPresignedDownloadUrl(dir, contentType, inline);
+            if (presignedUrl != null) {
+                log.debug("Redirecting to presigned S3 URL for: {}", dir);
+                response.sendRedirect(presignedUrl.getUrl());
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("Failed to generate presigned URL for {}, falling back to server-side download", dir, e);
+        }
+        return false;
+    }
 
-        DownloadFile file = this.serverAccess.getFile(dir);
-        response.setContentType(file.getContentType());
-        if(file.getSize() > 0) {
-            response.setContentLength((int)file.getSize());
+    /**
+     * Lets the front-end (nginx, Apache) serve the file itself if its drive has an offloadMode :
+     * the response has no body, only the content headers and the internal redirect header.
+     * @param contentType content type of the response, null for the type of the filename
+     * @param inline true for previews, false for downloads (attachment)
+     * @return false if the file has to be sent by the server
+     */
+    private boolean offloadToFrontEnd(DrivePath dir, String contentType, boolean inline, HttpServletResponse response) {
+        DownloadOffload offload = this.serverAccess.getDownloadOffload(dir);
+        if (offload == null) {
+            return false;
+        }
+        String filename = dir.getLocalPath().substring(dir.getLocalPath().lastIndexOf('/') + 1);
+        response.setContentType(contentType != null ? contentType : JsTreeFile.getMimeType(filename.toLowerCase()));
+        if (!inline) {
+            response.setHeader("Content-Disposition", ContentDisposition.attachment()
+                    .filename(filename, StandardCharsets.UTF_8).build().toString());
         }
-        response.setHeader("Content-Disposition","attachment; filename=\"" + file.getBaseName() +"\"");
-        FileCopyUtils.copy(file.getInputStream(), response.getOutputStream());
+        response.setHeader(offload.getHeader(), offload.getValue());
+        log.debug("Download of {} offloaded to the front-end: {} {}", dir, offload.getHeader(), offload.getValue());
+        return true;
     }
 
     @GetMapping(value="/downloadZip")
-    public void downloadZip(FormCommand command, HttpServletResponse response) throws IOException {
+    public StreamingResponseBody downloadZip(FormCommand command, HttpServletRequest request, HttpServletResponse response) throws IOException {
         log.debug("Requesting toggleThumbnailMode");
-        List<String> dirs = pathEncodingUtils.decodeDirs(command.getDirs());
         response.setContentType("application/zip");
         response.setHeader("Content-Disposition","attachment; filename=\"export.zip\"");
-        this.serverAccess.writeZip(response.getOutputStream(), dirs);
+        List<DrivePath> dirs = command.getDirs();
+        return downloadStreamer.stream(request, response, out -> this.serverAccess.writeZip(out, dirs));
     }
 
 
-    // thanks to use BindingResult if FileUpload failed because of XHR request (and not multipart)
-    // this method is called anyway
+    /**
+     * Multipart form uploads are parsed on the fly (StreamingUploadFilter leaves them to this method) :
+     * the form fields sent before the file (dir, uploadOption) are read, then the file part is piped to the drive,
+     * the size limits being checked while it is read.
+     * With upload.streaming.enabled=false, the multipart request is resolved (and spooled) by Spring as before.
+     */
     @PostMapping(value="/uploadFile")
     @ResponseBody
-    public UploadResponse uploadFile(String dir, FileUpload file, HttpServletRequest request, UploadActionType uploadOption) throws IOException {
+    public UploadResponse uploadFile(HttpServletRequest request) throws IOException {
 
         log.debug("Requesting uploadFile");
-        dir = pathEncodingUtils.decodeDir(dir);
 
-        UploadActionType option = this.uploadActionOnExistingFileNameServlet;
-        if (uploadOption != null) {
-            option = uploadOption;
+        if(request instanceof MultipartHttpServletRequest multipartRequest) {
+            // standard multipart form upload
+            MultipartFile file = multipartRequest.getFile("qqfile");
+            if(file == null) {
+                return uploadFailed("no qqfile part in multipart upload request");
+            }
+            return upload(request.getParameter("dir"), file.getOriginalFilename(), file.getInputStream(), request.getParameter("uploadOption"));
         }
 
-        String filename;
-        InputStream inputStream;
+        String boundary = StreamingMultipartParser.getBoundary(request.getContentType());
+        if(boundary != null) {
+            // streaming multipart form upload : request parameters are the ones of the query string,
+            // form fields are only known if they are sent before the qqfile part (as the upload clients do)
+            StreamingMultipartParser parser = new StreamingMultipartParser(request.getInputStream(), boundary,
+                    multipartProperties.getMaxFileSize().toBytes(), multipartProperties.getMaxRequestSize().toBytes());
+            Map<String, String> fields = new HashMap<>();
+            StreamingMultipartParser.Part part;
+            while((part = parser.nextPart()) != null) {
+                if(part.getFilename() == null) {
+                    fields.putIfAbsent(part.getName(), part.getValue());
+                } else if("qqfile".equals(part.getName())) {
+                    String encDir = fields.containsKey("dir") ? fields.get("dir") : request.getParameter("dir");
+                    String uploadOption = fields.containsKey("uploadOption") ? fields.get("uploadOption") : request.getParameter("uploadOption");
+                    return upload(encDir, part.getFilename(), part.getInputStream(), uploadOption);
+                }
+            }
+            return uploadFailed("no qqfile part in multipart upload request");
+        }
 
-        if(file.getQqfile() != null) {
-            // standard multipart form upload
-            filename = file.getQqfile().getOriginalFilename();
-            inputStream = file.getQqfile().getInputStream();
-        } else {
-            // XHR upload
-            filename = request.getParameter("qqfile");
-            inputStream = request.getInputStream();
+        // XHR upload
+        return upload(request.getParameter("dir"), request.getParameter("qqfile"), request.getInputStream(), request.getParameter("uploadOption"));
+    }
+
+    private UploadResponse uploadFailed(String reason) {
+        log.info(reason);
+        UploadResponse uploadResponse = new UploadResponse();
+        uploadResponse.setSuccess(false);
+        uploadResponse.setMsg(context.getMessage("ajax.upload.failed", null, LocaleContextHolder.getLocale()));
+        return uploadResponse;
+    }
+
+    private UploadResponse upload(String encDir, String filename, InputStream inputStream, String uploadOption) {
+        DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+        UploadActionType option = this.uploadActionOnExistingFileNameServlet;
+        if (uploadOption != null && !uploadOption.isEmpty()) {
+            try {
+                option = UploadActionType.valueOf(uploadOption.trim());
+            } catch (IllegalArgumentException e) {
+                return uploadFailed("upload of '" + filename + "' refused: unknown uploadOption " + uploadOption);
+            }
         }
         return upload(dir, filename, inputStream, LocaleContextHolder.getLocale(), option);
     }
 
 
-    private UploadResponse upload(String dir, String filename, InputStream inputStream, Locale locale, UploadActionType uploadOption) {
+    private UploadResponse upload(DrivePath dir, String filename, InputStream inputStream, Locale locale, UploadActionType uploadOption) {
         UploadResponse uploadResponse = new UploadResponse();
         try {
             if (this.serverAccess.putFile(dir, filename, inputStream, uploadOption)) {
@@ -467,13 +583,14 @@ public class AjaxController {
 
         model.put("datePattern", context.getMessage("datePattern", null, LocaleContextHolder.getLocale()));
 
-        if (command == null || pathEncodingUtils.decodeDirs(command.getDirs()) == null) {
+        List<DrivePath> dirs = command == null ? null : command.getDirs();
+        if (dirs == null) {
             return new ModelAndView("details_empty", model);
         }
 
         // See if we go to the multiple files/folder view or not
-        if (pathEncodingUtils.decodeDirs(command.getDirs()).size() == 1) {
-            String path = pathEncodingUtils.decodeDirs(command.getDirs()).get(0);
+        if (dirs.size() == 1) {
+            DrivePath path = dirs.get(0);
 
             // get resource with folder details (if it's a folder ...)
             JsTreeFile resource;
@@ -507,22 +624,22 @@ public class AjaxController {
                     return new ModelAndView("details_file", model);
                 }
             }
-        } else if (pathEncodingUtils.decodeDirs(command.getDirs()).size() > 1) {
+        } else if (dirs.size() > 1) {
             // Add data for multiple files details view
-            model.put("numselected", pathEncodingUtils.decodeDirs(command.getDirs()).size());
+            model.put("numselected", dirs.size());
 
             // Find the resources which are images or audio files
             List<String> image_paths = new ArrayList<String>();
             List<Map<String, String>> audio_tracks = new ArrayList<Map<String, String>>();
 
-            for (String filePath : pathEncodingUtils.decodeDirs(command.getDirs())) {
+            for (DrivePath filePath : dirs) {
                 JsTreeFile resource = this.serverAccess.get(filePath, false, true);
                 ResourceUtils.Type fileType = resourceUtils.getType(resource.getTitle());
                 if (fileType == Type.IMAGE && !resource.isOverSizeLimit()) {
-                    image_paths.add(pathEncodingUtils.encodeDir(filePath));
+                    image_paths.add(pathEncodingUtils.encodeDir(filePath.getPath()));
                 } else if (fileType == Type.AUDIO && !resource.isOverSizeLimit()) {
                     Map<String, String> trackInfo = new HashMap<String, String>();
-                    trackInfo.put("path", pathEncodingUtils.encodeDir(filePath));
+                    trackInfo.put("path", pathEncodingUtils.encodeDir(filePath.getPath()));
                     trackInfo.put("title", resource.getTitle());
                     trackInfo.put("mimeType", resource.getMimeType());
                     audio_tracks.add(trackInfo);
@@ -567,12 +684,12 @@ public class AjaxController {
      */
     @GetMapping(value="/getPresignedDownloadUrl")
     @ResponseBody
-    public Map<String, Object> getPresignedDownloadUrl(@RequestParam String dir, HttpServletRequest request) {
-        log.debug("Requesting presigned download URL for: {}", dir);
+    public Map<String, Object> getPresignedDownloadUrl(@RequestParam("dir") String encDir, HttpServletRequest request) {
+        log.debug("Requesting presigned download URL for: {}", encDir);
         Map<String, Object> response = new HashMap<>();
 
         try {
-            dir = pathEncodingUtils.decodeDir(dir);
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
 
             if (!this.serverAccess.supportsPresignedUrls(dir)) {
                 response.put("success", false);
@@ -606,13 +723,13 @@ public class AjaxController {
      */
     @RequestMapping(value="/getPresignedUploadUrl")
     @ResponseBody
-    public Map<String, Object> getPresignedUploadUrl(@RequestParam String dir,
+    public Map<String, Object> getPresignedUploadUrl(@RequestParam("dir") String encDir,
                                                        @RequestParam String filename) {
-        log.debug("Requesting presigned upload URL for: {}/{}", dir, filename);
+        log.debug("Requesting presigned upload URL for: {}/{}", encDir, filename);
         Map<String, Object> response = new HashMap<>();
 
         try {
-            dir = pathEncodingUtils.decodeDir(dir);
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
 
             if (!this.serverAccess.supportsPresignedUrls(dir)) {
                 response.put("success", false);
@@ -641,17 +758,301 @@ public class AjaxController {
         return response;
     }
 
+    /**
+     * Initiate a multipart upload whose parts are sent directly to S3 with presigned URLs
+     */
+    @PostMapping(value="/initiatePresignedMultipartUpload")
+    @ResponseBody
+    public Map<String, Object> initiatePresignedMultipartUpload(@RequestParam("dir") String encDir,
+                                                                @RequestParam String filename,
+                                                                @RequestParam long size) {
+        log.debug("Initiating presigned multipart upload for: {}/{} ({} bytes)", encDir, filename, size);
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+
+            if (!this.serverAccess.supportsPresignedUrls(dir)) {
+                response.put("success", false);
+                response.put("error", "Presigned URLs are not supported for this directory");
+                return response;
+            }
+
+            PresignedMultipartUpload upload = this.serverAccess.initiatePresignedMultipartUpload(dir, filename, size);
+            if (upload != null) {
+                response.put("success", true);
+                response.put("uploadId", upload.getUploadId());
+                response.put("partSize", upload.getPartSize());
+                response.put("partCount", upload.getPartCount());
+                response.put("filename", upload.getFilename());
+            } else {
+                response.put("success", false);
+                response.put("error", "Failed to initiate multipart upload");
+            }
+        } catch (Exception e) {
+            log.error("Error initiating presigned multipart upload", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    /**
+     * Get presigned URLs for a batch of parts of a multipart upload
+     */
+    @PostMapping(value="/getPresignedUploadPartUrls")
+    @ResponseBody
+    public Map<String, Object> getPresignedUploadPartUrls(@RequestParam("dir") String encDir,
+                                                          @RequestParam String filename,
+                                                          @RequestParam String uploadId,
+                                                          @RequestParam int firstPart,
+                                                          @RequestParam int count) {
+        log.debug("Requesting {} presigned part URLs from part {} for upload {}", count, firstPart, uploadId);
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            List<PresignedUrl> presignedUrls = this.serverAccess.getPresignedUploadPartUrls(dir, filename, uploadId,
+                    firstPart, Math.min(count, presignedPartUrlsBatchSize));
+            if (presignedUrls != null) {
+                List<Map<String, Object>> parts = new ArrayList<>(presignedUrls.size());
+                for (int i = 0; i < presignedUrls.size(); i++) {
+                    Map<String, Object> part = new HashMap<>();
+                    part.put("partNumber", firstPart + i);
+                    part.put("url", presignedUrls.get(i).getUrl());
+                    part.put("expiresIn", presignedUrls.get(i).getSecondsUntilExpiration());
+                    parts.add(part);
+                }
+                response.put("success", true);
+                response.put("parts", parts);
+            } else {
+                response.put("success", false);
+                response.put("error", "Failed to generate presigned URLs");
+            }
+        } catch (Exception e) {
+            log.error("Error generating presigned part URLs", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    /**
+     * Complete a multipart upload once all its parts are uploaded
+     */
+    @PostMapping(value="/completePresignedMultipartUpload")
+    @ResponseBody
+    public Map<String, Object> completePresignedMultipartUpload(@RequestParam("dir") String encDir,
+                                                                @RequestParam String filename,
+                                                                @RequestParam String uploadId,
+                                                                @RequestParam int partCount) {
+        log.debug("Completing presigned multipart upload {} for: {}/{}", uploadId, encDir, filename);
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            boolean completed = this.serverAccess.completePresignedMultipartUpload(dir, filename, uploadId, partCount);
+            response.put("success", completed);
+            if (!completed) {
+                response.put("error", "Failed to complete multipart upload");
+            }
+        } catch (Exception e) {
+            log.error("Error completing presigned multipart upload", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    /**
+     * Abort a multipart upload, its uploaded parts are deleted
+     */
+    @PostMapping(value="/abortPresignedMultipartUpload")
+    @ResponseBody
+    public Map<String, Object> abortPresignedMultipartUpload(@RequestParam("dir") String encDir,
+                                                             @RequestParam String filename,
+                                                             @RequestParam String uploadId) {
+        log.debug("Aborting presigned multipart upload {} for: {}/{}", uploadId, encDir, filename);
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            response.put("success", this.serverAccess.abortPresignedMultipartUpload(dir, filename, uploadId));
+        } catch (Exception e) {
+            log.error("Error aborting presigned multipart upload", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    /**
+     * Initiate a resumable chunked upload : chunks are then sent to uploadChunk, in parallel if the drive allows it
+     */
+    @PostMapping(value="/initiateChunkedUpload")
+    @ResponseBody
+    public Map<String, Object> initiateChunkedUpload(@RequestParam("dir") String encDir,
+                                                     @RequestParam String filename,
+                                                     @RequestParam long size,
+                                                     @RequestParam(required=false) UploadActionType uploadOption) {
+        log.debug("Initiating chunked upload for: {}/{} ({} bytes)", encDir, filename, size);
+        Map<String, Object> response = new HashMap<>();
+
+        if (size < 0 || size > chunkedUploadMaxSize.toBytes()) {
+            log.info("chunked upload of {} refused: size {} not in [0, {}]", filename, size, chunkedUploadMaxSize.toBytes());
+            response.put("success", false);
+            response.put("error", size < 0 ? "Invalid file size"
+                    : "File size exceeds the maximum allowed (" + chunkedUploadMaxSize.toMegabytes() + " MB)");
+            return response;
+        }
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            ChunkedUpload upload = this.serverAccess.initiateChunkedUpload(dir, filename, size,
+                    uploadOption != null ? uploadOption : this.uploadActionOnExistingFileNameServlet);
+            if (upload != null) {
+                putChunkedUpload(response, upload);
+            } else {
+                response.put("success", false);
+                response.put("error", "Chunked upload is not supported for this directory");
+            }
+        } catch (EsupStockFileExistException e) {
+            log.info("chunked upload of {} refused: file already exists", filename);
+            response.put("success", false);
+            response.put("error", "File already exists");
+        } catch (Exception e) {
+            log.error("Error initiating chunked upload", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    /**
+     * Chunks already received, to resume an interrupted chunked upload
+     */
+    @GetMapping(value="/chunkedUploadStatus")
+    @ResponseBody
+    public Map<String, Object> chunkedUploadStatus(@RequestParam("dir") String encDir,
+                                                   @RequestParam String filename,
+                                                   @RequestParam String uploadId) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            ChunkedUpload upload = this.serverAccess.getChunkedUpload(dir, filename, uploadId);
+            if (upload != null) {
+                putChunkedUpload(response, upload);
+            } else {
+                response.put("success", false);
+                response.put("error", "Unknown upload");
+            }
+        } catch (Exception e) {
+            log.error("Error getting chunked upload status", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * One chunk of a chunked upload, as raw request body (parameters in the query string)
+     * @param checksum base64 SHA-256 of the chunk
+     */
+    @PostMapping(value="/uploadChunk")
+    @ResponseBody
+    public Map<String, Object> uploadChunk(@RequestParam("dir") String encDir,
+                                           @RequestParam String filename,
+                                           @RequestParam String uploadId,
+                                           @RequestParam int index,
+                                           @RequestParam String checksum,
+                                           HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            response.put("success", this.serverAccess.putChunk(dir, filename, uploadId, index, request.getInputStream(), checksum));
+        } catch (Exception e) {
+            log.error("Error uploading chunk {} of upload {}", index, uploadId, e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+        return response;
+    }
+
+    @PostMapping(value="/completeChunkedUpload")
+    @ResponseBody
+    public Map<String, Object> completeChunkedUpload(@RequestParam("dir") String encDir,
+                                                     @RequestParam String filename,
+                                                     @RequestParam String uploadId) {
+        log.debug("Completing chunked upload {} for: {}/{}", uploadId, encDir, filename);
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            if (this.serverAccess.completeChunkedUpload(dir, filename, uploadId)) {
+                response.put("success", true);
+                response.put("msg", context.getMessage("ajax.upload.ok", null, LocaleContextHolder.getLocale()));
+            } else {
+                response.put("success", false);
+                response.put("error", "Failed to complete chunked upload");
+            }
+        } catch (EsupStockFileExistException e) {
+            log.info("chunked upload of {} refused: file already exists", filename);
+            response.put("success", false);
+            response.put("error", "File already exists");
+        } catch (Exception e) {
+            log.error("Error completing chunked upload", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    @PostMapping(value="/abortChunkedUpload")
+    @ResponseBody
+    public Map<String, Object> abortChunkedUpload(@RequestParam("dir") String encDir,
+                                                  @RequestParam String filename,
+                                                  @RequestParam String uploadId) {
+        log.debug("Aborting chunked upload {} for: {}/{}", uploadId, encDir, filename);
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
+            response.put("success", this.serverAccess.abortChunkedUpload(dir, filename, uploadId));
+        } catch (Exception e) {
+            log.error("Error aborting chunked upload", e);
+            response.put("success", false);
+            response.put("error", "Error: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    private static void putChunkedUpload(Map<String, Object> response, ChunkedUpload upload) {
+        response.put("success", true);
+        response.put("uploadId", upload.getUploadId());
+        response.put("chunkSize", upload.getChunkSize());
+        response.put("chunkCount", upload.getChunkCount());
+        response.put("parallel", upload.isParallel());
+        response.put("receivedChunks", upload.getReceivedChunks());
+    }
+
     /**
      * Check if presigned URLs are supported for a given path
      */
     @RequestMapping(value="/supportsPresignedUrls")
     @ResponseBody
-    public Map<String, Object> supportsPresignedUrls(@RequestParam String dir) {
-        log.debug("Checking if presigned URLs are supported for: {}", dir);
+    public Map<String, Object> supportsPresignedUrls(@RequestParam("dir") String encDir) {
+        log.debug("Checking if presigned URLs are supported for: {}", encDir);
         Map<String, Object> response = new HashMap<>();
 
         try {
-            dir = pathEncodingUtils.decodeDir(dir);
+            DrivePath dir = pathEncodingUtils.decodeDrivePath(encDir);
             boolean supported = this.serverAccess.supportsPresignedUrls(dir);
             response.put("supported", supported);
         } catch (Exception e) {
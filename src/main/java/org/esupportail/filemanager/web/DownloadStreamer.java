@@ -0,0 +1,216 @@
+package org.esupportail.filemanager.web;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends downloads to the clients from the downloadTaskExecutor (async servlet) rather than from the Tomcat worker
+ * thread : a slow client then holds neither a worker thread nor, for small files, the storage connection.
+ *
+ * <ul>
+ *   <li>up to bufferSize bytes are read from the storage before the response is handed to the executor :
+ *   smaller files are then entirely in memory and their stream is closed before the client is served ;</li>
+ *   <li>a user has at most maxPerUser downloads in progress, the next ones get a 429 (Too Many Requests) ;</li>
+ *   <li>with download.async.enabled=false, downloads are sent synchronously as before (limits still apply).</li>
+ * </ul>
+ *
+ * Registered as callable interceptor of the async requests (WebAppConfig) : a download rejected by the executor,
+ * timed out or failed is always closed and released.
+ */
+@Component
+public class DownloadStreamer implements CallableProcessingInterceptor {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DownloadStreamer.class);
+
+    private static final String DOWNLOAD_ATTRIBUTE = DownloadStreamer.class.getName() + ".download";
+
+    @Value("${download.async.enabled:true}")
+    boolean asyncEnabled = true;
+
+    @Value("${download.buffer-size:1048576}")
+    int bufferSize = 1048576;
+
+    @Value("${download.max-per-user:4}")
+    int maxPerUser = 4;
+
+    private final Map<String, Integer> downloadsPerUser = new ConcurrentHashMap<>();
+
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+
+    @FunctionalInterface
+    public interface DownloadOpener {
+        /**
+         * Opens the file (and sets the content headers of the response)
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Optional : metrics are registered only if a MeterRegistry is available.
+     */
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        Gauge.builder("esup.download.active", activeDownloads, AtomicInteger::get).register(meterRegistry);
+    }
+
+    /**
+     * @return the body to return from the handler, null if the response is already sent (synchronous mode, 429)
+     */
+    public StreamingResponseBody streamFile(HttpServletRequest request, HttpServletResponse response, DownloadOpener opener) throws IOException {
+        String user = acquire(response);
+        if (user == null) {
+            return null;
+        }
+        Download download;
+        try {
+            InputStream inputStream = opener.open();
+            byte[] head = inputStream.readNBytes(bufferSize);
+            if (head.length < bufferSize) {
+                // whole file read : the storage is released before the client is served
+                inputStream.close();
+                download = new Download(user, out -> out.write(head), null);
+            } else {
+                download = new Download(user, out -> {
+                    out.write(head);
+                    inputStream.transferTo(out);
+                }, inputStream);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            release(user);
+            throw e;
+        }
+        return start(request, response, download);
+    }
+
+    /**
+     * Download written by the writer (zip)
+     * @return the body to return from the handler, null if the response is already sent (synchronous mode, 429)
+     */
+    public StreamingResponseBody stream(HttpServletRequest request, HttpServletResponse response, StreamingResponseBody writer) throws IOException {
+        String user = acquire(response);
+        if (user == null) {
+            return null;
+        }
+        return start(request, response, new Download(user, writer, null));
+    }
+
+    private StreamingResponseBody start(HttpServletRequest request, HttpServletResponse response, Download download) throws IOException {
+        if (!asyncEnabled) {
+            download.writeTo(response.getOutputStream());
+            return null;
+        }
+        request.setAttribute(DOWNLOAD_ATTRIBUTE, download);
+        return download;
+    }
+
+    /**
+     * @return the user, or null if the user already has maxPerUser downloads in progress : a 429 is then sent
+     */
+    private String acquire(HttpServletResponse response) throws IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        String user = authentication != null ? authentication.getName() : "";
+        if (downloadsPerUser.merge(user, 1, Integer::sum) > maxPerUser) {
+            decrement(user);
+            log.info("Download refused to {} : already {} downloads in progress", user, maxPerUser);
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+            return null;
+        }
+        activeDownloads.incrementAndGet();
+        return user;
+    }
+
+    private void release(String user) {
+        activeDownloads.decrementAndGet();
+        decrement(user);
+    }
+
+    private void decrement(String user) {
+        downloadsPerUser.computeIfPresent(user, (u, downloads) -> downloads > 1 ? downloads - 1 : null);
+    }
+
+    public int getActiveDownloads() {
+        return activeDownloads.get();
+    }
+
+    @Override
+    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+        if (request.getAttribute(DOWNLOAD_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof Download download) {
+            download.finish();
+        }
+    }
+
+    /**
+     * Runs in the executor with the request attributes of the request (session scoped drives),
+     * released and closed once, whatever the outcome.
+     */
+    private class Download implements StreamingResponseBody {
+
+        private final String user;
+
+        private final StreamingResponseBody writer;
+
+        private final InputStream inputStream;
+
+        private final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Download(String user, StreamingResponseBody writer, InputStream inputStream) {
+            this.user = user;
+            this.writer = writer;
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            boolean bindRequestAttributes = RequestContextHolder.getRequestAttributes() == null && requestAttributes != null;
+            if (bindRequestAttributes) {
+                RequestContextHolder.setRequestAttributes(requestAttributes);
+            }
+            try {
+                writer.writeTo(outputStream);
+                outputStream.flush();
+            } finally {
+                if (bindRequestAttributes) {
+                    RequestContextHolder.resetRequestAttributes();
+                }
+                finish();
+            }
+        }
+
+        void finish() {
+            if (finished.compareAndSet(false, true)) {
+                release(user);
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        log.debug("Error closing download stream: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
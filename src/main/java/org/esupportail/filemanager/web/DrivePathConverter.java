@@ -0,0 +1,44 @@
+/**
+ * Licensed to EsupPortail under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * EsupPortail licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esupportail.filemanager.web;
+
+import org.esupportail.filemanager.beans.DrivePath;
+import org.esupportail.filemanager.utils.PathEncodingUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Decodes an encoded dir request parameter into a DrivePath during data binding,
+ * so that a FormCommand carries dirs decoded (and validated) once per request.
+ * An invalid encoded dir gives a binding error.
+ */
+@Component
+public class DrivePathConverter implements Converter<String, DrivePath> {
+
+    @Autowired
+    protected PathEncodingUtils pathEncodingUtils;
+
+    @Override
+    public DrivePath convert(String encDir) {
+        if(!StringUtils.hasText(encDir))
+            return null;
+        return pathEncodingUtils.decodeDrivePath(encDir.trim());
+    }
+}
@@ -1,11 +1,15 @@
 package org.esupportail.filemanager.web;
 
+import org.esupportail.filemanager.services.PerfHistoryService;
 import org.esupportail.filemanager.services.StorageConnectionMonitor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -21,8 +25,15 @@ public class JavaPerfController {
     @Autowired
     private StorageConnectionMonitor storageConnectionMonitor;
 
+    @Autowired
+    private PerfHistoryService perfHistoryService;
+
+	/**
+	 * The full thread dump (stack traces and locks of all threads, safepoint on the whole JVM)
+	 * is only done on demand, with threadDump=true ; thread states are counted without stack traces otherwise.
+	 */
 	@RequestMapping
-	public String getJavaPerf(Model uiModel) throws IOException {
+	public String getJavaPerf(Model uiModel, @RequestParam(defaultValue = "false") boolean threadDump) throws IOException {
 
 		Runtime runtime = Runtime.getRuntime();
 		long maxMemoryInMB = runtime.maxMemory() / 1024 / 1024;
@@ -36,7 +47,9 @@ public class JavaPerfController {
 
 
 		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
-		List<ThreadInfo> threadInfos = Arrays.asList(threadMXBean.dumpAllThreads(true, true));
+		List<ThreadInfo> threadInfos = threadDump ? Arrays.asList(threadMXBean.dumpAllThreads(true, true))
+				: new ArrayList<>(Arrays.asList(threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0)));
+		threadInfos.removeIf(Objects::isNull);
 		Collections.sort(threadInfos, (ThreadInfo o1, ThreadInfo o2) -> o1.getThreadState().compareTo(o2.getThreadState()));
 		Map<String, Long> threadStateCount = new HashMap<>();
 		for (ThreadInfo threadInfo : threadInfos) {
@@ -49,6 +62,7 @@ public class JavaPerfController {
 		}
 		uiModel.addAttribute("threadMXBean", threadMXBean);
 		uiModel.addAttribute("threadInfos", threadInfos);
+		uiModel.addAttribute("threadDump", threadDump);
 		uiModel.addAttribute("threadStateCount", threadStateCount);
 		long currentThreadId = Thread.currentThread().getId();
 		uiModel.addAttribute("currentThreadId", currentThreadId);
@@ -58,9 +72,21 @@ public class JavaPerfController {
         // Storage connection stats
         uiModel.addAttribute("storageStats", storageConnectionMonitor.getStats());
 
+        uiModel.addAttribute("lastPerfSample", perfHistoryService.getLastSample());
+        uiModel.addAttribute("perfHistoryIntervalMs", perfHistoryService.getIntervalMs());
+
         return "javaperf";
 	}
 
+	/**
+	 * Samples of PerfHistoryService, from the oldest to the newest, for the charts of the javaperf page.
+	 */
+	@GetMapping("/history")
+	@ResponseBody
+	public List<PerfHistoryService.PerfSample> getHistory() {
+		return perfHistoryService.getHistory();
+	}
+
 
     class JavaPerfWrapper {
         private final ThreadMXBean threadMXBean;
@@ -0,0 +1,343 @@
+package org.esupportail.filemanager.web;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser of a multipart/form-data body : parts are read one after the other from the request stream,
+ * the content of each part being itself a stream which ends at the next boundary.
+ * Nothing is written on disk : the file part can be piped directly to the storage.
+ *
+ * maxFileSize and maxRequestSize (negative : no limit) are checked while reading ;
+ * once exceeded, reads fail with a {@link SizeLimitExceededException}.
+ */
+class StreamingMultipartParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_HEADERS_SIZE = 16 * 1024;
+
+    private static final int MAX_FIELD_SIZE = 64 * 1024;
+
+    static class SizeLimitExceededException extends IOException {
+        SizeLimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One part of the body ; its content must be read (or skipped) before the next part is asked.
+     */
+    class Part {
+
+        private final String name;
+
+        private final String filename;
+
+        private final String contentType;
+
+        private final PartInputStream inputStream;
+
+        Part(String name, String filename, String contentType) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.inputStream = new PartInputStream(filename != null ? maxFileSize : MAX_FIELD_SIZE);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * null for the form fields
+         */
+        String getFilename() {
+            return filename;
+        }
+
+        String getContentType() {
+            return contentType;
+        }
+
+        InputStream getInputStream() {
+            return inputStream;
+        }
+
+        String getValue() throws IOException {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private final InputStream inputStream;
+
+    /** CRLF--boundary : the first boundary of the body is found as well thanks to the CRLF the buffer starts with */
+    private final byte[] delimiter;
+
+    private final long maxFileSize;
+
+    private final long maxRequestSize;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int pos;
+
+    private int limit;
+
+    private long bytesRead;
+
+    private boolean eof;
+
+    private boolean finished;
+
+    private Part currentPart;
+
+    StreamingMultipartParser(InputStream inputStream, String boundary, long maxFileSize, long maxRequestSize) {
+        this.inputStream = inputStream;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.maxFileSize = maxFileSize;
+        this.maxRequestSize = maxRequestSize;
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * @return the boundary of a multipart/form-data content type, null if the content type is not multipart/form-data
+     */
+    static String getBoundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        try {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType)) {
+                return null;
+            }
+            String boundary = mediaType.getParameter("boundary");
+            if (boundary != null && boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                boundary = boundary.substring(1, boundary.length() - 1);
+            }
+            return boundary == null || boundary.isEmpty() ? null : boundary;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Skips the rest of the current part and reads the headers of the next one.
+     * @return the next part, null at the end of the body
+     */
+    Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (currentPart != null) {
+            currentPart.inputStream.skipToEnd();
+        } else {
+            // preamble
+            new PartInputStream(-1).skipToEnd();
+        }
+        // delimiter is followed by "--" for the last one, else by CRLF
+        pos += delimiter.length;
+        if (!ensure(2)) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            currentPart = null;
+            return null;
+        }
+        skipLine();
+        String headers = readHeaders();
+        String name = null;
+        String filename = null;
+        String contentType = null;
+        for (String header : headers.split("\r\n")) {
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String headerName = header.substring(0, colon).trim();
+            String headerValue = header.substring(colon + 1).trim();
+            if ("Content-Disposition".equalsIgnoreCase(headerName)) {
+                ContentDisposition contentDisposition = ContentDisposition.parse(headerValue);
+                name = contentDisposition.getName();
+                filename = contentDisposition.getFilename();
+            } else if ("Content-Type".equalsIgnoreCase(headerName)) {
+                contentType = headerValue;
+            }
+        }
+        currentPart = new Part(name, filename, contentType);
+        return currentPart;
+    }
+
+    private void skipLine() throws IOException {
+        while (true) {
+            if (!ensure(2)) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+            if (buffer[pos] == '\r' && buffer[pos + 1] == '\n') {
+                pos += 2;
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private String readHeaders() throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        while (true) {
+            if (!ensure(2)) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+            if (buffer[pos] == '\r' && buffer[pos + 1] == '\n') {
+                pos += 2;
+                return headers.toString(StandardCharsets.UTF_8);
+            }
+            do {
+                headers.write(buffer[pos++]);
+                if (headers.size() > MAX_HEADERS_SIZE) {
+                    throw new SizeLimitExceededException("Multipart headers exceed " + MAX_HEADERS_SIZE + " bytes");
+                }
+                if (!ensure(2)) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+            } while (buffer[pos] != '\r' || buffer[pos + 1] != '\n');
+            headers.write('\r');
+            headers.write('\n');
+            pos += 2;
+        }
+    }
+
+    /**
+     * Makes at least n bytes available from pos, if the body has them.
+     */
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n && !eof) {
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+                bytesRead += read;
+                if (maxRequestSize >= 0 && bytesRead > maxRequestSize) {
+                    throw new SizeLimitExceededException("Request exceeds the maximum size of " + maxRequestSize + " bytes");
+                }
+            }
+        }
+        return limit - pos >= n;
+    }
+
+    /**
+     * Index of the delimiter in buffer[pos, limit), or the index from which the delimiter may start
+     * but is not complete in the buffer, or limit.
+     */
+    private int findDelimiter() {
+        for (int i = pos; i < limit; i++) {
+            if (buffer[i] != '\r') {
+                continue;
+            }
+            int length = Math.min(delimiter.length, limit - i);
+            if (Arrays.equals(buffer, i, i + length, delimiter, 0, length)) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private class PartInputStream extends InputStream {
+
+        private final long maxSize;
+
+        private long size;
+
+        private boolean ended;
+
+        PartInputStream(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return number of bytes readable before the delimiter, 0 once the delimiter is at pos
+         */
+        private int available(boolean fill) throws IOException {
+            if (ended) {
+                return 0;
+            }
+            while (true) {
+                int end = findDelimiter();
+                if (end > pos) {
+                    return end - pos;
+                }
+                if (limit - pos >= delimiter.length) {
+                    // delimiter at pos
+                    ended = true;
+                    return 0;
+                }
+                if (!fill) {
+                    return 0;
+                }
+                if (!ensure(delimiter.length)) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int available = available(true);
+            if (available == 0) {
+                return -1;
+            }
+            int read = Math.min(len, available);
+            System.arraycopy(buffer, pos, b, off, read);
+            pos += read;
+            size += read;
+            if (maxSize >= 0 && size > maxSize) {
+                throw new SizeLimitExceededException("Part exceeds the maximum size of " + maxSize + " bytes");
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return available(false);
+        }
+
+        void skipToEnd() throws IOException {
+            int available;
+            while ((available = available(true)) > 0) {
+                pos += available;
+            }
+        }
+
+        @Override
+        public void close() {
+            // the request stream is closed by the container
+        }
+    }
+}
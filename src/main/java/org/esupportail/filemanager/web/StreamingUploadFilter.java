@@ -0,0 +1,108 @@
+package org.esupportail.filemanager.web;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Marks the multipart uploads parsed on the fly by the controller (StreamingMultipartParser) :
+ * their parameters are read from the query string only, so that no filter (hidden http method, CAS single sign out ...)
+ * makes the servlet container parse the multipart body, and spool the file on disk, with a getParameter call.
+ * StreamingUploadMultipartResolver doesn't resolve these requests either.
+ *
+ * Disabled with upload.streaming.enabled=false : uploads are then resolved (and spooled) by Spring as before.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class StreamingUploadFilter extends OncePerRequestFilter {
+
+    static final Set<String> STREAMING_PATHS = Set.of("/uploadFile");
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    @Value("${upload.streaming.enabled:true}")
+    boolean streamingEnabled = true;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !streamingEnabled || !"POST".equals(request.getMethod())
+                || StreamingMultipartParser.getBoundary(request.getContentType()) == null
+                || !STREAMING_PATHS.contains(urlPathHelper.getPathWithinApplication(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        filterChain.doFilter(new StreamingUploadRequest(request), response);
+    }
+
+    static class StreamingUploadRequest extends HttpServletRequestWrapper {
+
+        private final Map<String, String[]> parameters;
+
+        StreamingUploadRequest(HttpServletRequest request) {
+            super(request);
+            parameters = Collections.unmodifiableMap(parseQueryString(request.getQueryString()));
+        }
+
+        private static Map<String, String[]> parseQueryString(String queryString) {
+            Map<String, String[]> parameters = new LinkedHashMap<>();
+            if (queryString == null || queryString.isEmpty()) {
+                return parameters;
+            }
+            for (String parameter : queryString.split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int equals = parameter.indexOf('=');
+                String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+                String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+                parameters.merge(name, new String[] {value}, (values, added) -> {
+                    String[] merged = new String[values.length + 1];
+                    System.arraycopy(values, 0, merged, 0, values.length);
+                    merged[values.length] = added[0];
+                    return merged;
+                });
+            }
+            return parameters;
+        }
+
+        @Override
+        public String getParameter(String name) {
+            String[] values = parameters.get(name);
+            return values != null ? values[0] : null;
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            return parameters;
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            return Collections.enumeration(parameters.keySet());
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            String[] values = parameters.get(name);
+            return values != null ? values.clone() : null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.esupportail.filemanager.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * Standard multipart resolver, except for the uploads marked by StreamingUploadFilter :
+ * their multipart body is left untouched so that the controller parses it on the fly.
+ */
+public class StreamingUploadMultipartResolver extends StandardServletMultipartResolver {
+
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        if (WebUtils.getNativeRequest(request, StreamingUploadFilter.StreamingUploadRequest.class) != null) {
+            return false;
+        }
+        return super.isMultipart(request);
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * ESUP File Manager - Java Performance dashboard
+ *
+ * Polls /javaperf/history (samples of PerfHistoryService) and draws the history charts
+ * of the javaperf page on plain canvas elements : heap, GC pauses, thread states,
+ * connections per drive and requests per endpoint.
+ *
+ * @version 1.0.0 (Vanilla JS)
+ * @author ESUP-Portail
+ */
+
+(function() {
+    'use strict';
+
+    const palette = ['#0d6efd', '#dc3545', '#198754', '#ffc107', '#0dcaf0', '#6f42c1', '#fd7e14', '#20c997', '#6c757d', '#d63384'];
+
+    const threadStateColors = {
+        RUNNABLE: '#ffc107',
+        BLOCKED: '#dc3545',
+        WAITING: '#0dcaf0',
+        TIMED_WAITING: '#0d6efd',
+        NEW: '#6c757d',
+        TERMINATED: '#198754'
+    };
+
+    /**
+     * Max number of endpoints drawn on the requests charts (the busiest ones)
+     */
+    const maxEndpoints = 8;
+
+    function formatTime(timestamp) {
+        const date = new Date(timestamp);
+        return date.toLocaleTimeString([], { hour: '2-digit', minute: '2-digit' });
+    }
+
+    function formatValue(value) {
+        if (value >= 100 || value === 0) {
+            return Math.round(value).toString();
+        }
+        return value.toFixed(value >= 10 ? 1 : 2);
+    }
+
+    /**
+     * Line chart : series is a list of { name, color, values } with one value (or null) per timestamp
+     */
+    function drawChart(canvas, timestamps, series) {
+        const ratio = window.devicePixelRatio || 1;
+        const width = canvas.clientWidth;
+        const height = canvas.clientHeight;
+        canvas.width = width * ratio;
+        canvas.height = height * ratio;
+        const ctx = canvas.getContext('2d');
+        ctx.scale(ratio, ratio);
+        ctx.clearRect(0, 0, width, height);
+        ctx.font = '11px sans-serif';
+
+        const legendHeight = 18 * Math.ceil(series.length / 4);
+        const left = 48, right = 10, top = 8 + legendHeight, bottom = 22;
+        const plotWidth = width - left - right;
+        const plotHeight = height - top - bottom;
+
+        let max = 0;
+        series.forEach(s => s.values.forEach(v => { if (v !== null && v > max) max = v; }));
+        max = max > 0 ? max * 1.1 : 1;
+
+        // axes and grid
+        ctx.strokeStyle = '#dee2e6';
+        ctx.fillStyle = '#6c757d';
+        ctx.textAlign = 'right';
+        ctx.textBaseline = 'middle';
+        for (let i = 0; i <= 4; i++) {
+            const y = top + plotHeight - plotHeight * i / 4;
+            ctx.beginPath();
+            ctx.moveTo(left, y);
+            ctx.lineTo(left + plotWidth, y);
+            ctx.stroke();
+            ctx.fillText(formatValue(max * i / 4), left - 4, y);
+        }
+        if (timestamps.length > 0) {
+            ctx.textAlign = 'left';
+            ctx.textBaseline = 'top';
+            ctx.fillText(formatTime(timestamps[0]), left, top + plotHeight + 6);
+            ctx.textAlign = 'right';
+            ctx.fillText(formatTime(timestamps[timestamps.length - 1]), left + plotWidth, top + plotHeight + 6);
+        }
+
+        const x = i => left + (timestamps.length > 1 ? plotWidth * i / (timestamps.length - 1) : plotWidth);
+        const y = v => top + plotHeight - plotHeight * v / max;
+
+        series.forEach(s => {
+            ctx.strokeStyle = s.color;
+            ctx.lineWidth = 1.5;
+            ctx.beginPath();
+            let drawing = false;
+            s.values.forEach((v, i) => {
+                if (v === null) {
+                    drawing = false;
+                } else if (!drawing) {
+                    ctx.moveTo(x(i), y(v));
+                    drawing = true;
+                } else {
+                    ctx.lineTo(x(i), y(v));
+                }
+            });
+            ctx.stroke();
+        });
+        ctx.lineWidth = 1;
+
+        // legend
+        ctx.textAlign = 'left';
+        ctx.textBaseline = 'middle';
+        const legendWidth = plotWidth / 4;
+        series.forEach((s, i) => {
+            const lx = left + legendWidth * (i % 4);
+            const ly = 8 + 18 * Math.floor(i / 4) + 6;
+            ctx.fillStyle = s.color;
+            ctx.fillRect(lx, ly - 4, 10, 8);
+            ctx.fillStyle = '#212529';
+            let name = s.name;
+            let length = name.length;
+            while (length > 4 && ctx.measureText(name).width > legendWidth - 18) {
+                length--;
+                name = s.name.substring(0, length) + '…';
+            }
+            ctx.fillText(name, lx + 14, ly);
+        });
+    }
+
+    /**
+     * One serie per key of the maps returned by getMap (thread states, drives ...)
+     */
+    function mapSeries(samples, getMap, colors) {
+        const keys = [];
+        samples.forEach(sample => Object.keys(getMap(sample)).forEach(key => {
+            if (!keys.includes(key)) keys.push(key);
+        }));
+        keys.sort();
+        return keys.map((key, i) => ({
+            name: key,
+            color: (colors && colors[key]) || palette[i % palette.length],
+            values: samples.map(sample => {
+                const value = getMap(sample)[key];
+                return value === undefined ? 0 : value;
+            })
+        }));
+    }
+
+    function endpointSeries(samples, getValue) {
+        const totals = {};
+        samples.forEach(sample => sample.endpoints.forEach(e => {
+            totals[e.endpoint] = (totals[e.endpoint] || 0) + e.requests;
+        }));
+        const busiest = Object.keys(totals).sort((a, b) => totals[b] - totals[a]).slice(0, maxEndpoints);
+        return busiest.map((endpoint, i) => ({
+            name: endpoint,
+            color: palette[i % palette.length],
+            values: samples.map(sample => {
+                const e = sample.endpoints.find(e => e.endpoint === endpoint);
+                if (!e) return null;
+                const value = getValue(e);
+                return value < 0 ? null : value;
+            })
+        }));
+    }
+
+    function render(container, samples) {
+        const empty = container.querySelector('.javaperf-history-empty');
+        const charts = container.querySelector('.javaperf-history-charts');
+        if (samples.length === 0) {
+            empty.classList.remove('d-none');
+            charts.classList.add('d-none');
+            return;
+        }
+        empty.classList.add('d-none');
+        charts.classList.remove('d-none');
+
+        const timestamps = samples.map(s => s.timestamp);
+        const chart = name => container.querySelector('canvas[data-chart="' + name + '"]');
+
+        drawChart(chart('heap'), timestamps, [
+            { name: 'used', color: '#ffc107', values: samples.map(s => s.heapUsedMB) },
+            { name: 'committed', color: '#0d6efd', values: samples.map(s => s.heapCommittedMB) },
+            { name: 'max', color: '#6c757d', values: samples.map(s => s.heapMaxMB > 0 ? s.heapMaxMB : null) }
+        ]);
+        drawChart(chart('gc'), timestamps, [
+            { name: 'pause ms', color: '#dc3545', values: samples.map(s => s.gcPauseMs) },
+            { name: 'collections', color: '#6c757d', values: samples.map(s => s.gcCount) }
+        ]);
+        drawChart(chart('threads'), timestamps, mapSeries(samples, s => s.threadStates, threadStateColors));
+        drawChart(chart('connections'), timestamps, mapSeries(samples, s => s.driveConnections));
+        drawChart(chart('requests'), timestamps, endpointSeries(samples, e => e.ratePerSecond));
+        drawChart(chart('latency'), timestamps, endpointSeries(samples, e => e.p99Ms >= 0 ? e.p99Ms : e.meanMs));
+
+        renderEndpoints(container, samples[samples.length - 1]);
+    }
+
+    function renderEndpoints(container, sample) {
+        const tbody = container.querySelector('.javaperf-endpoints tbody');
+        tbody.replaceChildren();
+        sample.endpoints.slice().sort((a, b) => b.requests - a.requests).forEach(e => {
+            const tr = document.createElement('tr');
+            [e.endpoint, formatValue(e.ratePerSecond), formatValue(e.meanMs),
+                e.p50Ms < 0 ? '—' : formatValue(e.p50Ms),
+                e.p95Ms < 0 ? '—' : formatValue(e.p95Ms),
+                e.p99Ms < 0 ? '—' : formatValue(e.p99Ms)].forEach((text, i) => {
+                const td = document.createElement('td');
+                td.textContent = text;
+                td.className = i === 0 ? 'small font-monospace' : 'small text-end';
+                tr.appendChild(td);
+            });
+            tbody.appendChild(tr);
+        });
+    }
+
+    function refresh(container) {
+        fetch(container.dataset.historyUrl, { headers: { 'Accept': 'application/json' }, credentials: 'same-origin' })
+            .then(response => {
+                if (!response.ok) throw new Error('HTTP ' + response.status);
+                return response.json();
+            })
+            .then(samples => render(container, samples))
+            .catch(error => console.warn('[javaperf] history not available:', error));
+    }
+
+    document.addEventListener('DOMContentLoaded', () => {
+        const container = document.getElementById('javaperf-history');
+        if (!container) return;
+        const interval = parseInt(container.dataset.intervalMs, 10) || 10000;
+        refresh(container);
+        setInterval(() => refresh(container), interval);
+        window.addEventListener('resize', () => refresh(container));
+    });
+})();
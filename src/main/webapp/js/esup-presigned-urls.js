@@ -3,8 +3,13 @@
  *
  * JavaScript module to handle downloads and uploads via S3 presigned URLs
  * with automatic fallback to classic methods.
+ * Large files are sent as S3 multipart uploads : parts are uploaded in parallel
+ * with presigned part URLs, and failed parts are retried on their own.
+ * Without presigned URLs, large files are sent by chunks through the server : each chunk
+ * carries its SHA-256 checksum, and an interrupted upload is resumed from the chunks already received.
+ * Resuming is bound to the server session : once it has ended (logout, timeout) the upload starts again from scratch.
  *
- * @version 2.0.0 (Vanilla JS)
+ * @version 2.2.0 (Vanilla JS)
  * @author ESUP-Portail
  */
 
@@ -24,11 +29,38 @@
         // Cache duration in milliseconds (5 minutes)
         cacheDuration: 5 * 60 * 1000,
 
+        // Files of at least this size are sent as multipart uploads (64 MB)
+        multipartThreshold: 64 * 1024 * 1024,
+
+        // Parts uploaded at the same time
+        multipartParallelism: 4,
+
+        // Part URLs presigned per request
+        partUrlsBatchSize: 20,
+
+        // Retries of a failed part, with exponential backoff
+        partRetries: 3,
+
+        // Files of at least this size are sent by chunks when presigned URLs are not supported (64 MB)
+        chunkedThreshold: 64 * 1024 * 1024,
+
+        // Retries of a failed chunk, with exponential backoff
+        chunkRetries: 5,
+
         // API endpoints
         endpoints: {
             supportsPresignedUrls: '/supportsPresignedUrls',
             getPresignedDownloadUrl: '/getPresignedDownloadUrl',
             getPresignedUploadUrl: '/getPresignedUploadUrl',
+            initiatePresignedMultipartUpload: '/initiatePresignedMultipartUpload',
+            getPresignedUploadPartUrls: '/getPresignedUploadPartUrls',
+            completePresignedMultipartUpload: '/completePresignedMultipartUpload',
+            abortPresignedMultipartUpload: '/abortPresignedMultipartUpload',
+            initiateChunkedUpload: '/initiateChunkedUpload',
+            chunkedUploadStatus: '/chunkedUploadStatus',
+            uploadChunk: '/uploadChunk',
+            completeChunkedUpload: '/completeChunkedUpload',
+            abortChunkedUpload: '/abortChunkedUpload',
             downloadFile: '/downloadFile',
             uploadFile: '/uploadFile'
         }
@@ -250,8 +282,12 @@
         logger.log('Starting upload for:', file.name, 'to', dir);
 
         supportsPresignedUrls(dir, function(supported) {
-            if (supported) {
+            if (supported && file.size >= config.multipartThreshold) {
+                uploadWithPresignedMultipart(dir, file, options);
+            } else if (supported) {
                 uploadWithPresignedUrl(dir, file, options);
+            } else if (file.size >= config.chunkedThreshold && supportsChecksums()) {
+                uploadChunked(dir, file, options);
             } else {
                 uploadClassic(dir, file, options);
             }
@@ -387,6 +423,552 @@
         }
     }
 
+    /**
+     * POSTs form parameters to an endpoint and returns the JSON response
+     * @private
+     */
+    function postForm(endpoint, params) {
+        const formData = new URLSearchParams();
+        Object.keys(params).forEach(name => formData.append(name, params[name]));
+
+        return fetch(endpoint, {
+            method: 'POST',
+            headers: {
+                'Content-Type': 'application/x-www-form-urlencoded'
+            },
+            body: formData.toString()
+        })
+        .then(response => {
+            if (!response.ok) {
+                throw new Error(`HTTP error! status: ${response.status}`);
+            }
+            return response.json();
+        });
+    }
+
+    /**
+     * Uploads a file as an S3 multipart upload with presigned part URLs
+     * @private
+     */
+    function uploadWithPresignedMultipart(dir, file, options) {
+        logger.info('Uploading with presigned multipart upload:', file.name);
+
+        postForm(config.endpoints.initiatePresignedMultipartUpload, {
+            dir: dir,
+            filename: file.name,
+            size: file.size
+        })
+        .then(response => {
+            if (response.success && response.uploadId) {
+                logger.info('Multipart upload initiated:', response.partCount, 'parts of', response.partSize, 'bytes');
+                new MultipartUpload(dir, file, response, options).start();
+            } else {
+                logger.warn('Failed to initiate multipart upload:', response.error);
+                // Fallback to a single presigned PUT
+                uploadWithPresignedUrl(dir, file, options);
+            }
+        })
+        .catch(error => {
+            logger.error('Error initiating multipart upload:', error);
+            // Fallback to classic method
+            uploadClassic(dir, file, options);
+        });
+    }
+
+    /**
+     * A multipart upload in progress : each worker uploads the next part not yet sent,
+     * part URLs are presigned by batches and presigned again when a part has to be retried.
+     * @private
+     */
+    class MultipartUpload {
+
+        constructor(dir, file, upload, options) {
+            this.dir = dir;
+            this.file = file;
+            this.uploadId = upload.uploadId;
+            this.partSize = upload.partSize;
+            this.partCount = upload.partCount;
+            this.options = options;
+            this.nextPart = 1;
+            this.urls = {};
+            this.batches = {};
+            this.loaded = {};
+            this.xhrs = new Set();
+            this.aborted = false;
+        }
+
+        start() {
+            // abort() of the returned object cancels all the parts, like xhr.abort() for a single upload
+            if (this.options.onXhrCreated) {
+                this.options.onXhrCreated({ abort: () => this.abort() });
+            }
+            const workers = [];
+            for (let i = 0; i < Math.min(config.multipartParallelism, this.partCount); i++) {
+                workers.push(this.runWorker());
+            }
+            Promise.all(workers)
+                .then(() => this.complete())
+                .catch(error => this.fail(error));
+        }
+
+        async runWorker() {
+            while (!this.aborted && this.nextPart <= this.partCount) {
+                await this.uploadPartWithRetries(this.nextPart++);
+            }
+        }
+
+        async uploadPartWithRetries(partNumber) {
+            for (let attempt = 0; ; attempt++) {
+                try {
+                    const url = await this.partUrl(partNumber);
+                    await this.uploadPart(partNumber, url);
+                    return;
+                } catch (error) {
+                    if (this.aborted || attempt >= config.partRetries) {
+                        throw error;
+                    }
+                    logger.warn('Part', partNumber, 'failed, retrying:', error.message);
+                    // the URL may have expired : a new one is presigned for the retry
+                    delete this.urls[partNumber];
+                    this.loaded[partNumber] = 0;
+                    await new Promise(resolve => setTimeout(resolve, 1000 * Math.pow(2, attempt)));
+                }
+            }
+        }
+
+        partUrl(partNumber) {
+            const cached = this.urls[partNumber];
+            if (cached && cached.expiresAt - Date.now() > 60000) {
+                return Promise.resolve(cached.url);
+            }
+            if (!this.batches[partNumber]) {
+                const count = Math.min(config.partUrlsBatchSize, this.partCount - partNumber + 1);
+                const batch = postForm(config.endpoints.getPresignedUploadPartUrls, {
+                    dir: this.dir,
+                    filename: this.file.name,
+                    uploadId: this.uploadId,
+                    firstPart: partNumber,
+                    count: count
+                })
+                .then(response => {
+                    if (!response.success || !response.parts) {
+                        throw new Error(response.error || 'Failed to presign part URLs');
+                    }
+                    response.parts.forEach(part => {
+                        this.urls[part.partNumber] = {
+                            url: part.url,
+                            expiresAt: Date.now() + part.expiresIn * 1000
+                        };
+                    });
+                })
+                .finally(() => {
+                    for (let n = partNumber; n < partNumber + count; n++) {
+                        if (this.batches[n] === batch) {
+                            delete this.batches[n];
+                        }
+                    }
+                });
+                for (let n = partNumber; n < partNumber + count; n++) {
+                    if (!this.batches[n]) {
+                        this.batches[n] = batch;
+                    }
+                }
+            }
+            return this.batches[partNumber].then(() => {
+                if (!this.urls[partNumber]) {
+                    throw new Error('No presigned URL for part ' + partNumber);
+                }
+                return this.urls[partNumber].url;
+            });
+        }
+
+        uploadPart(partNumber, url) {
+            return new Promise((resolve, reject) => {
+                const start = (partNumber - 1) * this.partSize;
+                const blob = this.file.slice(start, Math.min(start + this.partSize, this.file.size));
+                const xhr = new XMLHttpRequest();
+                this.xhrs.add(xhr);
+
+                if (xhr.upload) {
+                    xhr.upload.addEventListener('progress', e => {
+                        this.loaded[partNumber] = e.loaded;
+                        this.reportProgress();
+                    });
+                }
+
+                xhr.addEventListener('load', () => {
+                    this.xhrs.delete(xhr);
+                    if (xhr.status >= 200 && xhr.status < 300) {
+                        this.loaded[partNumber] = blob.size;
+                        this.reportProgress();
+                        resolve();
+                    } else {
+                        reject(new Error('Part upload failed: ' + xhr.status));
+                    }
+                });
+                xhr.addEventListener('error', () => {
+                    this.xhrs.delete(xhr);
+                    reject(new Error('Network error during part upload'));
+                });
+                xhr.addEventListener('abort', () => {
+                    this.xhrs.delete(xhr);
+                    reject(new Error('Upload aborted'));
+                });
+
+                xhr.open('PUT', url, true);
+                xhr.send(blob);
+            });
+        }
+
+        reportProgress() {
+            if (this.options.onProgress) {
+                const loaded = Object.values(this.loaded).reduce((sum, bytes) => sum + bytes, 0);
+                this.options.onProgress((loaded / this.file.size) * 100, loaded, this.file.size);
+            }
+        }
+
+        complete() {
+            postForm(config.endpoints.completePresignedMultipartUpload, {
+                dir: this.dir,
+                filename: this.file.name,
+                uploadId: this.uploadId,
+                partCount: this.partCount
+            })
+            .then(response => {
+                if (!response.success) {
+                    throw new Error(response.error || 'Failed to complete multipart upload');
+                }
+                logger.info('Multipart upload successful:', this.file.name);
+                if (this.options.onSuccess) {
+                    this.options.onSuccess({
+                        success: true,
+                        method: 'presigned-multipart',
+                        filename: this.file.name
+                    });
+                }
+            })
+            .catch(error => this.fail(error));
+        }
+
+        abort() {
+            if (this.aborted) {
+                return;
+            }
+            this.aborted = true;
+            this.xhrs.forEach(xhr => xhr.abort());
+            postForm(config.endpoints.abortPresignedMultipartUpload, {
+                dir: this.dir,
+                filename: this.file.name,
+                uploadId: this.uploadId
+            })
+            .catch(error => logger.warn('Error aborting multipart upload:', error));
+        }
+
+        fail(error) {
+            if (this.failed) {
+                return;
+            }
+            this.failed = true;
+            logger.error('Multipart upload failed:', error);
+            // parts already sent are deleted from S3 ; no fallback to the web tier for such files
+            this.abort();
+            if (this.options.onError) {
+                this.options.onError(error);
+            }
+        }
+    }
+
+    /**
+     * SHA-256 of the chunks is computed with WebCrypto, only available in secure contexts (https)
+     * @private
+     */
+    function supportsChecksums() {
+        return !!(window.crypto && window.crypto.subtle);
+    }
+
+    /**
+     * Key under which the uploadId of a chunked upload is kept, to resume it after a failure or a page reload
+     * in the same session ; the server doesn't know the uploads of a previous session
+     * @private
+     */
+    function chunkedUploadKey(dir, file) {
+        return 'esup-chunked-upload:' + [dir, file.name, file.size, file.lastModified].join('|');
+    }
+
+    function getStoredUploadId(key) {
+        try {
+            return window.localStorage.getItem(key);
+        } catch (e) {
+            return null;
+        }
+    }
+
+    function storeUploadId(key, uploadId) {
+        try {
+            if (uploadId) {
+                window.localStorage.setItem(key, uploadId);
+            } else {
+                window.localStorage.removeItem(key);
+            }
+        } catch (e) {
+            logger.log('localStorage not available:', e.message);
+        }
+    }
+
+    /**
+     * Uploads a file by chunks through the server, resuming the previous upload of the same file if any
+     * @private
+     */
+    function uploadChunked(dir, file, options) {
+        logger.info('Uploading by chunks:', file.name);
+
+        const key = chunkedUploadKey(dir, file);
+        const storedUploadId = getStoredUploadId(key);
+
+        const resume = storedUploadId
+            ? fetch(config.endpoints.chunkedUploadStatus + '?' + new URLSearchParams({
+                    dir: dir,
+                    filename: file.name,
+                    uploadId: storedUploadId
+                }).toString())
+                .then(response => response.ok ? response.json() : { success: false })
+                .catch(() => ({ success: false }))
+            : Promise.resolve({ success: false });
+
+        resume
+        .then(status => {
+            if (status.success) {
+                logger.info('Resuming chunked upload:', status.receivedChunks.length, 'of', status.chunkCount, 'chunks already received');
+                return status;
+            }
+            storeUploadId(key, null);
+            const params = {
+                dir: dir,
+                filename: file.name,
+                size: file.size
+            };
+            if (options.uploadOption) {
+                params.uploadOption = options.uploadOption;
+            }
+            return postForm(config.endpoints.initiateChunkedUpload, params);
+        })
+        .then(response => {
+            if (response.success && response.uploadId) {
+                storeUploadId(key, response.uploadId);
+                new ChunkedUpload(dir, file, key, response, options).start();
+            } else if (response.error === 'File already exists') {
+                logger.warn('Chunked upload refused:', response.error);
+                if (options.onError) {
+                    options.onError(new Error(response.error));
+                }
+            } else {
+                logger.warn('Failed to initiate chunked upload:', response.error);
+                uploadClassic(dir, file, options);
+            }
+        })
+        .catch(error => {
+            logger.error('Error initiating chunked upload:', error);
+            // Fallback to classic method
+            uploadClassic(dir, file, options);
+        });
+    }
+
+    /**
+     * A chunked upload in progress : each worker sends the next chunk not yet received by the server,
+     * several workers only when the drive accepts chunks in any order.
+     * On failure the upload is kept on the server until the end of the session,
+     * so that uploading the same file again in the same session resumes it.
+     * @private
+     */
+    class ChunkedUpload {
+
+        constructor(dir, file, key, upload, options) {
+            this.dir = dir;
+            this.file = file;
+            this.key = key;
+            this.uploadId = upload.uploadId;
+            this.chunkSize = upload.chunkSize;
+            this.chunkCount = upload.chunkCount;
+            this.parallel = upload.parallel;
+            this.options = options;
+            this.loaded = {};
+            const received = new Set(upload.receivedChunks || []);
+            this.pending = [];
+            for (let index = 0; index < this.chunkCount; index++) {
+                if (received.has(index)) {
+                    this.loaded[index] = this.chunkLength(index);
+                } else {
+                    this.pending.push(index);
+                }
+            }
+            this.xhrs = new Set();
+            this.aborted = false;
+        }
+
+        start() {
+            // abort() of the returned object cancels the upload, like xhr.abort() for a single upload
+            if (this.options.onXhrCreated) {
+                this.options.onXhrCreated({ abort: () => this.abort() });
+            }
+            this.reportProgress();
+            const workers = [];
+            const parallelism = this.parallel ? config.multipartParallelism : 1;
+            for (let i = 0; i < Math.min(parallelism, Math.max(this.pending.length, 1)); i++) {
+                workers.push(this.runWorker());
+            }
+            Promise.all(workers)
+                .then(() => this.complete())
+                .catch(error => this.fail(error));
+        }
+
+        chunkLength(index) {
+            return Math.min(this.chunkSize, this.file.size - index * this.chunkSize);
+        }
+
+        async runWorker() {
+            while (!this.aborted && this.pending.length > 0) {
+                await this.uploadChunkWithRetries(this.pending.shift());
+            }
+        }
+
+        async uploadChunkWithRetries(index) {
+            const start = index * this.chunkSize;
+            const blob = this.file.slice(start, start + this.chunkLength(index));
+            const checksum = await this.checksum(blob);
+            for (let attempt = 0; ; attempt++) {
+                try {
+                    await this.uploadChunk(index, blob, checksum);
+                    return;
+                } catch (error) {
+                    if (this.aborted || attempt >= config.chunkRetries) {
+                        throw error;
+                    }
+                    logger.warn('Chunk', index, 'failed, retrying:', error.message);
+                    this.loaded[index] = 0;
+                    await new Promise(resolve => setTimeout(resolve, 1000 * Math.pow(2, attempt)));
+                }
+            }
+        }
+
+        async checksum(blob) {
+            const digest = new Uint8Array(await window.crypto.subtle.digest('SHA-256', await blob.arrayBuffer()));
+            return btoa(String.fromCharCode(...digest));
+        }
+
+        uploadChunk(index, blob, checksum) {
+            return new Promise((resolve, reject) => {
+                const xhr = new XMLHttpRequest();
+                this.xhrs.add(xhr);
+
+                if (xhr.upload) {
+                    xhr.upload.addEventListener('progress', e => {
+                        this.loaded[index] = e.loaded;
+                        this.reportProgress();
+                    });
+                }
+
+                xhr.addEventListener('load', () => {
+                    this.xhrs.delete(xhr);
+                    let response = null;
+                    try {
+                        response = JSON.parse(xhr.responseText);
+                    } catch (e) {
+                        // handled below
+                    }
+                    if (xhr.status >= 200 && xhr.status < 300 && response && response.success) {
+                        this.loaded[index] = blob.size;
+                        this.reportProgress();
+                        resolve();
+                    } else {
+                        reject(new Error((response && response.error) || 'Chunk upload failed: ' + xhr.status));
+                    }
+                });
+                xhr.addEventListener('error', () => {
+                    this.xhrs.delete(xhr);
+                    reject(new Error('Network error during chunk upload'));
+                });
+                xhr.addEventListener('abort', () => {
+                    this.xhrs.delete(xhr);
+                    reject(new Error('Upload aborted'));
+                });
+
+                // parameters in the query string : the body is the raw chunk
+                const params = new URLSearchParams({
+                    dir: this.dir,
+                    filename: this.file.name,
+                    uploadId: this.uploadId,
+                    index: index,
+                    checksum: checksum
+                });
+                xhr.open('POST', config.endpoints.uploadChunk + '?' + params.toString(), true);
+                xhr.setRequestHeader('Content-Type', 'application/octet-stream');
+                xhr.send(blob);
+            });
+        }
+
+        reportProgress() {
+            if (this.options.onProgress) {
+                const loaded = Object.values(this.loaded).reduce((sum, bytes) => sum + bytes, 0);
+                this.options.onProgress(this.file.size > 0 ? (loaded / this.file.size) * 100 : 100, loaded, this.file.size);
+            }
+        }
+
+        complete() {
+            if (this.aborted) {
+                return;
+            }
+            postForm(config.endpoints.completeChunkedUpload, {
+                dir: this.dir,
+                filename: this.file.name,
+                uploadId: this.uploadId
+            })
+            .then(response => {
+                if (!response.success) {
+                    throw new Error(response.error || 'Failed to complete chunked upload');
+                }
+                storeUploadId(this.key, null);
+                logger.info('Chunked upload successful:', this.file.name);
+                if (this.options.onSuccess) {
+                    this.options.onSuccess({
+                        success: true,
+                        method: 'chunked',
+                        filename: this.file.name,
+                        response: response
+                    });
+                }
+            })
+            .catch(error => this.fail(error));
+        }
+
+        abort() {
+            if (this.aborted) {
+                return;
+            }
+            this.aborted = true;
+            this.xhrs.forEach(xhr => xhr.abort());
+            storeUploadId(this.key, null);
+            postForm(config.endpoints.abortChunkedUpload, {
+                dir: this.dir,
+                filename: this.file.name,
+                uploadId: this.uploadId
+            })
+            .catch(error => logger.warn('Error aborting chunked upload:', error));
+        }
+
+        fail(error) {
+            if (this.failed || this.aborted) {
+                return;
+            }
+            this.failed = true;
+            // other workers stop after their current chunk ; the chunks received stay on the server for a resume
+            this.pending = [];
+            logger.error('Chunked upload failed:', error);
+            if (this.options.onError) {
+                this.options.onError(error);
+            }
+        }
+    }
+
     /**
      * Uploads a file via classic method
      * @private
@@ -394,13 +976,13 @@
     function uploadClassic(dir, file, options) {
         logger.info('Uploading with classic method:', file.name);
 
+        // fields before the file : the server reads the body as a stream and only knows the fields sent before it
         const formData = new FormData();
         formData.append('dir', dir);
-        formData.append('qqfile', file);
-
         if (options.uploadOption) {
             formData.append('uploadOption', options.uploadOption);
         }
+        formData.append('qqfile', file);
 
         const xhr = new XMLHttpRequest();
 
@@ -471,6 +1053,11 @@
             if (typeof options.cacheDuration !== 'undefined') {
                 config.cacheDuration = options.cacheDuration;
             }
+            ['multipartThreshold', 'multipartParallelism', 'partUrlsBatchSize', 'partRetries', 'chunkedThreshold', 'chunkRetries'].forEach(name => {
+                if (typeof options[name] !== 'undefined') {
+                    config[name] = options[name];
+                }
+            });
         }
     }
 
@@ -494,7 +1081,7 @@
         clearCache: clearCache,
 
         // Utilities
-        version: '2.0.0',
+        version: '2.2.0',
         logger: logger
     };
 
@@ -0,0 +1,94 @@
+package org.esupportail.filemanager.utils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.esupportail.filemanager.beans.JsTreeFile;
+
+/**
+ * Compares the previous Base64PathEncodingUtils implementation (java.util.Base64 + replaceAll + padding concatenation)
+ * with the current one, for single encode/decode calls and for the encoding of a 10k entries listing.
+ *
+ * Run the main method of this class ; allocations are measured with com.sun.management.ThreadMXBean.
+ */
+public class Base64PathEncodingUtilsBenchmark {
+
+    static final com.sun.management.ThreadMXBean mbean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static int iterations = 200000;
+
+    static int listingSize = 10000;
+
+    static String dir = "FS:Stockage~sftp~/home/joe/Documents/2025/cours/amphi-é/slides.pdf";
+
+    static Object blackHole;
+
+    static Base64PathEncodingUtils pathEncodingUtils = new Base64PathEncodingUtils();
+
+    static String legacyEncodeDir(String path) {
+        String encodedPath = Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(path.getBytes(StandardCharsets.UTF_8));
+        encodedPath = encodedPath.replaceAll("\n", "");
+        encodedPath = encodedPath.replaceAll("=", "");
+        return "path_" + encodedPath;
+    }
+
+    static String legacyDecodeDir(String dir) {
+        dir = dir.substring("path_".length());
+        int nb_equals_to_add = 4 - dir.length() % 4;
+        if(nb_equals_to_add == 1)
+            dir = dir + "=";
+        if(nb_equals_to_add == 2)
+            dir = dir + "==";
+        return new String(Base64.getUrlDecoder().decode(dir), StandardCharsets.UTF_8);
+    }
+
+    static List<JsTreeFile> listing() {
+        List<JsTreeFile> files = new ArrayList<JsTreeFile>(listingSize);
+        for(int i=0; i<listingSize; i++) {
+            JsTreeFile file = new JsTreeFile("file-" + i + ".txt", "/home/joe/Documents/file-" + i + ".txt", "/home/joe/Documents/", "file");
+            file.setCategory("Stockage", null);
+            file.setDrive("sftp", null);
+            files.add(file);
+        }
+        return files;
+    }
+
+    static void legacyEncodeListing(List<JsTreeFile> files) {
+        for(JsTreeFile file: files) {
+            file.setEncPath(legacyEncodeDir(file.getPath()));
+            file.setEncParentPath(legacyEncodeDir(file.getParentPath()));
+        }
+    }
+
+    static void measure(String name, int iterations, Runnable runnable) {
+        // warm up
+        for(int i=0; i<iterations; i++) {
+            runnable.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = mbean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for(int i=0; i<iterations; i++) {
+            runnable.run();
+        }
+        long time = System.nanoTime() - start;
+        long allocated = mbean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.println(name + " : " + time/iterations + " ns/op, " + allocated/iterations + " bytes/op");
+    }
+
+    public static void main(String[] args) {
+        String encDir = pathEncodingUtils.encodeDir(dir);
+        measure("legacy encodeDir", iterations, () -> blackHole = legacyEncodeDir(dir));
+        measure("encodeDir", iterations, () -> blackHole = pathEncodingUtils.encodeDir(dir));
+        measure("legacy decodeDir", iterations, () -> blackHole = legacyDecodeDir(encDir));
+        measure("decodeDir", iterations, () -> blackHole = pathEncodingUtils.decodeDir(encDir));
+        List<JsTreeFile> files = listing();
+        measure("legacy encode listing of " + listingSize, 50, () -> legacyEncodeListing(files));
+        measure("encode listing of " + listingSize, 50, () -> pathEncodingUtils.encodeDir(files));
+    }
+}
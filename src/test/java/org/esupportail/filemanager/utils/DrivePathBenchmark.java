@@ -0,0 +1,80 @@
+package org.esupportail.filemanager.utils;
+
+import java.lang.management.ManagementFactory;
+
+import org.esupportail.filemanager.beans.DrivePath;
+import org.esupportail.filemanager.beans.JsTreeFile;
+
+/**
+ * Compares the allocation of the legacy split based parsing of drive pathes
+ * (getDriveCategory / getDrive / getLocalDir called on the same dir in a request)
+ * with a single DrivePath.parse.
+ *
+ * Run the main method of this class ; allocations are measured with com.sun.management.ThreadMXBean.
+ */
+public class DrivePathBenchmark {
+
+    static final com.sun.management.ThreadMXBean mbean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static int iterations = 1000000;
+
+    static String dir = "FS:Stockage~sftp~/home/joe/Documents/2025/cours/amphi-a/slides.pdf";
+
+    static Object blackHole;
+
+    static String legacyCategory(String dir) {
+        dir = dir.substring(JsTreeFile.ROOT_DRIVE.length());
+        return dir.split(JsTreeFile.DRIVE_PATH_SEPARATOR, 3)[0];
+    }
+
+    static String legacyDrive(String dir) {
+        dir = dir.substring(JsTreeFile.ROOT_DRIVE.length());
+        String[] driveAndDir = dir.split(JsTreeFile.DRIVE_PATH_SEPARATOR, 3);
+        return driveAndDir.length > 1 ? driveAndDir[1] : null;
+    }
+
+    static String legacyLocalDir(String dir) {
+        dir = dir.substring(JsTreeFile.ROOT_DRIVE.length());
+        String[] driveAndDir = dir.split(JsTreeFile.DRIVE_PATH_SEPARATOR, 3);
+        return driveAndDir.length > 2 ? driveAndDir[2] : "";
+    }
+
+    static void legacy() {
+        // a typical request : category + drive + 2 x drive (getFsAccess) + local dir
+        blackHole = legacyCategory(dir);
+        blackHole = legacyDrive(dir);
+        blackHole = legacyDrive(dir);
+        blackHole = legacyDrive(dir);
+        blackHole = legacyLocalDir(dir);
+    }
+
+    static void drivePath() {
+        DrivePath drivePath = DrivePath.parse(dir);
+        blackHole = drivePath.getCategory();
+        blackHole = drivePath.getDrive();
+        blackHole = drivePath.getDrive();
+        blackHole = drivePath.getDrive();
+        blackHole = drivePath.getLocalPath();
+    }
+
+    static void measure(String name, Runnable runnable) {
+        // warm up
+        for(int i=0; i<iterations; i++) {
+            runnable.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = mbean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for(int i=0; i<iterations; i++) {
+            runnable.run();
+        }
+        long time = System.nanoTime() - start;
+        long allocated = mbean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.println(name + " : " + time/iterations + " ns/request, " + allocated/iterations + " bytes/request");
+    }
+
+    public static void main(String[] args) {
+        measure("split", DrivePathBenchmark::legacy);
+        measure("DrivePath", DrivePathBenchmark::drivePath);
+    }
+}
@@ -0,0 +1,125 @@
+package org.esupportail.filemanager.web;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.esupportail.filemanager.beans.DownloadOffload;
+import org.esupportail.filemanager.beans.DrivePath;
+import org.esupportail.filemanager.beans.JsTreeFile;
+import org.esupportail.filemanager.services.IServersAccessService;
+import org.esupportail.filemanager.services.vfs.VfsAccessImpl;
+
+/**
+ * Checks the internal redirect headers sent instead of the content of the files of drives with an offloadMode :
+ * encoded X-Accel-Redirect location, absolute X-Sendfile path, no offload outside of offloadRoot,
+ * and content headers set by AjaxController.offloadToFrontEnd.
+ *
+ * Run the main method of this class (in a UTF-8 locale, for the non-ASCII file names) ;
+ * it fails with an AssertionError on the first unexpected value.
+ */
+public class DownloadOffloadTest {
+
+    /**
+     * Local drive whose files are mapped to the offload header without any connection.
+     */
+    static class LocalAccess extends VfsAccessImpl {
+
+        final Path root;
+
+        LocalAccess(Path root, String offloadMode, String offloadRoot, String offloadLocation) {
+            this.root = root;
+            setDriveName("local");
+            setOffloadMode(offloadMode);
+            setOffloadRoot(offloadRoot);
+            setOffloadLocation(offloadLocation);
+        }
+
+        DownloadOffload offload(String localPath) {
+            return getDownloadOffload(root.resolve(localPath.startsWith("/") ? localPath.substring(1) : localPath), root);
+        }
+    }
+
+    static void check(Object expected, Object actual, String what) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(what + " : expected <" + expected + "> but was <" + actual + ">");
+        }
+        System.out.println("ok - " + what + " : " + actual);
+    }
+
+    static IServersAccessService serverAccess(LocalAccess access) {
+        return (IServersAccessService) Proxy.newProxyInstance(DownloadOffloadTest.class.getClassLoader(),
+                new Class<?>[] {IServersAccessService.class}, (proxy, method, args) -> {
+                    if ("getDownloadOffload".equals(method.getName())) {
+                        return access.offload(((DrivePath) args[0]).getLocalPath());
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static HttpServletResponse response(Map<String, String> headers) {
+        return (HttpServletResponse) Proxy.newProxyInstance(DownloadOffloadTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setContentType" -> headers.put("Content-Type", (String) args[0]);
+                        case "setHeader" -> headers.put((String) args[0], (String) args[1]);
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    }
+                    return null;
+                });
+    }
+
+    static Map<String, String> offloadToFrontEnd(LocalAccess access, String dir, String contentType, boolean inline) throws Exception {
+        AjaxController controller = new AjaxController();
+        Field serverAccess = AjaxController.class.getDeclaredField("serverAccess");
+        serverAccess.setAccessible(true);
+        serverAccess.set(controller, serverAccess(access));
+        Method offloadToFrontEnd = AjaxController.class.getDeclaredMethod("offloadToFrontEnd",
+                DrivePath.class, String.class, boolean.class, HttpServletResponse.class);
+        offloadToFrontEnd.setAccessible(true);
+        Map<String, String> headers = new HashMap<>();
+        boolean offloaded = (boolean) offloadToFrontEnd.invoke(controller, DrivePath.parse(dir), contentType, inline, response(headers));
+        return offloaded ? headers : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("offload");
+        Path files = Files.createDirectories(root.resolve("files"));
+
+        LocalAccess accel = new LocalAccess(files, DownloadOffload.X_ACCEL_REDIRECT, null, "/protected/");
+        DownloadOffload offload = accel.offload("/cours 2025/résumé été.pdf");
+        check(DownloadOffload.X_ACCEL_REDIRECT, offload.getHeader(), "X-Accel-Redirect header");
+        check("/protected/cours%202025/r%C3%A9sum%C3%A9%20%C3%A9t%C3%A9.pdf", offload.getValue(), "X-Accel-Redirect location");
+        check("/protected/a%3Fb%23c.txt", accel.offload("/a?b#c.txt").getValue(), "X-Accel-Redirect reserved characters");
+
+        LocalAccess sendfile = new LocalAccess(files, DownloadOffload.X_SENDFILE, null, null);
+        offload = sendfile.offload("/cours 2025/../notes.txt");
+        check(DownloadOffload.X_SENDFILE, offload.getHeader(), "X-Sendfile header");
+        check(files.toAbsolutePath().normalize().resolve("notes.txt").toString(), offload.getValue(), "X-Sendfile absolute path");
+
+        LocalAccess otherRoot = new LocalAccess(files, DownloadOffload.X_SENDFILE, root.resolve("other").toString(), null);
+        check(null, otherRoot.offload("/notes.txt"), "file outside of offloadRoot");
+        check(null, sendfile.offload("/../secret.txt"), "file outside of the drive root");
+        check(null, sendfile.offload("/"), "offload root itself");
+
+        // the mime types map is loaded by the first JsTreeFile
+        new JsTreeFile("init", "init", null, "file");
+        Map<String, String> headers = offloadToFrontEnd(accel, "FS:Stockage~local~/cours 2025/résumé été.pdf", null, false);
+        check("application/pdf", headers.get("Content-Type"), "download Content-Type");
+        check("attachment; filename=\"=?UTF-8?Q?r=C3=A9sum=C3=A9_=C3=A9t=C3=A9.pdf?=\"; filename*=UTF-8''r%C3%A9sum%C3%A9%20%C3%A9t%C3%A9.pdf",
+                headers.get("Content-Disposition"), "download Content-Disposition");
+        check("/protected/cours%202025/r%C3%A9sum%C3%A9%20%C3%A9t%C3%A9.pdf", headers.get(DownloadOffload.X_ACCEL_REDIRECT), "download X-Accel-Redirect");
+
+        headers = offloadToFrontEnd(accel, "FS:Stockage~local~/photo.jpg", "image/jpeg", true);
+        check("image/jpeg", headers.get("Content-Type"), "preview Content-Type");
+        check(null, headers.get("Content-Disposition"), "preview Content-Disposition");
+
+        check(null, offloadToFrontEnd(otherRoot, "FS:Stockage~local~/notes.txt", null, false), "no offload outside of offloadRoot");
+    }
+}